@@ -27,7 +27,10 @@ import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
 import io.github.fisher2911.hmcleaves.cache.WorldBlockCache;
 import io.github.fisher2911.hmcleaves.command.LeavesCommand;
 import io.github.fisher2911.hmcleaves.config.LeavesConfig;
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.database.ChunkPDCDatabase;
 import io.github.fisher2911.hmcleaves.database.Database;
+import io.github.fisher2911.hmcleaves.database.WriteBehindQueue;
 import io.github.fisher2911.hmcleaves.debug.Debugger;
 import io.github.fisher2911.hmcleaves.hook.Hooks;
 import io.github.fisher2911.hmcleaves.listener.InteractionListener;
@@ -36,18 +39,32 @@ import io.github.fisher2911.hmcleaves.listener.LeafDropListener;
 import io.github.fisher2911.hmcleaves.listener.PlayerJoinListener;
 import io.github.fisher2911.hmcleaves.listener.SoundListener;
 import io.github.fisher2911.hmcleaves.listener.WorldAndChunkLoadListener;
+import io.github.fisher2911.hmcleaves.metrics.LeavesMetrics;
+import io.github.fisher2911.hmcleaves.metrics.MetricsFormat;
+import io.github.fisher2911.hmcleaves.nms.ChunkSectionReader;
 import io.github.fisher2911.hmcleaves.nms.FeatureHandler;
+import io.github.fisher2911.hmcleaves.nms.SnapshotChunkSectionReader;
 import io.github.fisher2911.hmcleaves.packet.BlockBreakManager;
+import io.github.fisher2911.hmcleaves.packet.BlockUpdateBuffer;
 import io.github.fisher2911.hmcleaves.packet.LeavesPacketListener;
 import io.github.retrooper.packetevents.factory.spigot.SpigotPacketEventsBuilder;
 import org.bstats.bukkit.Metrics;
 import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class HMCLeaves extends JavaPlugin {
@@ -55,10 +72,18 @@ public class HMCLeaves extends JavaPlugin {
     private LeavesConfig leavesConfig;
     private BlockCache blockCache;
     private Database leafDatabase;
+    private WriteBehindQueue writeBehindQueue;
     private BlockBreakManager blockBreakManager;
     private WorldAndChunkLoadListener worldAndChunkLoadListener;
     private LeavesPacketListener leavesPacketListener;
+    private BlockUpdateBuffer blockUpdateBuffer;
     private FeatureHandler featureHandler;
+    private ChunkSectionReader chunkSectionReader;
+    private LeavesMetrics leavesMetrics;
+    private BukkitTask metricsDumpTask;
+
+    // how often pending chunk loads are reordered as players move
+    private static final long CHUNK_LOAD_REPRIORITIZE_TICKS = 5;
 
     @Override
     public void onLoad() {
@@ -72,6 +97,8 @@ public class HMCLeaves extends JavaPlugin {
                 new HashMap<>()
         );
         this.blockCache = new BlockCache(new ConcurrentHashMap<>());
+        this.leavesMetrics = new LeavesMetrics();
+        this.chunkSectionReader = new SnapshotChunkSectionReader(this.leavesConfig);
         try {
             final String version = Bukkit.getServer().getVersion();
             if (version.contains("1.18.2")) {
@@ -97,11 +124,21 @@ public class HMCLeaves extends JavaPlugin {
     }
 
     private void createFeatureHandler(String packageVersion) throws ClassNotFoundException, IllegalAccessException, InstantiationException, InvocationTargetException {
+        this.createChunkSectionReader(packageVersion);
         this.featureHandler = (FeatureHandler) Class.forName("io.github.fisher2911." + packageVersion + ".FeatureHandler").getConstructors()[0]
                 .newInstance(this.leavesConfig, this.blockCache);
         this.featureHandler.register();
     }
 
+    private void createChunkSectionReader(String packageVersion) {
+        try {
+            this.chunkSectionReader = (ChunkSectionReader) Class.forName("io.github.fisher2911." + packageVersion + ".ChunkSectionReader").getConstructors()[0]
+                    .newInstance(this.leavesConfig);
+        } catch (ClassNotFoundException | IllegalAccessException | InstantiationException | InvocationTargetException | LinkageError e) {
+            this.getLogger().warning("Could not create chunk section reader for " + packageVersion + ", using chunk snapshots instead");
+        }
+    }
+
     @Override
     public void onEnable() {
         final PacketEventsAPI<Plugin> api = SpigotPacketEventsBuilder.build(this);
@@ -110,35 +147,122 @@ public class HMCLeaves extends JavaPlugin {
         PacketEvents.getAPI().load();
         PacketEvents.getAPI().init();
         this.leavesConfig.load();
+        this.updateBlockCacheSettings();
         this.leafDatabase = Database.create(this, this.leavesConfig);
         this.leafDatabase.load();
+        this.writeBehindQueue = new WriteBehindQueue(
+                this.leafDatabase,
+                this.leavesConfig.getDatabaseWriteBatchSize(),
+                this.leavesMetrics.histogram(LeavesMetrics.DATABASE_SAVE_BATCH)
+        );
         this.blockBreakManager = new BlockBreakManager(new ConcurrentHashMap<>(), this);
         this.worldAndChunkLoadListener = new WorldAndChunkLoadListener(this);
         this.leavesPacketListener = new LeavesPacketListener(this);
+        this.blockUpdateBuffer = new BlockUpdateBuffer(this.leavesPacketListener.getChunkViewTracker());
         Hooks.load(this);
         Bukkit.getScheduler().runTaskLater(this, () -> this.worldAndChunkLoadListener.loadDefaultWorlds(), 20);
+        Bukkit.getScheduler().runTaskTimer(this, () -> this.blockUpdateBuffer.flush(), 1, 1);
+        Bukkit.getScheduler().runTaskTimer(this, () -> this.blockBreakManager.tick(), 1, 1);
+        Bukkit.getScheduler().runTaskTimer(
+                this,
+                () -> this.worldAndChunkLoadListener.getChunkLoadScheduler().reprioritize(),
+                CHUNK_LOAD_REPRIORITIZE_TICKS,
+                CHUNK_LOAD_REPRIORITIZE_TICKS
+        );
         this.getCommand("hmcleaves").setExecutor(new LeavesCommand(this));
         final int bStatsPluginId = 16900;
         final Metrics metrics = new Metrics(this, bStatsPluginId);
         this.registerPacketListeners();
         this.registerListeners();
+        this.registerMetricGauges();
+        this.updateMetricsDump();
     }
 
     public void reload() {
         this.leavesConfig.reload();
+        this.updateBlockCacheSettings();
+        this.updateMetricsDump();
+    }
+
+    private void registerMetricGauges() {
+        this.leavesMetrics.registerGauge(
+                LeavesMetrics.DATABASE_READ_QUEUE,
+                () -> this.worldAndChunkLoadListener.getChunkLoadScheduler().getQueuedReadCount()
+        );
+        this.leavesMetrics.registerGauge(
+                LeavesMetrics.CHUNK_LOAD_BACKLOG,
+                () -> this.worldAndChunkLoadListener.getChunkLoadScheduler().getPendingCount()
+        );
+        this.leavesMetrics.registerGauge(LeavesMetrics.DATABASE_WRITE_QUEUE, () -> this.writeBehindQueue.getQueueDepth());
+        this.leavesMetrics.registerGaugeGroup(LeavesMetrics.CACHED_BLOCKS, () -> {
+            final Map<String, Long> blocksPerWorld = new TreeMap<>();
+            for (var entry : this.blockCache.getCache().entrySet()) {
+                final World world = Bukkit.getWorld(entry.getKey());
+                long blocks = 0;
+                for (ChunkBlockCache chunkBlockCache : entry.getValue().getBlockCacheMap().values()) {
+                    blocks += chunkBlockCache.getBlockCount();
+                }
+                blocksPerWorld.put(world == null ? entry.getKey().toString() : world.getName(), blocks);
+            }
+            return blocksPerWorld;
+        });
+    }
+
+    private void updateMetricsDump() {
+        if (this.metricsDumpTask != null) {
+            this.metricsDumpTask.cancel();
+            this.metricsDumpTask = null;
+        }
+        final int intervalSeconds = this.leavesConfig.getMetricsDumpIntervalSeconds();
+        if (intervalSeconds <= 0) return;
+        final long intervalTicks = intervalSeconds * 20L;
+        final MetricsFormat format = this.leavesConfig.getMetricsDumpFormat();
+        final Path folder = this.getDataFolder().toPath().resolve("metrics");
+        this.metricsDumpTask = Bukkit.getScheduler().runTaskTimerAsynchronously(this, () -> {
+            try {
+                this.leavesMetrics.dump(folder, format);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, intervalTicks, intervalTicks);
+    }
+
+    private void updateBlockCacheSettings() {
+        this.blockCache.setStorageType(this.leavesConfig.getBlockStorageType());
+        this.blockCache.setDefaultBlockLookup(this.leavesConfig.isVirtualDefaultBlocks() ? this::getWorldDefaultBlockData : null);
+    }
+
+    /**
+     * Only reads the world on the main thread, other threads only see stored blocks
+     */
+    @Nullable
+    private BlockData getWorldDefaultBlockData(UUID worldUUID, int x, int y, int z) {
+        if (!Bukkit.isPrimaryThread()) return null;
+        final World world = Bukkit.getWorld(worldUUID);
+        if (world == null || !this.leavesConfig.isWorldWhitelisted(world)) return null;
+        if (!world.isChunkLoaded(x >> 4, z >> 4)) return null;
+        final Block block = world.getBlockAt(x, y, z);
+        if (!this.leavesConfig.mayHaveDefaultBlockData(block.getType())) return null;
+        return this.leavesConfig.getDefaultBlockData(block.getBlockData());
     }
 
     @Override
     public void onDisable() {
+        this.worldAndChunkLoadListener.getChunkLoadScheduler().clear();
+        this.writeBehindQueue.shutdown();
         this.leafDatabase.shutdownNow().forEach(Runnable::run);
+        if (this.leafDatabase instanceof final ChunkPDCDatabase chunkPDCDatabase) {
+            Bukkit.getWorlds().forEach(chunkPDCDatabase::saveWorld);
+        }
         for (var entry : this.blockCache.getCache().entrySet()) {
             final WorldBlockCache worldBlockCache = entry.getValue();
             for (var chunkEntry : worldBlockCache.getBlockCacheMap().entrySet()) {
                 final ChunkBlockCache chunkBlockCache = chunkEntry.getValue();
                 if (chunkBlockCache.isClean()) continue;
-                this.leafDatabase.saveBlocksInChunk(chunkBlockCache);
+                this.writeBehindQueue.enqueue(chunkBlockCache);
             }
         }
+        this.writeBehindQueue.flush();
         this.leafDatabase.close();
         Debugger.getInstance().shutdown();
     }
@@ -171,16 +295,32 @@ public class HMCLeaves extends JavaPlugin {
         return this.leafDatabase;
     }
 
+    public WriteBehindQueue getWriteBehindQueue() {
+        return this.writeBehindQueue;
+    }
+
     public BlockBreakManager getBlockBreakManager() {
         return this.blockBreakManager;
     }
 
+    public ChunkSectionReader getChunkSectionReader() {
+        return this.chunkSectionReader;
+    }
+
+    public BlockUpdateBuffer getBlockUpdateBuffer() {
+        return this.blockUpdateBuffer;
+    }
+
+    public LeavesMetrics getLeavesMetrics() {
+        return this.leavesMetrics;
+    }
+
     public LeavesPacketListener getLeavesPacketListener() {
         return this.leavesPacketListener;
     }
 
     public boolean debug() {
-        return true;
+        return this.leavesConfig.isDebug();
     }
 
 }
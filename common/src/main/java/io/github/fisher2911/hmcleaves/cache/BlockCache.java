@@ -29,18 +29,40 @@ import org.jetbrains.annotations.Unmodifiable;
 
 import java.util.Collections;
 import java.util.Map;
-import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class BlockCache {
 
     private final Map<UUID, WorldBlockCache> cache;
+    private volatile BlockStorageType storageType = BlockStorageType.SECTIONS;
+    @Nullable
+    private volatile DefaultBlockLookup defaultBlockLookup;
 
     public BlockCache(Map<UUID, WorldBlockCache> cache) {
         this.cache = cache;
     }
 
+    public BlockStorageType getStorageType() {
+        return this.storageType;
+    }
+
+    public void setStorageType(BlockStorageType storageType) {
+        this.storageType = storageType;
+        for (WorldBlockCache worldBlockCache : this.cache.values()) {
+            worldBlockCache.setStorageType(storageType);
+        }
+    }
+
+    /**
+     * Used for positions with nothing stored when default block data isn't kept in the cache
+     *
+     * @param defaultBlockLookup null to only return stored block data
+     */
+    public void setDefaultBlockLookup(@Nullable DefaultBlockLookup defaultBlockLookup) {
+        this.defaultBlockLookup = defaultBlockLookup;
+    }
+
     @Unmodifiable
     public Map<UUID, WorldBlockCache> getCache() {
         return Collections.unmodifiableMap(this.cache);
@@ -52,30 +74,82 @@ public class BlockCache {
     }
 
     public void addBlockData(Position position, BlockData blockData) {
-        final UUID world = position.world();
-        Optional.ofNullable(this.getWorldBlockCache(world))
-                .orElseGet(() -> this.addWorldBlockCache(world))
-                .addBlockData(position, blockData);
+        this.getOrAddWorldBlockCache(position.world()).addBlockData(position, blockData);
+    }
+
+    public void addBlockData(UUID world, int x, int y, int z, BlockData blockData) {
+        this.getOrAddWorldBlockCache(world).addBlockData(x, y, z, blockData);
+    }
+
+    private WorldBlockCache getOrAddWorldBlockCache(UUID world) {
+        final WorldBlockCache worldBlockCache = this.getWorldBlockCache(world);
+        if (worldBlockCache != null) return worldBlockCache;
+        return this.addWorldBlockCache(world);
     }
 
     private WorldBlockCache addWorldBlockCache(UUID world) {
-        WorldBlockCache worldBlockCache = new WorldBlockCache(world, new ConcurrentHashMap<>());
-        this.cache.put(world, worldBlockCache);
+        final WorldBlockCache worldBlockCache = new WorldBlockCache(world, new ConcurrentHashMap<>(), this.storageType);
+        final WorldBlockCache previous = this.cache.putIfAbsent(world, worldBlockCache);
+        if (previous != null) return previous;
         return worldBlockCache;
     }
 
     @NotNull
     public BlockData getBlockData(Position position) {
-        final WorldBlockCache worldBlockCache = this.getWorldBlockCache(position.world());
+        return this.getBlockData(position.world(), position.x(), position.y(), position.z());
+    }
+
+    @NotNull
+    public BlockData getBlockData(UUID world, int x, int y, int z) {
+        final WorldBlockCache worldBlockCache = this.getWorldBlockCache(world);
+        if (worldBlockCache == null) return this.getDefault(world, x, y, z);
+        final BlockData blockData = worldBlockCache.getBlockData(x, y, z);
+        if (blockData != BlockData.EMPTY) return blockData;
+        return this.getDefault(world, x, y, z);
+    }
+
+    @NotNull
+    public BlockData getBlockData(UUID world, long packedPosition) {
+        return this.getBlockData(
+                world,
+                Position.unpackX(packedPosition),
+                Position.unpackY(packedPosition),
+                Position.unpackZ(packedPosition)
+        );
+    }
+
+    /**
+     * @return the stored block data at the position, ignoring the {@link DefaultBlockLookup}
+     */
+    @NotNull
+    public BlockData getStoredBlockData(UUID world, int x, int y, int z) {
+        final WorldBlockCache worldBlockCache = this.getWorldBlockCache(world);
         if (worldBlockCache == null) return BlockData.EMPTY;
-        return worldBlockCache.getBlockData(position);
+        return worldBlockCache.getBlockData(x, y, z);
     }
 
     @NotNull
     public BlockData removeBlockData(Position position) {
-        final WorldBlockCache worldBlockCache = this.getWorldBlockCache(position.world());
+        return this.removeBlockData(position.world(), position.x(), position.y(), position.z());
+    }
+
+    /**
+     * @return the stored block data that was removed, the {@link DefaultBlockLookup} is not used
+     */
+    @NotNull
+    public BlockData removeBlockData(UUID world, int x, int y, int z) {
+        final WorldBlockCache worldBlockCache = this.getWorldBlockCache(world);
         if (worldBlockCache == null) return BlockData.EMPTY;
-        return worldBlockCache.removeBlockData(position);
+        return worldBlockCache.removeBlockData(x, y, z);
+    }
+
+    @NotNull
+    private BlockData getDefault(UUID world, int x, int y, int z) {
+        final DefaultBlockLookup defaultBlockLookup = this.defaultBlockLookup;
+        if (defaultBlockLookup == null) return BlockData.EMPTY;
+        final BlockData blockData = defaultBlockLookup.getDefault(world, x, y, z);
+        if (blockData == null) return BlockData.EMPTY;
+        return blockData;
     }
 
     public void addToDropPositions(Position position, BlockData blockData) {
@@ -99,14 +173,19 @@ public class BlockCache {
 
     @Nullable
     public ChunkBlockCache getChunkBlockCache(Position position) {
-        return this.getChunkBlockCache(position.getChunkPosition());
+        return this.getChunkBlockCache(position.world(), position.x() >> 4, position.z() >> 4);
     }
 
     @Nullable
     public ChunkBlockCache getChunkBlockCache(ChunkPosition position) {
-        final WorldBlockCache worldBlockCache = this.getWorldBlockCache(position.world());
+        return this.getChunkBlockCache(position.world(), position.x(), position.z());
+    }
+
+    @Nullable
+    public ChunkBlockCache getChunkBlockCache(UUID world, int chunkX, int chunkZ) {
+        final WorldBlockCache worldBlockCache = this.getWorldBlockCache(world);
         if (worldBlockCache == null) return null;
-        return worldBlockCache.getChunkBlockCache(position);
+        return worldBlockCache.getChunkBlockCache(chunkX, chunkZ);
     }
 
     @Nullable
@@ -117,11 +196,7 @@ public class BlockCache {
     }
 
     public ChunkBlockCache addChunkCache(ChunkPosition chunkPosition) {
-        WorldBlockCache worldBlockCache = this.getWorldBlockCache(chunkPosition.world());
-        if (worldBlockCache == null) {
-            worldBlockCache = this.addWorldBlockCache(chunkPosition.world());
-        }
-        return worldBlockCache.addChunkCache(chunkPosition);
+        return this.getOrAddWorldBlockCache(chunkPosition.world()).addChunkCache(chunkPosition);
     }
 
 }
@@ -0,0 +1,69 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.cache;
+
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.world.Position;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * Backing storage of a single {@link ChunkBlockCache}, coordinates are world block coordinates
+ */
+interface BlockStorage {
+
+    @Nullable
+    BlockData get(int x, int y, int z);
+
+    /**
+     * @return the previous value, or null if there was none
+     */
+    @Nullable
+    BlockData put(int x, int y, int z, BlockData blockData);
+
+    /**
+     * Only puts the value if nothing is stored at the position, checked and set atomically
+     *
+     * @return the value already stored, or null if the value was put
+     */
+    @Nullable
+    BlockData putIfAbsent(int x, int y, int z, BlockData blockData);
+
+    /**
+     * @return the removed value, or null if there was none
+     */
+    @Nullable
+    BlockData remove(int x, int y, int z);
+
+    int size();
+
+    /**
+     * Visits every block ordered by section, then by index in the section
+     */
+    void forEachInSectionOrder(SectionBlockConsumer consumer);
+
+    /**
+     * @return a snapshot of the storage
+     */
+    Map<Position, BlockData> asMap();
+
+}
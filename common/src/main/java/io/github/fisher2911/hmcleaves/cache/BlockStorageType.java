@@ -0,0 +1,30 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.cache;
+
+public enum BlockStorageType {
+
+    // one Position -> BlockData entry per block
+    MAP,
+    // 16x16x16 sections holding a BlockData palette and a packed index array
+    SECTIONS
+
+}
@@ -28,17 +28,22 @@ import io.github.fisher2911.hmcleaves.world.Position;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Unmodifiable;
 
-import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 public class ChunkBlockCache implements Metadatable {
 
     private final ChunkPosition chunkPosition;
-    private final Map<Position, BlockData> blockDataMap;
+    private final BlockStorage blockStorage;
     private final Map<Position, BlockData> removedPositions;
     private final Map<Position, BlockData> toDropPositions;
     private final Metadata metadata = Metadata.mutableEmpty();
+    // incremented every time a block is set or removed, used to tell if anything derived from this chunk is stale
+    private final AtomicLong modificationCount = new AtomicLong();
+    // set once the saved blocks have been read from the database, until then this only holds blocks changed since the chunk loaded
+    private volatile boolean loaded;
     private boolean dirty;
     private boolean saving;
     private boolean safeToMarkClean;
@@ -49,9 +54,23 @@ public class ChunkBlockCache implements Metadatable {
             Map<Position, BlockData> removedPositions,
             Map<Position, BlockData> toDropPositions
 
+    ) {
+        this(
+                chunkPosition,
+                new MapBlockStorage(chunkPosition.world(), chunkPosition.x(), chunkPosition.z(), blockDataMap),
+                removedPositions,
+                toDropPositions
+        );
+    }
+
+    private ChunkBlockCache(
+            ChunkPosition chunkPosition,
+            BlockStorage blockStorage,
+            Map<Position, BlockData> removedPositions,
+            Map<Position, BlockData> toDropPositions
     ) {
         this.chunkPosition = chunkPosition;
-        this.blockDataMap = blockDataMap;
+        this.blockStorage = blockStorage;
         this.removedPositions = removedPositions;
         this.toDropPositions = toDropPositions;
         this.dirty = false;
@@ -59,23 +78,79 @@ public class ChunkBlockCache implements Metadatable {
         this.safeToMarkClean = true;
     }
 
+    public static ChunkBlockCache create(ChunkPosition chunkPosition, BlockStorageType storageType) {
+        final BlockStorage blockStorage = switch (storageType) {
+            case SECTIONS -> new SectionBlockStorage(chunkPosition.world(), chunkPosition.x(), chunkPosition.z());
+            case MAP -> new MapBlockStorage(chunkPosition.world(), chunkPosition.x(), chunkPosition.z());
+        };
+        return new ChunkBlockCache(chunkPosition, blockStorage, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+    }
+
     @NotNull
     public BlockData getBlockDataAt(Position position) {
-        return this.blockDataMap.getOrDefault(position, BlockData.EMPTY);
+        return this.getBlockDataAt(position.x(), position.y(), position.z());
+    }
+
+    @NotNull
+    public BlockData getBlockDataAt(long packedPosition) {
+        return this.getBlockDataAt(
+                Position.unpackX(packedPosition),
+                Position.unpackY(packedPosition),
+                Position.unpackZ(packedPosition)
+        );
+    }
+
+    @NotNull
+    public BlockData getBlockDataAt(int x, int y, int z) {
+        final BlockData blockData = this.blockStorage.get(x, y, z);
+        if (blockData == null) return BlockData.EMPTY;
+        return blockData;
     }
 
     public void setBlockData(Position position, BlockData blockData) {
-        this.blockDataMap.put(position, blockData);
-        this.removedPositions.remove(position);
-        this.markDirty();
+        this.blockStorage.put(position.x(), position.y(), position.z(), blockData);
+        if (!this.removedPositions.isEmpty()) {
+            this.removedPositions.remove(position);
+        }
+        this.onModified();
+    }
+
+    public void setBlockData(int x, int y, int z, BlockData blockData) {
+        this.blockStorage.put(x, y, z, blockData);
+        if (!this.removedPositions.isEmpty()) {
+            this.removedPositions.remove(Position.at(this.chunkPosition.world(), x, y, z));
+        }
+        this.onModified();
+    }
+
+    /**
+     * Adds a block read from the database, unless the position was set or removed since
+     */
+    public void mergeStoredBlockData(int x, int y, int z, BlockData blockData) {
+        if (!this.removedPositions.isEmpty() && this.removedPositions.containsKey(Position.at(this.chunkPosition.world(), x, y, z))) {
+            return;
+        }
+        // atomic, so a block set on another thread in the meantime is never replaced by the older stored one
+        if (this.blockStorage.putIfAbsent(x, y, z, blockData) != null) return;
+        // the block was already saved so the chunk isn't dirty, but patches built before it are outdated
+        this.modificationCount.incrementAndGet();
     }
 
     @NotNull
     public BlockData removeBlockDataAt(Position position) {
-        final BlockData blockData = this.blockDataMap.remove(position);
+        final BlockData blockData = this.blockStorage.remove(position.x(), position.y(), position.z());
         if (blockData == null) return BlockData.EMPTY;
         this.removedPositions.put(position, blockData);
-        this.markDirty();
+        this.onModified();
+        return blockData;
+    }
+
+    @NotNull
+    public BlockData removeBlockDataAt(int x, int y, int z) {
+        final BlockData blockData = this.blockStorage.remove(x, y, z);
+        if (blockData == null) return BlockData.EMPTY;
+        this.removedPositions.put(Position.at(this.chunkPosition.world(), x, y, z), blockData);
+        this.onModified();
         return blockData;
     }
 
@@ -83,9 +158,24 @@ public class ChunkBlockCache implements Metadatable {
         return this.chunkPosition;
     }
 
+    /**
+     * @return a snapshot of the block data in this chunk
+     */
     @Unmodifiable
     public Map<Position, BlockData> getBlockDataMap() {
-        return Collections.unmodifiableMap(this.blockDataMap);
+        return this.blockStorage.asMap();
+    }
+
+    public int getBlockCount() {
+        return this.blockStorage.size();
+    }
+
+    /**
+     * Visits every block ordered by section, then by index in the section.
+     * With {@link BlockStorageType#SECTIONS} empty sections are skipped without being looked at.
+     */
+    public void forEachBlockInSectionOrder(SectionBlockConsumer consumer) {
+        this.blockStorage.forEachInSectionOrder(consumer);
     }
 
     public void addToDropPositions(Position position, BlockData blockData) {
@@ -107,10 +197,35 @@ public class ChunkBlockCache implements Metadatable {
         this.toDropPositions.clear();
     }
 
+    /**
+     * @return a snapshot of the blocks removed since they were last saved
+     */
+    @Unmodifiable
+    public Map<Position, BlockData> getRemovedPositions() {
+        return Map.copyOf(this.removedPositions);
+    }
+
     public void clearRemovedPositions(Function<Map.Entry<Position, BlockData>, Boolean> function) {
         this.removedPositions.entrySet().removeIf(function::apply);
     }
 
+    public boolean isLoaded() {
+        return this.loaded;
+    }
+
+    public void markLoaded() {
+        this.loaded = true;
+    }
+
+    private void onModified() {
+        this.modificationCount.incrementAndGet();
+        this.markDirty();
+    }
+
+    public long getModificationCount() {
+        return this.modificationCount.get();
+    }
+
     public boolean isDirty() {
         return dirty;
     }
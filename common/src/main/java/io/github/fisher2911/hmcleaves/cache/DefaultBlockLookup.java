@@ -0,0 +1,40 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.cache;
+
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * Works out the default block data of a block that has nothing stored in the {@link BlockCache}
+ */
+@FunctionalInterface
+public interface DefaultBlockLookup {
+
+    /**
+     * @return the default block data at the position, or null if there is none or it can't be worked out
+     */
+    @Nullable
+    BlockData getDefault(UUID world, int x, int y, int z);
+
+}
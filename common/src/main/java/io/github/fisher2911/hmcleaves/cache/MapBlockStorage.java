@@ -0,0 +1,113 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.cache;
+
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.util.ConcurrentLongMap;
+import io.github.fisher2911.hmcleaves.world.Position;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+final class MapBlockStorage implements BlockStorage {
+
+    private final UUID world;
+    private final int blockX;
+    private final int blockZ;
+    // keyed by Position#asLong
+    private final ConcurrentLongMap<BlockData> blockDataMap;
+
+    MapBlockStorage(UUID world, int chunkX, int chunkZ) {
+        this.world = world;
+        this.blockX = chunkX << 4;
+        this.blockZ = chunkZ << 4;
+        this.blockDataMap = new ConcurrentLongMap<>();
+    }
+
+    MapBlockStorage(UUID world, int chunkX, int chunkZ, Map<Position, BlockData> blockDataMap) {
+        this(world, chunkX, chunkZ);
+        for (var entry : blockDataMap.entrySet()) {
+            final Position position = entry.getKey();
+            this.put(position.x(), position.y(), position.z(), entry.getValue());
+        }
+    }
+
+    @Override
+    public @Nullable BlockData get(int x, int y, int z) {
+        return this.blockDataMap.get(Position.asLong(x, y, z));
+    }
+
+    @Override
+    public @Nullable BlockData put(int x, int y, int z, BlockData blockData) {
+        return this.blockDataMap.put(Position.asLong(x, y, z), blockData);
+    }
+
+    @Override
+    public @Nullable BlockData putIfAbsent(int x, int y, int z, BlockData blockData) {
+        return this.blockDataMap.putIfAbsent(Position.asLong(x, y, z), blockData);
+    }
+
+    @Override
+    public @Nullable BlockData remove(int x, int y, int z) {
+        return this.blockDataMap.remove(Position.asLong(x, y, z));
+    }
+
+    @Override
+    public int size() {
+        return this.blockDataMap.size();
+    }
+
+    @Override
+    public void forEachInSectionOrder(SectionBlockConsumer consumer) {
+        final long[] keys = new long[this.blockDataMap.size()];
+        final int[] size = {0};
+        // the key only holds the section and the index in the section, which is enough to find the block in this chunk
+        this.blockDataMap.forEach((packed, blockData) -> {
+            if (size[0] == keys.length) return;
+            final int y = Position.unpackY(packed);
+            keys[size[0]++] = ((long) (y >> 4) << 12) | SectionBlockStorage.sectionIndex(Position.unpackX(packed), y, Position.unpackZ(packed));
+        });
+        Arrays.sort(keys, 0, size[0]);
+        for (int i = 0; i < size[0]; i++) {
+            final long key = keys[i];
+            final int sectionY = (int) (key >> 12);
+            final int index = (int) (key & 0xFFF);
+            final BlockData blockData = this.get(
+                    this.blockX | (index & 15),
+                    (sectionY << 4) | (index >> 8),
+                    this.blockZ | ((index >> 4) & 15)
+            );
+            if (blockData == null) continue;
+            consumer.accept(sectionY, index, blockData);
+        }
+    }
+
+    @Override
+    public Map<Position, BlockData> asMap() {
+        final Map<Position, BlockData> map = new HashMap<>();
+        this.blockDataMap.forEach((packed, blockData) -> map.put(Position.fromLong(this.world, packed), blockData));
+        return map;
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.cache;
+
+import io.github.fisher2911.hmcleaves.data.BlockData;
+
+@FunctionalInterface
+public interface SectionBlockConsumer {
+
+    /**
+     * @param sectionY the section y coordinate (block y >> 4)
+     * @param index    the index in the section, (y & 15) << 8 | (z & 15) << 4 | (x & 15)
+     */
+    void accept(int sectionY, int index, BlockData blockData);
+
+}
@@ -0,0 +1,279 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.cache;
+
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.world.Position;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Stores block data in 16x16x16 sections, each section holds a small palette of the distinct
+ * {@link BlockData} values in it and one palette index per block, so that a chunk full of the same few
+ * leaves only costs a byte per block instead of a map entry and a {@link Position}.
+ */
+final class SectionBlockStorage implements BlockStorage {
+
+    private static final Section[] EMPTY_SECTIONS = new Section[0];
+
+    private final UUID world;
+    private final int blockX;
+    private final int blockZ;
+    // sections[i] is the section at section y (minSection + i)
+    private Section[] sections = EMPTY_SECTIONS;
+    private int minSection;
+    private int size;
+
+    SectionBlockStorage(UUID world, int chunkX, int chunkZ) {
+        this.world = world;
+        this.blockX = chunkX << 4;
+        this.blockZ = chunkZ << 4;
+    }
+
+    static int sectionIndex(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    @Override
+    public synchronized @Nullable BlockData get(int x, int y, int z) {
+        final Section section = this.getSection(y >> 4);
+        if (section == null) return null;
+        return section.get(sectionIndex(x, y, z));
+    }
+
+    @Override
+    public synchronized @Nullable BlockData put(int x, int y, int z, BlockData blockData) {
+        final int sectionY = y >> 4;
+        Section section = this.getSection(sectionY);
+        if (section == null) {
+            section = new Section();
+            this.setSection(sectionY, section);
+        }
+        final BlockData previous = section.set(sectionIndex(x, y, z), blockData);
+        if (previous == null) this.size++;
+        return previous;
+    }
+
+    @Override
+    public synchronized @Nullable BlockData putIfAbsent(int x, int y, int z, BlockData blockData) {
+        final BlockData current = this.get(x, y, z);
+        if (current != null) return current;
+        this.put(x, y, z, blockData);
+        return null;
+    }
+
+    @Override
+    public synchronized @Nullable BlockData remove(int x, int y, int z) {
+        final int sectionY = y >> 4;
+        final Section section = this.getSection(sectionY);
+        if (section == null) return null;
+        final BlockData removed = section.remove(sectionIndex(x, y, z));
+        if (removed == null) return null;
+        this.size--;
+        if (section.isEmpty()) {
+            this.sections[sectionY - this.minSection] = null;
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized int size() {
+        return this.size;
+    }
+
+    @Override
+    public synchronized void forEachInSectionOrder(SectionBlockConsumer consumer) {
+        for (int i = 0; i < this.sections.length; i++) {
+            final Section section = this.sections[i];
+            if (section == null) continue;
+            section.forEach(this.minSection + i, consumer);
+        }
+    }
+
+    @Override
+    public synchronized Map<Position, BlockData> asMap() {
+        final Map<Position, BlockData> map = new HashMap<>();
+        for (int i = 0; i < this.sections.length; i++) {
+            final Section section = this.sections[i];
+            if (section == null) continue;
+            final int blockY = (this.minSection + i) << 4;
+            section.forEach(this.minSection + i, (sectionY, index, blockData) -> map.put(Position.at(
+                    this.world,
+                    this.blockX | (index & 15),
+                    blockY | (index >> 8),
+                    this.blockZ | ((index >> 4) & 15)
+            ), blockData));
+        }
+        return map;
+    }
+
+    @Nullable
+    private Section getSection(int sectionY) {
+        final int index = sectionY - this.minSection;
+        if (index < 0 || index >= this.sections.length) return null;
+        return this.sections[index];
+    }
+
+    private void setSection(int sectionY, Section section) {
+        if (this.sections.length == 0) {
+            this.sections = new Section[1];
+            this.minSection = sectionY;
+        } else if (sectionY < this.minSection) {
+            final Section[] grown = new Section[this.sections.length + (this.minSection - sectionY)];
+            System.arraycopy(this.sections, 0, grown, this.minSection - sectionY, this.sections.length);
+            this.sections = grown;
+            this.minSection = sectionY;
+        } else if (sectionY - this.minSection >= this.sections.length) {
+            this.sections = Arrays.copyOf(this.sections, sectionY - this.minSection + 1);
+        }
+        this.sections[sectionY - this.minSection] = section;
+    }
+
+    static final class Section {
+
+        static final int SIZE = 16 * 16 * 16;
+        private static final int MAX_BYTE_INDEX = 255;
+
+        // palette[0] is always empty so that a zeroed index array means an empty section
+        private BlockData[] palette = new BlockData[4];
+        private int[] paletteReferences = new int[4];
+        private int paletteSize = 1;
+        private byte[] byteIndexes = new byte[SIZE];
+        private short[] shortIndexes;
+        // one bit per block that is set, so iterating skips empty parts of the section
+        private final long[] occupied = new long[SIZE / Long.SIZE];
+        private int count;
+
+        @Nullable
+        BlockData get(int index) {
+            return this.palette[this.getPaletteIndex(index)];
+        }
+
+        @Nullable
+        BlockData set(int index, BlockData blockData) {
+            final int previousIndex = this.getPaletteIndex(index);
+            final BlockData previous = this.palette[previousIndex];
+            if (previous != null && previous.equals(blockData)) {
+                this.palette[previousIndex] = blockData;
+                return previous;
+            }
+            final int paletteIndex = this.getOrAddToPalette(blockData);
+            this.setPaletteIndex(index, paletteIndex);
+            this.paletteReferences[paletteIndex]++;
+            if (previous == null) {
+                this.occupied[index >>> 6] |= 1L << index;
+                this.count++;
+            } else {
+                this.release(previousIndex);
+            }
+            return previous;
+        }
+
+        @Nullable
+        BlockData remove(int index) {
+            final int paletteIndex = this.getPaletteIndex(index);
+            if (paletteIndex == 0) return null;
+            final BlockData removed = this.palette[paletteIndex];
+            this.setPaletteIndex(index, 0);
+            this.occupied[index >>> 6] &= ~(1L << index);
+            this.release(paletteIndex);
+            this.count--;
+            return removed;
+        }
+
+        boolean isEmpty() {
+            return this.count == 0;
+        }
+
+        void forEach(int sectionY, SectionBlockConsumer consumer) {
+            for (int word = 0; word < this.occupied.length; word++) {
+                long bits = this.occupied[word];
+                while (bits != 0) {
+                    final int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+                    consumer.accept(sectionY, index, this.palette[this.getPaletteIndex(index)]);
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        private int getPaletteIndex(int index) {
+            if (this.shortIndexes != null) return this.shortIndexes[index] & 0xFFFF;
+            return this.byteIndexes[index] & 0xFF;
+        }
+
+        private void setPaletteIndex(int index, int paletteIndex) {
+            if (this.shortIndexes != null) {
+                this.shortIndexes[index] = (short) paletteIndex;
+                return;
+            }
+            this.byteIndexes[index] = (byte) paletteIndex;
+        }
+
+        private void release(int paletteIndex) {
+            if (--this.paletteReferences[paletteIndex] > 0) return;
+            this.palette[paletteIndex] = null;
+            if (paletteIndex == this.paletteSize - 1) {
+                while (this.paletteSize > 1 && this.palette[this.paletteSize - 1] == null) {
+                    this.paletteSize--;
+                }
+            }
+        }
+
+        private int getOrAddToPalette(BlockData blockData) {
+            int free = -1;
+            for (int i = 1; i < this.paletteSize; i++) {
+                final BlockData paletteData = this.palette[i];
+                if (paletteData == null) {
+                    if (free == -1) free = i;
+                    continue;
+                }
+                if (paletteData.equals(blockData)) return i;
+            }
+            if (free == -1) {
+                free = this.paletteSize++;
+                if (free == this.palette.length) {
+                    this.palette = Arrays.copyOf(this.palette, this.palette.length * 2);
+                    this.paletteReferences = Arrays.copyOf(this.paletteReferences, this.paletteReferences.length * 2);
+                }
+                if (free > MAX_BYTE_INDEX && this.shortIndexes == null) {
+                    this.upgradeIndexes();
+                }
+            }
+            this.palette[free] = blockData;
+            return free;
+        }
+
+        private void upgradeIndexes() {
+            final short[] shortIndexes = new short[SIZE];
+            for (int i = 0; i < SIZE; i++) {
+                shortIndexes[i] = (short) (this.byteIndexes[i] & 0xFF);
+            }
+            this.shortIndexes = shortIndexes;
+            this.byteIndexes = null;
+        }
+
+    }
+
+}
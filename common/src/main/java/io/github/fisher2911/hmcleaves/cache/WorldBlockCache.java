@@ -21,6 +21,7 @@
 package io.github.fisher2911.hmcleaves.cache;
 
 import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.util.ConcurrentLongMap;
 import io.github.fisher2911.hmcleaves.world.ChunkPosition;
 import io.github.fisher2911.hmcleaves.world.Position;
 import org.jetbrains.annotations.NotNull;
@@ -29,39 +30,58 @@ import org.jetbrains.annotations.Unmodifiable;
 
 import java.util.Collections;
 import java.util.Map;
-import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 public class WorldBlockCache {
 
     private final UUID world;
     private final Map<ChunkPosition, ChunkBlockCache> blockCacheMap;
+    // same chunks as blockCacheMap, keyed by ChunkPosition#chunkKey so lookups don't allocate
+    private final ConcurrentLongMap<ChunkBlockCache> chunkIndex;
+    private volatile BlockStorageType storageType;
 
     public WorldBlockCache(UUID world, Map<ChunkPosition, ChunkBlockCache> blockCacheMap) {
+        this(world, blockCacheMap, BlockStorageType.SECTIONS);
+    }
+
+    public WorldBlockCache(UUID world, Map<ChunkPosition, ChunkBlockCache> blockCacheMap, BlockStorageType storageType) {
         this.world = world;
         this.blockCacheMap = blockCacheMap;
+        this.chunkIndex = new ConcurrentLongMap<>(Math.max(16, blockCacheMap.size()));
+        for (var entry : blockCacheMap.entrySet()) {
+            this.chunkIndex.put(entry.getKey().getChunkKey(), entry.getValue());
+        }
+        this.storageType = storageType;
     }
 
     @Nullable
     public ChunkBlockCache getChunkBlockCache(ChunkPosition chunkPosition) {
-        return this.blockCacheMap.get(chunkPosition);
+        return this.chunkIndex.get(chunkPosition.getChunkKey());
     }
 
     @Nullable
     public ChunkBlockCache getChunkBlockCache(Position position) {
-        return this.getChunkBlockCache(position.getChunkPosition());
+        return this.getChunkBlockCache(position.x() >> 4, position.z() >> 4);
     }
 
     @Nullable
     public ChunkBlockCache getChunkBlockCache(int x, int z) {
-        return this.getChunkBlockCache(ChunkPosition.at(this.world, x, z));
+        return this.chunkIndex.get(ChunkPosition.chunkKey(x, z));
+    }
+
+    @Nullable
+    public ChunkBlockCache getChunkBlockCache(long chunkKey) {
+        return this.chunkIndex.get(chunkKey);
     }
 
     @Nullable
-    public ChunkBlockCache removeChunkBlockCache(ChunkPosition chunkPosition) {
-        return this.blockCacheMap.remove(chunkPosition);
+    public synchronized ChunkBlockCache removeChunkBlockCache(ChunkPosition chunkPosition) {
+        final ChunkBlockCache removed = this.blockCacheMap.remove(chunkPosition);
+        if (removed != null) {
+            this.chunkIndex.remove(chunkPosition.getChunkKey(), removed);
+        }
+        return removed;
     }
 
     @Nullable
@@ -70,27 +90,40 @@ public class WorldBlockCache {
     }
 
     public void addBlockData(Position position, BlockData blockData) {
-        final ChunkBlockCache chunkBlockCache = Optional.ofNullable(this.getChunkBlockCache(position))
-                .orElseGet(() -> this.createChunkBlockCache(position));
+        ChunkBlockCache chunkBlockCache = this.getChunkBlockCache(position);
+        if (chunkBlockCache == null) {
+            chunkBlockCache = this.addChunkCache(position.getChunkPosition());
+        }
         chunkBlockCache.setBlockData(position, blockData);
     }
 
-    private ChunkBlockCache createChunkBlockCache(Position position) {
-        final ChunkBlockCache chunkBlockCache = new ChunkBlockCache(
-                position.getChunkPosition(),
-                new ConcurrentHashMap<>(),
-                new ConcurrentHashMap<>(),
-                new ConcurrentHashMap<>()
-        );
-        this.blockCacheMap.put(position.getChunkPosition(), chunkBlockCache);
-        return chunkBlockCache;
+    public void addBlockData(int x, int y, int z, BlockData blockData) {
+        ChunkBlockCache chunkBlockCache = this.getChunkBlockCache(x >> 4, z >> 4);
+        if (chunkBlockCache == null) {
+            chunkBlockCache = this.addChunkCache(ChunkPosition.at(this.world, x >> 4, z >> 4));
+        }
+        chunkBlockCache.setBlockData(x, y, z, blockData);
     }
 
     @NotNull
     public BlockData getBlockData(Position position) {
-        final ChunkBlockCache chunkBlockCache = this.getChunkBlockCache(position);
+        return this.getBlockData(position.x(), position.y(), position.z());
+    }
+
+    @NotNull
+    public BlockData getBlockData(int x, int y, int z) {
+        final ChunkBlockCache chunkBlockCache = this.getChunkBlockCache(x >> 4, z >> 4);
         if (chunkBlockCache == null) return BlockData.EMPTY;
-        return chunkBlockCache.getBlockDataAt(position);
+        return chunkBlockCache.getBlockDataAt(x, y, z);
+    }
+
+    @NotNull
+    public BlockData getBlockData(long packedPosition) {
+        return this.getBlockData(
+                Position.unpackX(packedPosition),
+                Position.unpackY(packedPosition),
+                Position.unpackZ(packedPosition)
+        );
     }
 
     @NotNull
@@ -100,6 +133,13 @@ public class WorldBlockCache {
         return chunkBlockCache.removeBlockDataAt(position);
     }
 
+    @NotNull
+    public BlockData removeBlockData(int x, int y, int z) {
+        final ChunkBlockCache chunkBlockCache = this.getChunkBlockCache(x >> 4, z >> 4);
+        if (chunkBlockCache == null) return BlockData.EMPTY;
+        return chunkBlockCache.removeBlockDataAt(x, y, z);
+    }
+
     @Unmodifiable
     public Map<ChunkPosition, ChunkBlockCache> getBlockCacheMap() {
         return Collections.unmodifiableMap(this.blockCacheMap);
@@ -124,23 +164,35 @@ public class WorldBlockCache {
         return chunkBlockCache.getDataAtDropPosition(position);
     }
 
-    public void clearAll(Consumer<ChunkBlockCache> consumer) {
+    public synchronized void clearAll(Consumer<ChunkBlockCache> consumer) {
         this.blockCacheMap.entrySet().removeIf(entry -> {
             consumer.accept(entry.getValue());
+            this.chunkIndex.remove(entry.getKey().getChunkKey(), entry.getValue());
             return true;
         });
     }
 
     public ChunkBlockCache addChunkCache(ChunkPosition chunkPosition) {
-        final ChunkBlockCache chunkBlockCache = new ChunkBlockCache(
-                chunkPosition,
-                new ConcurrentHashMap<>(),
-                new ConcurrentHashMap<>(),
-                new ConcurrentHashMap<>()
-        );
-        final ChunkBlockCache previous = this.blockCacheMap.putIfAbsent(chunkPosition, chunkBlockCache);
-        if (previous != null) return previous;
-        return chunkBlockCache;
+        final ChunkBlockCache existing = this.getChunkBlockCache(chunkPosition);
+        if (existing != null) return existing;
+        synchronized (this) {
+            final ChunkBlockCache chunkBlockCache = ChunkBlockCache.create(chunkPosition, this.storageType);
+            final ChunkBlockCache previous = this.blockCacheMap.putIfAbsent(chunkPosition, chunkBlockCache);
+            if (previous != null) return previous;
+            this.chunkIndex.put(chunkPosition.getChunkKey(), chunkBlockCache);
+            return chunkBlockCache;
+        }
+    }
+
+    public BlockStorageType getStorageType() {
+        return this.storageType;
+    }
+
+    /**
+     * Only affects chunk caches created after this is called
+     */
+    public void setStorageType(BlockStorageType storageType) {
+        this.storageType = storageType;
     }
 
 }
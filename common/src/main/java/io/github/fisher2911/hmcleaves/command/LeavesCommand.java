@@ -45,11 +45,13 @@ public class LeavesCommand implements TabExecutor {
     public static final String DEBUG_TOOL_PERMISSION = "hmcleaves.command.debugtool";
     public static final String RELOAD_PERMISSION = "hmcleaves.command.reload";
     public static final String SAVE_SCHEM_PERMISSION = "hmcleaves.command.transformschem";
+    public static final String STATS_PERMISSION = "hmcleaves.command.stats";
 
     private static final String RELOAD_ARG = "reload";
     private static final String GIVE_ARG = "give";
     private static final String DEBUG_TOOL_ARG = "debugtool";
     private static final String TRANSFORM_SCHEM_ARG = "transformschem";
+    private static final String STATS_ARG = "stats";
 
     private final HMCLeaves plugin;
     private final LeavesConfig leavesConfig;
@@ -73,6 +75,12 @@ public class LeavesCommand implements TabExecutor {
             sender.sendMessage(ChatColor.GREEN + "Reloaded config.");
             return true;
         }
+        if (sender.hasPermission(STATS_PERMISSION) && args[0].equalsIgnoreCase(STATS_ARG)) {
+            for (String line : this.plugin.getLeavesMetrics().toText()) {
+                sender.sendMessage(ChatColor.GRAY + line);
+            }
+            return true;
+        }
         if (!(sender instanceof final Player player)) {
             sender.sendMessage(ChatColor.RED + "Only players can use this command.");
             return true;
@@ -120,6 +128,7 @@ public class LeavesCommand implements TabExecutor {
             if (sender.hasPermission(DEBUG_TOOL_PERMISSION) && DEBUG_TOOL_ARG.startsWith(arg)) tabs.add(DEBUG_TOOL_ARG);
             if (sender.hasPermission(SAVE_SCHEM_PERMISSION) && TRANSFORM_SCHEM_ARG.startsWith(arg))
                 tabs.add(TRANSFORM_SCHEM_ARG);
+            if (sender.hasPermission(STATS_PERMISSION) && STATS_ARG.startsWith(arg)) tabs.add(STATS_ARG);
         }
         if (args.length == 2 && sender.hasPermission(ITEM_PERMISSION) && arg.equalsIgnoreCase(GIVE_ARG)) {
             final String itemArg = args[1];
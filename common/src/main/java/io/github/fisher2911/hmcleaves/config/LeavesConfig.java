@@ -26,12 +26,16 @@ import com.github.retrooper.packetevents.protocol.world.states.WrappedBlockState
 import com.github.retrooper.packetevents.protocol.world.states.enums.Instrument;
 import com.github.retrooper.packetevents.protocol.world.states.type.StateTypes;
 import io.github.fisher2911.hmcleaves.HMCLeaves;
+import io.github.fisher2911.hmcleaves.cache.BlockStorageType;
 import io.github.fisher2911.hmcleaves.data.*;
+import io.github.fisher2911.hmcleaves.database.DatabaseExecutorType;
 import io.github.fisher2911.hmcleaves.database.DatabaseType;
 import io.github.fisher2911.hmcleaves.database.MongoDBDatabase;
 import io.github.fisher2911.hmcleaves.database.SQLiteDatabase;
 import io.github.fisher2911.hmcleaves.hook.Hooks;
+import io.github.fisher2911.hmcleaves.metrics.MetricsFormat;
 import io.github.fisher2911.hmcleaves.packet.BlockBreakModifier;
+import io.github.fisher2911.hmcleaves.packet.ClientStateTable;
 import io.github.fisher2911.hmcleaves.util.ChainedBlockUtil;
 import io.github.fisher2911.hmcleaves.util.PDCUtil;
 import io.github.fisher2911.hmcleaves.world.Position;
@@ -318,6 +322,7 @@ public class LeavesConfig {
     private final HMCLeaves plugin;
     private final Path itemsFolderPath;
     private final TextureFileGenerator textureFileGenerator;
+    private final ClientStateTable clientStateTable;
     private final Map<String, BlockData> blockDataMap;
     private final Map<String, BlockData> blockDataMapByBukkitBlockDataString;
     // so that tab complete doesn't show directional ID's
@@ -339,6 +344,18 @@ public class LeavesConfig {
     private boolean useTextureHook;
     private DatabaseType databaseType;
     private String mongoDbUri;
+    private BlockStorageType blockStorageType;
+    private boolean sqlitePooled;
+    private int sqliteReadPoolSize;
+    private int databaseWriteBatchSize;
+    private DatabaseExecutorType databaseExecutorType;
+    private int databaseReadConcurrency;
+    private int metricsDumpIntervalSeconds;
+    private MetricsFormat metricsDumpFormat;
+    private boolean debug;
+    private boolean virtualDefaultBlocks;
+    // indexed by Material#ordinal, built the first time it is needed after loading
+    private volatile boolean[] defaultBlockMaterials;
 
     public LeavesConfig(
             HMCLeaves plugin,
@@ -351,6 +368,7 @@ public class LeavesConfig {
     ) {
         this.plugin = plugin;
         this.textureFileGenerator = new TextureFileGenerator(plugin);
+        this.clientStateTable = new ClientStateTable(this::getDefaultBlockData);
         this.playerItemIds = new HashSet<>();
         this.blockDataMap = blockDataMap;
         this.blockDataMapByBukkitBlockDataString = blockDataMapByBukkitBlockDataString;
@@ -424,6 +442,35 @@ public class LeavesConfig {
         return this.blockDataMap.get(getDefaultCaveVinesStringId(glowBerries));
     }
 
+    /**
+     * A cheap check before {@link #getDefaultBlockData(org.bukkit.block.data.BlockData)},
+     * if this is false the material never has default block data
+     */
+    public boolean mayHaveDefaultBlockData(Material material) {
+        boolean[] defaultBlockMaterials = this.defaultBlockMaterials;
+        if (defaultBlockMaterials == null) {
+            defaultBlockMaterials = this.createDefaultBlockMaterials();
+            this.defaultBlockMaterials = defaultBlockMaterials;
+        }
+        return defaultBlockMaterials[material.ordinal()];
+    }
+
+    private boolean[] createDefaultBlockMaterials() {
+        final Material[] materials = Material.values();
+        final boolean[] defaultBlockMaterials = new boolean[materials.length];
+        for (Material material : materials) {
+            if (!material.isBlock()) continue;
+            defaultBlockMaterials[material.ordinal()] = Tag.LEAVES.isTagged(material) ||
+                    Tag.SAPLINGS.isTagged(material) ||
+                    Tag.LOGS.isTagged(material) ||
+                    Tag.CAVE_VINES.isTagged(material) ||
+                    AGEABLE_MATERIALS.contains(material);
+        }
+        // stone is everywhere, so only look at it if it is actually replaced
+        defaultBlockMaterials[Material.STONE.ordinal()] = this.getDefaultNoteBlockData(Material.STONE) != null;
+        return defaultBlockMaterials;
+    }
+
     @Nullable
     public BlockData getDefaultBlockData(org.bukkit.block.data.BlockData blockData) {
         final Material material = blockData.getMaterial();
@@ -560,6 +607,16 @@ public class LeavesConfig {
     private static final String USE_TEXTURE_HOOK_PATH = "use-texture-hook";
     private static final String DATABASE_TYPE_PATH = "database-type";
     private static final String MONGODB_URI_PATH = "mongodb-uri";
+    private static final String BLOCK_STORAGE_TYPE_PATH = "block-storage-type";
+    private static final String SQLITE_POOLED_PATH = "sqlite-pooled";
+    private static final String SQLITE_READ_POOL_SIZE_PATH = "sqlite-read-pool-size";
+    private static final String DATABASE_WRITE_BATCH_SIZE_PATH = "database-write-batch-size";
+    private static final String DATABASE_EXECUTOR_TYPE_PATH = "database-executor-type";
+    private static final String DATABASE_READ_CONCURRENCY_PATH = "database-read-concurrency";
+    private static final String METRICS_DUMP_INTERVAL_SECONDS_PATH = "metrics-dump-interval-seconds";
+    private static final String METRICS_DUMP_FORMAT_PATH = "metrics-dump-format";
+    private static final String DEBUG_PATH = "debug";
+    private static final String VIRTUAL_DEFAULT_BLOCKS_PATH = "virtual-default-blocks";
     private static final String WHITELISTED_WORLDS_PATH = "whitelisted-worlds";
 
     private static final Collection<String> DEFAULT_FILE_NAMES = List.of(
@@ -575,6 +632,8 @@ public class LeavesConfig {
     );
 
     public void load() {
+        this.clientStateTable.clear();
+        this.defaultBlockMaterials = null;
         this.plugin.saveDefaultConfig();
         final FileConfiguration config = this.plugin.getConfig();
         this.hardnessDisabled = config.getBoolean(DISABLED_HARDNESS, false);
@@ -596,6 +655,31 @@ public class LeavesConfig {
         this.useTextureHook = config.getBoolean(USE_TEXTURE_HOOK_PATH, true);
         this.databaseType = DatabaseType.valueOf(config.getString(DATABASE_TYPE_PATH, "SQLITE").toUpperCase());
         this.mongoDbUri = config.getString(MONGODB_URI_PATH);
+        this.sqlitePooled = config.getBoolean(SQLITE_POOLED_PATH, true);
+        this.sqliteReadPoolSize = Math.max(1, config.getInt(SQLITE_READ_POOL_SIZE_PATH, 5));
+        this.databaseWriteBatchSize = Math.max(1, config.getInt(DATABASE_WRITE_BATCH_SIZE_PATH, 64));
+        try {
+            this.databaseExecutorType = DatabaseExecutorType.valueOf(config.getString(DATABASE_EXECUTOR_TYPE_PATH, "PLATFORM").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            this.plugin.getLogger().warning("Invalid " + DATABASE_EXECUTOR_TYPE_PATH + ", defaulting to PLATFORM");
+            this.databaseExecutorType = DatabaseExecutorType.PLATFORM;
+        }
+        this.databaseReadConcurrency = Math.max(1, config.getInt(DATABASE_READ_CONCURRENCY_PATH, 5));
+        this.metricsDumpIntervalSeconds = config.getInt(METRICS_DUMP_INTERVAL_SECONDS_PATH, 0);
+        try {
+            this.metricsDumpFormat = MetricsFormat.valueOf(config.getString(METRICS_DUMP_FORMAT_PATH, "TEXT").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            this.plugin.getLogger().warning("Invalid " + METRICS_DUMP_FORMAT_PATH + ", defaulting to TEXT");
+            this.metricsDumpFormat = MetricsFormat.TEXT;
+        }
+        this.debug = config.getBoolean(DEBUG_PATH, false);
+        this.virtualDefaultBlocks = config.getBoolean(VIRTUAL_DEFAULT_BLOCKS_PATH, false);
+        try {
+            this.blockStorageType = BlockStorageType.valueOf(config.getString(BLOCK_STORAGE_TYPE_PATH, "SECTIONS").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            this.plugin.getLogger().warning("Invalid " + BLOCK_STORAGE_TYPE_PATH + ", defaulting to SECTIONS");
+            this.blockStorageType = BlockStorageType.SECTIONS;
+        }
         this.whitelistedWorlds = new HashSet<>(config.getStringList(WHITELISTED_WORLDS_PATH));
         if (!config.contains(CHUNK_VERSION_PATH)) {
             config.set(CHUNK_VERSION_PATH, 1);
@@ -692,6 +776,11 @@ public class LeavesConfig {
             final org.bukkit.block.data.BlockData bukkitBlockData = SpigotConversionUtil.toBukkitBlockData(state);
             this.blockDataMapByBukkitBlockDataString.put(bukkitBlockData.getAsString(), blockData);
         }
+        this.clientStateTable.precompute(this.blockDataMap.values());
+    }
+
+    public ClientStateTable getClientStateTable() {
+        return this.clientStateTable;
     }
 
     public boolean isHardnessDisable() {
@@ -746,6 +835,46 @@ public class LeavesConfig {
         return mongoDbUri;
     }
 
+    public BlockStorageType getBlockStorageType() {
+        return this.blockStorageType;
+    }
+
+    public boolean isSqlitePooled() {
+        return this.sqlitePooled;
+    }
+
+    public int getSqliteReadPoolSize() {
+        return this.sqliteReadPoolSize;
+    }
+
+    public int getDatabaseWriteBatchSize() {
+        return this.databaseWriteBatchSize;
+    }
+
+    public DatabaseExecutorType getDatabaseExecutorType() {
+        return this.databaseExecutorType;
+    }
+
+    public int getDatabaseReadConcurrency() {
+        return this.databaseReadConcurrency;
+    }
+
+    public int getMetricsDumpIntervalSeconds() {
+        return this.metricsDumpIntervalSeconds;
+    }
+
+    public MetricsFormat getMetricsDumpFormat() {
+        return this.metricsDumpFormat;
+    }
+
+    public boolean isDebug() {
+        return this.debug;
+    }
+
+    public boolean isVirtualDefaultBlocks() {
+        return this.virtualDefaultBlocks;
+    }
+
     public boolean canPlaceBlockAgainst(BlockData blockData, Block block) {
         final Predicate<Block> predicate = this.blockSupportPredicateMap.get(blockData.id());
         if (predicate == null) return true;
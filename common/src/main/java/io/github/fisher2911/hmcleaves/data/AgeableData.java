@@ -53,6 +53,11 @@ public record AgeableData(
             Material.WEEPING_VINES
     );
 
+    @Override
+    public boolean isStateDependentOnWorldMaterial() {
+        return true;
+    }
+
     @Override
     public WrappedBlockState getNewState(@Nullable Material worldMaterial) {
 
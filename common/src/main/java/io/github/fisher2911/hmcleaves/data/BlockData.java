@@ -112,6 +112,13 @@ public interface BlockData {
     @Nullable
     WrappedBlockState getNewState(@Nullable Material worldMaterial);
 
+    /**
+     * @return true if {@link #getNewState(Material)} returns different states depending on the material in the world
+     */
+    default boolean isStateDependentOnWorldMaterial() {
+        return false;
+    }
+
     Material realBlockType();
 
     Material worldBlockType();
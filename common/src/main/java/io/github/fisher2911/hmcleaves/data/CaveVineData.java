@@ -48,6 +48,11 @@ public record CaveVineData(
         @Nullable Supplier<ItemStack> berryItemSupplier
 ) implements BlockData, LimitedStacking {
 
+    @Override
+    public boolean isStateDependentOnWorldMaterial() {
+        return true;
+    }
+
     @Override
     public WrappedBlockState getNewState(@Nullable Material worldMaterial) {
         final WrappedBlockState state;
@@ -0,0 +1,296 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
+import io.github.fisher2911.hmcleaves.config.LeavesConfig;
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes all saved blocks in a chunk into one byte array.
+ * <p>
+ * Layout: a version byte, a compression byte, then the (possibly deflated) body.
+ * The body is a palette of (type, flag, id) entries followed by the blocks in section order,
+ * each one being the varint distance from the previous block's key (section y << 12 | index in section)
+ * and a varint palette index.
+ */
+public final class ChunkBlobCodec {
+
+    private static final byte VERSION = 1;
+    private static final byte UNCOMPRESSED = 0;
+    private static final byte DEFLATE = 1;
+    // small chunks don't gain anything from deflate
+    private static final int COMPRESSION_THRESHOLD = 128;
+
+    private ChunkBlobCodec() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static byte[] encode(ChunkBlockCache chunk) {
+        final Map<BlockData, Integer> paletteIndexes = new HashMap<>();
+        final List<BlockData> palette = new ArrayList<>();
+        final VarIntWriter blocks = new VarIntWriter(Math.max(16, chunk.getBlockCount() * 3));
+        final long[] previousKey = {0};
+        final int[] count = {0};
+        final Object[] lastData = {null};
+        final int[] lastIndex = {-1};
+        chunk.forEachBlockInSectionOrder((sectionY, index, blockData) -> {
+            if (!blockData.shouldSave()) return;
+            final int paletteIndex;
+            if (blockData == lastData[0]) {
+                paletteIndex = lastIndex[0];
+            } else {
+                if (StoredBlockTypes.getBlockType(blockData) == -1) return;
+                paletteIndex = paletteIndexes.computeIfAbsent(blockData, data -> {
+                    palette.add(data);
+                    return palette.size() - 1;
+                });
+                lastData[0] = blockData;
+                lastIndex[0] = paletteIndex;
+            }
+            final long key = ((long) sectionY << 12) | index;
+            if (count[0] == 0) {
+                blocks.writeVarLong(zigZag(key));
+            } else {
+                blocks.writeVarLong(key - previousKey[0]);
+            }
+            previousKey[0] = key;
+            blocks.writeVarInt(paletteIndex);
+            count[0]++;
+        });
+        final VarIntWriter body = new VarIntWriter(blocks.size() + palette.size() * 24 + 8);
+        body.writeVarInt(palette.size());
+        for (BlockData blockData : palette) {
+            final byte[] id = blockData.id().getBytes(StandardCharsets.UTF_8);
+            body.write(StoredBlockTypes.getBlockType(blockData));
+            body.write(StoredBlockTypes.getFlag(blockData) ? 1 : 0);
+            body.writeVarInt(id.length);
+            body.write(id, 0, id.length);
+        }
+        body.writeVarInt(count[0]);
+        body.write(blocks.buffer(), 0, blocks.size());
+        if (body.size() < COMPRESSION_THRESHOLD) {
+            final byte[] out = new byte[body.size() + 2];
+            out[0] = VERSION;
+            out[1] = UNCOMPRESSED;
+            System.arraycopy(body.buffer(), 0, out, 2, body.size());
+            return out;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() / 2 + 16);
+        out.write(VERSION);
+        out.write(DEFLATE);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body.buffer(), 0, body.size());
+            deflater.finish();
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                final int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param logger used to warn about ids that are no longer in the config
+     */
+    public static void decode(
+            byte[] bytes,
+            ChunkPosition chunkPosition,
+            LeavesConfig config,
+            Logger logger,
+            LoadedBlockConsumer consumer
+    ) {
+        if (bytes.length < 2) throw new IllegalStateException("Invalid chunk data in chunk " + chunkPosition.x() + ", " + chunkPosition.z() + "!");
+        if (bytes[0] != VERSION) {
+            throw new IllegalStateException("Unknown chunk data version " + bytes[0] + " in chunk " + chunkPosition.x() + ", " + chunkPosition.z() + "!");
+        }
+        final VarIntReader reader = new VarIntReader(bytes[1] == DEFLATE ? inflate(bytes, chunkPosition) : Arrays.copyOfRange(bytes, 2, bytes.length));
+        final int paletteSize = reader.readVarInt();
+        // null entries are ids that don't exist anymore, their blocks are skipped
+        final BlockData[] palette = new BlockData[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            final int type = reader.read();
+            final boolean flag = reader.read() == 1;
+            final String id = reader.readString();
+            palette[i] = StoredBlockTypes.resolveBlockData(config.getBlockData(id), type, flag);
+            if (palette[i] == null) {
+                logger.warning("Could not find block data for block ID " + id + " in chunk " + chunkPosition.x() + ", " + chunkPosition.z() + "!");
+            }
+        }
+        final int chunkBlockX = chunkPosition.x() << 4;
+        final int chunkBlockZ = chunkPosition.z() << 4;
+        final int count = reader.readVarInt();
+        long key = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                key = unZigZag(reader.readVarLong());
+            } else {
+                key += reader.readVarLong();
+            }
+            final BlockData blockData = palette[reader.readVarInt()];
+            if (blockData == null) continue;
+            final int sectionY = (int) (key >> 12);
+            final int index = (int) (key & 0xFFF);
+            consumer.accept(
+                    chunkBlockX | (index & 15),
+                    (sectionY << 4) | (index >> 8),
+                    chunkBlockZ | ((index >> 4) & 15),
+                    blockData
+            );
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes, ChunkPosition chunkPosition) {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, 2, bytes.length - 2);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 3);
+            final byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                final int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated chunk data in chunk " + chunkPosition.x() + ", " + chunkPosition.z() + "!");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Invalid chunk data in chunk " + chunkPosition.x() + ", " + chunkPosition.z() + "!", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class VarIntWriter {
+
+        private byte[] buffer;
+        private int size;
+
+        private VarIntWriter(int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
+        }
+
+        private void ensureCapacity(int extra) {
+            if (this.size + extra <= this.buffer.length) return;
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + extra));
+        }
+
+        private void write(int value) {
+            this.ensureCapacity(1);
+            this.buffer[this.size++] = (byte) value;
+        }
+
+        private void write(byte[] bytes, int offset, int length) {
+            this.ensureCapacity(length);
+            System.arraycopy(bytes, offset, this.buffer, this.size, length);
+            this.size += length;
+        }
+
+        private void writeVarInt(int value) {
+            this.writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarLong(long value) {
+            this.ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                this.buffer[this.size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.size++] = (byte) value;
+        }
+
+        private byte[] buffer() {
+            return this.buffer;
+        }
+
+        private int size() {
+            return this.size;
+        }
+
+    }
+
+    private static final class VarIntReader {
+
+        private final byte[] buffer;
+        private int position;
+
+        private VarIntReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private int read() {
+            if (this.position >= this.buffer.length) throw new IllegalStateException("Unexpected end of chunk data!");
+            return this.buffer[this.position++] & 0xFF;
+        }
+
+        private int readVarInt() {
+            return (int) this.readVarLong();
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (shift >= 64) throw new IllegalStateException("Invalid varint in chunk data!");
+                b = this.read();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private String readString() {
+            final int length = this.readVarInt();
+            if (length < 0 || this.position + length > this.buffer.length) throw new IllegalStateException("Unexpected end of chunk data!");
+            final String string = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+            this.position += length;
+            return string;
+        }
+
+    }
+
+}
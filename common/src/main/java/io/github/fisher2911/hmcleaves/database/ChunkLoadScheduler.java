@@ -0,0 +1,161 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs chunk load work on the database read threads, lowest priority first instead of in the order it was scheduled.
+ * The read executor is given one slot per scheduled load, and each slot runs whichever pending load has the lowest
+ * priority when the slot starts, so a chunk scheduled later can still be loaded first.
+ */
+public class ChunkLoadScheduler {
+
+    private static final Comparator<Task> TASK_ORDER = Comparator.<Task>comparingLong(task -> task.priority)
+            .thenComparingLong(task -> task.sequence);
+
+    private final Database database;
+    // lower runs first, only called on the main thread
+    private final ToLongFunction<ChunkPosition> priorityFunction;
+    private final Map<ChunkPosition, Task> pending = new HashMap<>();
+    private final PriorityQueue<Task> queue = new PriorityQueue<>(TASK_ORDER);
+    // slots handed to the read executor that haven't started running yet
+    private final AtomicInteger queuedReads = new AtomicInteger();
+    private long nextSequence;
+
+    public ChunkLoadScheduler(Database database, ToLongFunction<ChunkPosition> priorityFunction) {
+        this.database = database;
+        this.priorityFunction = priorityFunction;
+    }
+
+    /**
+     * Must be called on the main thread, replaces a load of the same chunk that hasn't started yet
+     */
+    public void schedule(ChunkPosition chunkPosition, Runnable runnable) {
+        final long priority = this.priorityFunction.applyAsLong(chunkPosition);
+        synchronized (this) {
+            final Task task = new Task(chunkPosition, runnable, priority, this.nextSequence++);
+            final Task previous = this.pending.put(chunkPosition, task);
+            if (previous != null) {
+                this.queue.remove(previous);
+            }
+            this.queue.add(task);
+        }
+        this.queuedReads.incrementAndGet();
+        this.database.doDatabaseReadAsync(this::runNext);
+    }
+
+    private void runNext() {
+        this.queuedReads.decrementAndGet();
+        final Task task;
+        synchronized (this) {
+            task = this.queue.poll();
+            if (task == null) return;
+            this.pending.remove(task.chunkPosition, task);
+        }
+        task.runnable.run();
+    }
+
+    /**
+     * Drops the chunk's load if it hasn't started yet
+     */
+    public synchronized void cancel(ChunkPosition chunkPosition) {
+        final Task task = this.pending.remove(chunkPosition);
+        if (task == null) return;
+        this.queue.remove(task);
+    }
+
+    public synchronized void cancelWorld(UUID world) {
+        if (!this.pending.keySet().removeIf(chunkPosition -> chunkPosition.world().equals(world))) return;
+        this.queue.removeIf(task -> task.chunkPosition.world().equals(world));
+    }
+
+    public synchronized void clear() {
+        this.pending.clear();
+        this.queue.clear();
+    }
+
+    /**
+     * Must be called on the main thread, works out the priority of every pending load again
+     */
+    public void reprioritize() {
+        final List<Task> tasks;
+        synchronized (this) {
+            if (this.pending.isEmpty()) return;
+            tasks = new ArrayList<>(this.pending.values());
+        }
+        final long[] priorities = new long[tasks.size()];
+        for (int i = 0; i < priorities.length; i++) {
+            priorities[i] = this.priorityFunction.applyAsLong(tasks.get(i).chunkPosition);
+        }
+        synchronized (this) {
+            // the queue is rebuilt because a task's priority can't change while it is in the queue
+            this.queue.clear();
+            for (int i = 0; i < priorities.length; i++) {
+                final Task task = tasks.get(i);
+                if (this.pending.get(task.chunkPosition) != task) continue;
+                task.priority = priorities[i];
+            }
+            this.queue.addAll(this.pending.values());
+        }
+    }
+
+    /**
+     * Loads that are scheduled but haven't started, cancelled and replaced loads aren't counted
+     */
+    public synchronized int getPendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * Tasks waiting in the database read executor, including ones whose load was cancelled and will find nothing to run
+     */
+    public int getQueuedReadCount() {
+        return this.queuedReads.get();
+    }
+
+    private static final class Task {
+
+        private final ChunkPosition chunkPosition;
+        private final Runnable runnable;
+        private final long sequence;
+        private long priority;
+
+        private Task(ChunkPosition chunkPosition, Runnable runnable, long priority, long sequence) {
+            this.chunkPosition = chunkPosition;
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+    }
+
+}
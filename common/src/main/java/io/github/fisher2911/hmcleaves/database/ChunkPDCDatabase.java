@@ -0,0 +1,357 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import io.github.fisher2911.hmcleaves.HMCLeaves;
+import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
+import io.github.fisher2911.hmcleaves.config.LeavesConfig;
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.util.PDCUtil;
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+import io.github.fisher2911.hmcleaves.world.Position;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Stores each chunk's blocks, version and default layers in the chunk's own {@link PersistentDataContainer},
+ * so the data is saved with the world.
+ * <p>
+ * The container is read on the main thread when the chunk loads ({@link #readChunk(Chunk, LoadedBlockConsumer)})
+ * and written back when it unloads or the world saves. While the chunk is loaded its version and layers are kept in memory,
+ * which is what the {@link Database} methods work with.
+ * <p>
+ * If an old SQLite database exists, chunks that have no data in their container yet are read from it once,
+ * and are written to the container the next time they are saved, along with a marker so they aren't read from it again.
+ */
+public class ChunkPDCDatabase implements Database {
+
+    private final HMCLeaves plugin;
+    private final LeavesConfig config;
+    private final ExecutorService writeExecutor;
+    private final ExecutorService readExecutor;
+    private final Map<ChunkPosition, ChunkRecord> loadedChunks;
+    @Nullable
+    private SQLiteDatabase legacyDatabase;
+
+    protected ChunkPDCDatabase(HMCLeaves plugin) {
+        this.plugin = plugin;
+        this.config = plugin.getLeavesConfig();
+        this.writeExecutor = DatabaseExecutors.newWriteExecutor(this.config);
+        this.readExecutor = DatabaseExecutors.newReadExecutor(this.config, plugin.getLogger());
+        this.loadedChunks = new ConcurrentHashMap<>();
+    }
+
+    private static final class ChunkRecord {
+
+        private final LayerBitSet layers = new LayerBitSet();
+        private volatile int version;
+        // the version or layers changed and have to be written to the chunk
+        private volatile boolean dirty;
+        // only changed while synchronized on the record
+        private boolean checkLegacy;
+        private boolean loadFromLegacy;
+
+    }
+
+    @Override
+    public void load() {
+        final Path legacyPath = this.plugin.getDataFolder().toPath().resolve("database").resolve("leaves.db");
+        if (!Files.exists(legacyPath)) return;
+        this.legacyDatabase = new SQLiteDatabase(this.plugin);
+        this.legacyDatabase.load();
+    }
+
+    /**
+     * Has to be called on the main thread when the chunk loads, passes the saved blocks to the consumer right away
+     */
+    public void readChunk(Chunk chunk, LoadedBlockConsumer consumer) {
+        final ChunkPosition chunkPosition = ChunkPosition.at(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ());
+        final PersistentDataContainer container = chunk.getPersistentDataContainer();
+        final ChunkRecord record = new ChunkRecord();
+        final Integer version = container.get(PDCUtil.CHUNK_VERSION_KEY, PersistentDataType.INTEGER);
+        if (version == null) {
+            record.checkLegacy = this.legacyDatabase != null && !container.has(PDCUtil.CHUNK_LEGACY_CHECKED_KEY, PersistentDataType.BYTE);
+        } else {
+            record.version = version;
+        }
+        final int[] layers = container.get(PDCUtil.CHUNK_DEFAULT_LAYERS_KEY, PersistentDataType.INTEGER_ARRAY);
+        if (layers != null) {
+            for (int y : layers) {
+                record.layers.add(y);
+            }
+        }
+        this.loadedChunks.put(chunkPosition, record);
+        final byte[] blocks = container.get(PDCUtil.CHUNK_BLOCKS_KEY, PersistentDataType.BYTE_ARRAY);
+        if (blocks == null) return;
+        ChunkBlobCodec.decode(blocks, chunkPosition, this.config, this.plugin.getLogger(), consumer);
+    }
+
+    /**
+     * Has to be called on the main thread, writes anything that changed to the chunk
+     */
+    public void writeChunk(Chunk chunk, @Nullable ChunkBlockCache chunkBlockCache) {
+        final ChunkPosition chunkPosition = ChunkPosition.at(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ());
+        final ChunkRecord record = this.loadedChunks.get(chunkPosition);
+        final boolean recordDirty = record != null && record.dirty;
+        final boolean blocksDirty = chunkBlockCache != null && chunkBlockCache.isDirty();
+        if (!recordDirty && !blocksDirty) return;
+        final PersistentDataContainer container = chunk.getPersistentDataContainer();
+        if (record != null && chunkBlockCache != null) {
+            this.migrateBeforeWrite(chunkPosition, record, chunkBlockCache);
+        }
+        if (record != null) {
+            record.dirty = false;
+            if (record.version != 0) {
+                container.set(PDCUtil.CHUNK_VERSION_KEY, PersistentDataType.INTEGER, record.version);
+            }
+            container.set(
+                    PDCUtil.CHUNK_DEFAULT_LAYERS_KEY,
+                    PersistentDataType.INTEGER_ARRAY,
+                    record.layers.toList().stream().mapToInt(Integer::intValue).toArray()
+            );
+        }
+        if (chunkBlockCache == null) return;
+        chunkBlockCache.setSaving(true);
+        if (this.legacyDatabase != null) {
+            container.set(PDCUtil.CHUNK_LEGACY_CHECKED_KEY, PersistentDataType.BYTE, (byte) 1);
+        }
+        chunkBlockCache.clearRemovedPositions(entry -> true);
+        container.set(PDCUtil.CHUNK_BLOCKS_KEY, PersistentDataType.BYTE_ARRAY, ChunkBlobCodec.encode(chunkBlockCache));
+        chunkBlockCache.setSaving(false);
+        chunkBlockCache.markClean();
+        chunkBlockCache.setSafeToMarkClean(true);
+    }
+
+    /**
+     * The chunk's blocks are about to be written before its scheduled load ran, so the old rows are merged in first.
+     * Otherwise the next load would read them again and replace the blocks that were placed or removed since.
+     */
+    private void migrateBeforeWrite(ChunkPosition chunkPosition, ChunkRecord record, ChunkBlockCache chunkBlockCache) {
+        final SQLiteDatabase legacyDatabase = this.legacyDatabase;
+        if (legacyDatabase == null) return;
+        synchronized (record) {
+            if (record.checkLegacy) {
+                record.checkLegacy = false;
+                this.migrateFromLegacy(chunkPosition, record);
+            }
+            if (!record.loadFromLegacy) return;
+            record.loadFromLegacy = false;
+        }
+        legacyDatabase.loadBlocksInChunk(chunkPosition, this.config, chunkBlockCache::mergeStoredBlockData);
+    }
+
+    /**
+     * Has to be called on the main thread when the chunk unloads
+     */
+    public void unloadChunk(Chunk chunk, @Nullable ChunkBlockCache chunkBlockCache) {
+        this.writeChunk(chunk, chunkBlockCache);
+        this.loadedChunks.remove(ChunkPosition.at(chunk.getWorld().getUID(), chunk.getX(), chunk.getZ()));
+    }
+
+    /**
+     * Has to be called on the main thread, writes every loaded chunk in the world that changed
+     */
+    public void saveWorld(World world) {
+        final UUID worldUUID = world.getUID();
+        for (ChunkPosition chunkPosition : this.loadedChunks.keySet()) {
+            if (!chunkPosition.world().equals(worldUUID)) continue;
+            if (!world.isChunkLoaded(chunkPosition.x(), chunkPosition.z())) continue;
+            this.writeChunk(
+                    world.getChunkAt(chunkPosition.x(), chunkPosition.z()),
+                    this.plugin.getBlockCache().getChunkBlockCache(chunkPosition)
+            );
+        }
+    }
+
+    /**
+     * Has to be called on the main thread when the world unloads
+     */
+    public void unloadWorld(World world) {
+        this.saveWorld(world);
+        final UUID worldUUID = world.getUID();
+        this.loadedChunks.keySet().removeIf(chunkPosition -> chunkPosition.world().equals(worldUUID));
+    }
+
+    @Override
+    public boolean isLayerLoaded(ChunkPosition smallChunk) {
+        return this.loadedChunks.containsKey(smallChunk);
+    }
+
+    /**
+     * Layers are stored per chunk instead of per large chunk
+     */
+    @Override
+    public LayerBitSet getPossibleWorldDefaultLayers(ChunkPosition smallChunk) {
+        final ChunkRecord record = this.loadedChunks.get(smallChunk);
+        if (record == null) return new LayerBitSet();
+        return record.layers;
+    }
+
+    @Override
+    public void doDatabaseWriteAsync(Runnable runnable) {
+        if (this.writeExecutor.isShutdown() || this.writeExecutor.isTerminated()) {
+            runnable.run();
+            return;
+        }
+        this.writeExecutor.execute(() -> {
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void doDatabaseReadAsync(Runnable runnable) {
+        this.readExecutor.execute(() -> {
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        if (this.legacyDatabase == null) return;
+        this.legacyDatabase.shutdownNow();
+        this.legacyDatabase.close();
+    }
+
+    @Override
+    public boolean isChunkLoaded(ChunkPosition chunkPosition) {
+        final ChunkRecord record = this.loadedChunks.get(chunkPosition);
+        if (record == null) return false;
+        synchronized (record) {
+            if (record.checkLegacy) {
+                record.checkLegacy = false;
+                this.migrateFromLegacy(chunkPosition, record);
+            }
+        }
+        return record.version == this.config.getChunkVersion();
+    }
+
+    private void migrateFromLegacy(ChunkPosition chunkPosition, ChunkRecord record) {
+        final SQLiteDatabase legacyDatabase = this.legacyDatabase;
+        if (legacyDatabase == null || !legacyDatabase.isChunkLoaded(chunkPosition)) return;
+        if (!legacyDatabase.isLayerLoaded(chunkPosition)) {
+            legacyDatabase.loadAllDefaultPossibleLayersInWorld(chunkPosition.world(), chunkPosition);
+        }
+        record.layers.addAll(legacyDatabase.getPossibleWorldDefaultLayers(chunkPosition));
+        record.version = this.config.getChunkVersion();
+        record.loadFromLegacy = true;
+        record.dirty = true;
+    }
+
+    @Override
+    public void setChunkLoaded(ChunkPosition chunkPosition) {
+        final ChunkRecord record = this.loadedChunks.get(chunkPosition);
+        // the chunk unloaded before it finished loading, it is scanned again next time
+        if (record == null) return;
+        record.version = this.config.getChunkVersion();
+        record.dirty = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        this.readExecutor.shutdown();
+        return this.writeExecutor.shutdownNow();
+    }
+
+    /**
+     * Writes to the chunk if it is loaded, from other threads the write is moved to the main thread
+     */
+    @Override
+    public void saveBlocksInChunk(ChunkBlockCache chunk) {
+        if (!Bukkit.isPrimaryThread()) {
+            if (!this.plugin.isEnabled()) return;
+            Bukkit.getScheduler().runTask(this.plugin, () -> this.saveBlocksInChunk(chunk));
+            return;
+        }
+        final ChunkPosition chunkPosition = chunk.getChunkPosition();
+        final World world = Bukkit.getWorld(chunkPosition.world());
+        if (world == null || !world.isChunkLoaded(chunkPosition.x(), chunkPosition.z())) return;
+        this.writeChunk(world.getChunkAt(chunkPosition.x(), chunkPosition.z()), chunk);
+    }
+
+    @Override
+    public Map<Position, BlockData> getBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
+        final UUID world = chunkPosition.world();
+        final Map<Position, BlockData> blocks = new HashMap<>();
+        this.loadBlocksInChunk(chunkPosition, config, (x, y, z, blockData) -> blocks.put(new Position(world, x, y, z), blockData));
+        return blocks;
+    }
+
+    /**
+     * Blocks in the chunk's container were already passed on by {@link #readChunk(Chunk, LoadedBlockConsumer)},
+     * so this only loads chunks that are being migrated from the old database
+     */
+    @Override
+    public void loadBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config, LoadedBlockConsumer consumer) {
+        final ChunkRecord record = this.loadedChunks.get(chunkPosition);
+        final SQLiteDatabase legacyDatabase = this.legacyDatabase;
+        if (record == null || legacyDatabase == null) return;
+        synchronized (record) {
+            if (!record.loadFromLegacy) return;
+            record.loadFromLegacy = false;
+        }
+        final ChunkBlockCache chunkBlockCache = this.plugin.getBlockCache().getChunkBlockCache(chunkPosition);
+        // rows never replace blocks that were placed or removed after the chunk loaded
+        legacyDatabase.loadBlocksInChunk(
+                chunkPosition,
+                config,
+                chunkBlockCache == null ? consumer : chunkBlockCache::mergeStoredBlockData
+        );
+    }
+
+    @Override
+    public void saveDefaultDataLayers(UUID worldUUID, LayerBitSet yLayers, ChunkPosition smallChunk) {
+        if (yLayers.isEmpty()) return;
+        final ChunkRecord record = this.loadedChunks.get(smallChunk);
+        if (record == null) return;
+        record.layers.addAll(yLayers);
+        record.dirty = true;
+    }
+
+    /**
+     * Layers are read with the chunk in {@link #readChunk(Chunk, LoadedBlockConsumer)}
+     */
+    @Override
+    public void loadAllDefaultPossibleLayersInWorld(UUID worldUUID, ChunkPosition smallChunk) {
+
+    }
+
+}
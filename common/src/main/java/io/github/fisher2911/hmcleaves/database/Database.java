@@ -54,13 +54,16 @@ public interface Database {
     static Database create(HMCLeaves plugin, LeavesConfig config) {
         return switch (config.getDatabaseType()) {
             case MONGODB -> new MongoDBDatabase(plugin);
+            case SQLITE_BLOB -> new SQLiteBlobDatabase(plugin);
+            case REGION -> new RegionFileDatabase(plugin);
+            case CHUNK_PDC -> new ChunkPDCDatabase(plugin);
             default -> new SQLiteDatabase(plugin);
         };
     }
 
     boolean isLayerLoaded(ChunkPosition smallChunk);
 
-    Collection<Integer> getPossibleWorldDefaultLayers(ChunkPosition smallChunk);
+    LayerBitSet getPossibleWorldDefaultLayers(ChunkPosition smallChunk);
 
     void load();
 
@@ -78,9 +81,51 @@ public interface Database {
 
     void saveBlocksInChunk(ChunkBlockCache chunk);
 
+    /**
+     * @return the chunks that could not be written, so they can be queued again
+     */
+    default List<ChunkBlockCache> saveBlocksInChunks(Collection<ChunkBlockCache> chunks) {
+        for (ChunkBlockCache chunk : chunks) {
+            this.saveBlocksInChunk(chunk);
+        }
+        return List.of();
+    }
+
     Map<Position, BlockData> getBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config);
 
-    void saveDefaultDataLayers(UUID worldUUID, Collection<Integer> yLayers, ChunkPosition smallChunk) throws SQLException;
+    /**
+     * Passes every saved block in the chunk to the consumer without collecting them first
+     */
+    default void loadBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config, LoadedBlockConsumer consumer) {
+        for (var entry : this.getBlocksInChunk(chunkPosition, config).entrySet()) {
+            final Position position = entry.getKey();
+            consumer.accept(position.x(), position.y(), position.z(), entry.getValue());
+        }
+    }
+
+    /**
+     * Does the work of {@link #isChunkLoaded(ChunkPosition)} and {@link #loadBlocksInChunk(ChunkPosition, LeavesConfig, LoadedBlockConsumer)}
+     * together, databases that can answer both with one query should override this
+     *
+     * @return false if the chunk was not loaded with the current chunk version, nothing is passed to the consumer then
+     */
+    default boolean loadBlocksIfChunkLoaded(ChunkPosition chunkPosition, LeavesConfig config, LoadedBlockConsumer consumer) {
+        if (!this.isChunkLoaded(chunkPosition)) return false;
+        this.loadBlocksInChunk(chunkPosition, config, consumer);
+        return true;
+    }
+
+    /**
+     * Databases that rewrite the whole chunk on save call this first, so a cache whose load never ran
+     * (a block was changed while the load was still queued) doesn't overwrite the blocks that are already saved
+     */
+    default void mergeStoredBlocks(ChunkBlockCache chunk, LeavesConfig config) {
+        if (chunk.isLoaded()) return;
+        this.loadBlocksInChunk(chunk.getChunkPosition(), config, chunk::mergeStoredBlockData);
+        chunk.markLoaded();
+    }
+
+    void saveDefaultDataLayers(UUID worldUUID, LayerBitSet yLayers, ChunkPosition smallChunk) throws SQLException;
 
     void loadAllDefaultPossibleLayersInWorld(UUID worldUUID, ChunkPosition smallChunk);
 
@@ -0,0 +1,164 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import io.github.fisher2911.hmcleaves.config.LeavesConfig;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Creates the executors databases use, based on {@link LeavesConfig#getDatabaseExecutorType()}.
+ * Virtual threads are looked up reflectively since the plugin is built against Java 17.
+ */
+public final class DatabaseExecutors {
+
+    private DatabaseExecutors() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Nullable
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+    @Nullable
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = findNewThreadPerTaskExecutor();
+
+    @Nullable
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object namedBuilder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "HMCLeaves-Database-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Method findNewThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        return VIRTUAL_THREAD_FACTORY != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Writes stay on a single thread in both modes so batches are written in order
+     */
+    public static ExecutorService newWriteExecutor(LeavesConfig config) {
+        final ThreadFactory virtualThreadFactory = getVirtualThreadFactory(config, null);
+        if (virtualThreadFactory == null) return Executors.newSingleThreadExecutor();
+        return Executors.newSingleThreadExecutor(virtualThreadFactory);
+    }
+
+    /**
+     * At most {@link LeavesConfig#getDatabaseReadConcurrency()} reads run at the same time in both modes
+     */
+    public static ExecutorService newReadExecutor(LeavesConfig config, Logger logger) {
+        final int concurrency = config.getDatabaseReadConcurrency();
+        final ThreadFactory virtualThreadFactory = getVirtualThreadFactory(config, logger);
+        if (virtualThreadFactory == null) return Executors.newFixedThreadPool(concurrency);
+        try {
+            final ExecutorService threadPerTask = (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, virtualThreadFactory);
+            return new BoundedExecutorService(threadPerTask, concurrency);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            logger.warning("Could not create virtual thread executor, using platform threads for the database instead");
+            return Executors.newFixedThreadPool(concurrency);
+        }
+    }
+
+    @Nullable
+    private static ThreadFactory getVirtualThreadFactory(LeavesConfig config, @Nullable Logger logger) {
+        if (config.getDatabaseExecutorType() != DatabaseExecutorType.VIRTUAL) return null;
+        if (!isVirtualThreadsSupported()) {
+            if (logger != null) {
+                logger.warning("Virtual threads need Java 21 or newer, using platform threads for the database instead");
+            }
+            return null;
+        }
+        return VIRTUAL_THREAD_FACTORY;
+    }
+
+    // tasks wait for a permit on their own thread, which is cheap with virtual threads
+    private static final class BoundedExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        private BoundedExecutorService(ExecutorService delegate, int concurrency) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(concurrency);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            this.delegate.execute(() -> {
+                this.permits.acquireUninterruptibly();
+                try {
+                    command.run();
+                } finally {
+                    this.permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            this.delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return this.delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return this.delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return this.delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return this.delegate.awaitTermination(timeout, unit);
+        }
+
+    }
+
+}
@@ -23,6 +23,9 @@ package io.github.fisher2911.hmcleaves.database;
 public enum DatabaseType {
 
     SQLITE,
+    SQLITE_BLOB,
+    REGION,
+    CHUNK_PDC,
     MONGODB
 
 }
@@ -0,0 +1,157 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * The y levels in a large chunk that contain default blocks, one bit per y level starting at {@link #minY}.
+ * The bits grow in both directions as layers are added, so the world height does not have to be known.
+ */
+public final class LayerBitSet {
+
+    private static final long[] EMPTY_WORDS = new long[0];
+
+    // always a multiple of 64 so words line up when sets are merged
+    private int minY;
+    private long[] words;
+
+    public LayerBitSet() {
+        this.words = EMPTY_WORDS;
+    }
+
+    private LayerBitSet(int minY, long[] words) {
+        this.minY = minY;
+        this.words = words;
+    }
+
+    public synchronized void add(int y) {
+        this.ensureCapacity(y);
+        final int bit = y - this.minY;
+        this.words[bit >> 6] |= 1L << bit;
+    }
+
+    public void addAll(LayerBitSet other) {
+        if (other == this) return;
+        final int otherMinY;
+        final long[] otherWords;
+        synchronized (other) {
+            otherMinY = other.minY;
+            otherWords = other.words.clone();
+        }
+        if (otherWords.length == 0) return;
+        synchronized (this) {
+            this.ensureCapacity(otherMinY);
+            this.ensureCapacity(otherMinY + (otherWords.length << 6) - 1);
+            final int offset = (otherMinY - this.minY) >> 6;
+            for (int i = 0; i < otherWords.length; i++) {
+                this.words[offset + i] |= otherWords[i];
+            }
+        }
+    }
+
+    public synchronized boolean contains(int y) {
+        final int bit = y - this.minY;
+        if (bit < 0 || bit >= this.words.length << 6) return false;
+        return (this.words[bit >> 6] & (1L << bit)) != 0;
+    }
+
+    public synchronized boolean isEmpty() {
+        for (long word : this.words) {
+            if (word != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Passes every y level in ascending order, the bits are copied first so the consumer can run without holding the lock
+     */
+    public void forEach(IntConsumer consumer) {
+        final int minY;
+        final long[] words;
+        synchronized (this) {
+            minY = this.minY;
+            words = this.words.clone();
+        }
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                consumer.accept(minY + (i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    public List<Integer> toList() {
+        final List<Integer> layers = new ArrayList<>();
+        this.forEach(layers::add);
+        return layers;
+    }
+
+    /**
+     * Format: minY, then the words, all big endian
+     */
+    public synchronized byte[] toBytes() {
+        final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + this.words.length * Long.BYTES);
+        buffer.putInt(this.minY);
+        for (long word : this.words) {
+            buffer.putLong(word);
+        }
+        return buffer.array();
+    }
+
+    public static LayerBitSet fromBytes(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final int minY = buffer.getInt();
+        final long[] words = new long[buffer.remaining() / Long.BYTES];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = buffer.getLong();
+        }
+        if (words.length == 0) return new LayerBitSet();
+        return new LayerBitSet(minY, words);
+    }
+
+    private void ensureCapacity(int y) {
+        if (this.words.length == 0) {
+            this.minY = Math.floorDiv(y, 64) << 6;
+            this.words = new long[1];
+            return;
+        }
+        if (y < this.minY) {
+            final int newMinY = Math.floorDiv(y, 64) << 6;
+            final int shift = (this.minY - newMinY) >> 6;
+            final long[] newWords = new long[this.words.length + shift];
+            System.arraycopy(this.words, 0, newWords, shift, this.words.length);
+            this.minY = newMinY;
+            this.words = newWords;
+            return;
+        }
+        final int wordIndex = (y - this.minY) >> 6;
+        if (wordIndex >= this.words.length) {
+            this.words = Arrays.copyOf(this.words, wordIndex + 1);
+        }
+    }
+
+}
@@ -20,12 +20,9 @@
 
 package io.github.fisher2911.hmcleaves.database;
 
-import com.google.common.collect.Multimap;
-import io.github.fisher2911.hmcleaves.util.ChunkUtil;
+import io.github.fisher2911.hmcleaves.util.ConcurrentLongMap;
 import io.github.fisher2911.hmcleaves.world.ChunkPosition;
 
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -33,8 +30,8 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public final class LeafDatabase {
 
-    // 528*528 chunks, not 16x16 chunks
-    private final Map<UUID, Multimap<ChunkPosition, Integer>> possibleWorldDefaultLayers;
+    // 528*528 chunks, not 16x16 chunks, keyed by ChunkPosition#chunkKey of the large chunk
+    private final Map<UUID, ConcurrentLongMap<LayerBitSet>> possibleWorldDefaultLayers;
     private final Set<ChunkPosition> currentlyLoadingChunks;
 
     LeafDatabase() {
@@ -47,18 +44,23 @@ public final class LeafDatabase {
                 !this.currentlyLoadingChunks.contains(smallChunk.toLargeChunk());
     }
 
-    Collection<Integer> getPossibleWorldDefaultLayers(ChunkPosition smallChunk) {
-        final int largeChunkX = ChunkUtil.getLargeChunkCoordFromChunkCoord(smallChunk.x());
-        final int largeChunkZ = ChunkUtil.getLargeChunkCoordFromChunkCoord(smallChunk.z());
-        final UUID worldUUID = smallChunk.world();
-        final ChunkPosition largeChunk = new ChunkPosition(worldUUID, largeChunkX, largeChunkZ);
-        final Multimap<ChunkPosition, Integer> layers = possibleWorldDefaultLayers.get(largeChunk.world());
-        if (layers == null) return Collections.emptyList();
-        return layers.get(largeChunk);
+    LayerBitSet getPossibleWorldDefaultLayers(ChunkPosition smallChunk) {
+        final ConcurrentLongMap<LayerBitSet> layers = this.possibleWorldDefaultLayers.get(smallChunk.world());
+        if (layers == null) return new LayerBitSet();
+        final ChunkPosition largeChunk = smallChunk.toLargeChunk();
+        final LayerBitSet largeChunkLayers = layers.get(largeChunk.getChunkKey());
+        if (largeChunkLayers == null) return new LayerBitSet();
+        return largeChunkLayers;
     }
 
-    Map<UUID, Multimap<ChunkPosition, Integer>> getPossibleWorldDefaultLayers() {
-        return possibleWorldDefaultLayers;
+    /**
+     * @return the layers stored for the large chunk, after the new layers were added
+     */
+    LayerBitSet addLayers(ChunkPosition largeChunk, LayerBitSet layers) {
+        final LayerBitSet existing = this.possibleWorldDefaultLayers.computeIfAbsent(largeChunk.world(), world -> new ConcurrentLongMap<>())
+                .computeIfAbsent(largeChunk.getChunkKey(), key -> new LayerBitSet());
+        existing.addAll(layers);
+        return existing;
     }
 
     Set<ChunkPosition> getCurrentlyLoadingChunks() {
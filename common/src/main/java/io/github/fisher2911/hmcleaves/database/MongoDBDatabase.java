@@ -20,15 +20,17 @@
 
 package io.github.fisher2911.hmcleaves.database;
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
 import io.github.fisher2911.hmcleaves.HMCLeaves;
 import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
 import io.github.fisher2911.hmcleaves.config.LeavesConfig;
@@ -54,13 +56,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class MongoDBDatabase implements Database {
 
     private static final UpdateOptions UPDATE_OPTIONS = new UpdateOptions().upsert(true);
+    private static final BulkWriteOptions BULK_WRITE_OPTIONS = new BulkWriteOptions().ordered(false);
 
     private final HMCLeaves plugin;
     private final MongoClient mongoClient;
@@ -74,8 +75,8 @@ public class MongoDBDatabase implements Database {
     protected MongoDBDatabase(HMCLeaves plugin) {
         this.plugin = plugin;
         this.config = plugin.getLeavesConfig();
-        this.writeExecutor = Executors.newSingleThreadExecutor();
-        this.readExecutor = Executors.newFixedThreadPool(5);
+        this.writeExecutor = DatabaseExecutors.newWriteExecutor(this.config);
+        this.readExecutor = DatabaseExecutors.newReadExecutor(this.config, plugin.getLogger());
         this.mongoClient = MongoClients.create(config.getMongoDbUri());
         this.worldsDatabase = mongoClient.getDatabase("worlds");
         this.worldDefaultLayersDatabase = mongoClient.getDatabase("worldDefaultLayers");
@@ -88,7 +89,7 @@ public class MongoDBDatabase implements Database {
     }
 
     @Override
-    public Collection<Integer> getPossibleWorldDefaultLayers(ChunkPosition smallChunk) {
+    public LayerBitSet getPossibleWorldDefaultLayers(ChunkPosition smallChunk) {
         return this.leafDatabase.getPossibleWorldDefaultLayers(smallChunk);
     }
 
@@ -96,6 +97,18 @@ public class MongoDBDatabase implements Database {
     public void load() {
     }
 
+    // every chunk query filters on the whole _id, which mongo always indexes
+    private MongoCollection<Document> getWorldCollection(UUID world) {
+        return this.worldsDatabase.getCollection(world.toString());
+    }
+
+    private static BsonDocument chunkId(int chunkX, int chunkZ) {
+        final BsonDocument id = new BsonDocument();
+        id.put(CHUNK_POSITION_X_KEY, new BsonInt32(chunkX));
+        id.put(CHUNK_POSITION_Z_KEY, new BsonInt32(chunkZ));
+        return id;
+    }
+
     @Override
     public void doDatabaseWriteAsync(Runnable runnable) {
         if (this.writeExecutor.isShutdown() || this.writeExecutor.isTerminated()) {
@@ -150,24 +163,34 @@ public class MongoDBDatabase implements Database {
 
     @Override
     public boolean isChunkLoaded(ChunkPosition chunkPosition) {
-        final MongoCollection<Document> worldCollection = this.worldsDatabase.getCollection(chunkPosition.world().toString());
-        final BsonDocument id = new BsonDocument();
-        id.put(CHUNK_POSITION_X_KEY, new BsonInt32(chunkPosition.x()));
-        id.put(CHUNK_POSITION_Z_KEY, new BsonInt32(chunkPosition.z()));
-        final Bson filter = Filters.eq(ID_KEY, id);
-        final Document found = worldCollection.find(filter).first();
-        if (found == null) {
-            return false;
-        }
-        return found.getInteger(CHUNK_VERSION_KEY) == this.config.getChunkVersion();
+        final MongoCollection<Document> worldCollection = this.getWorldCollection(chunkPosition.world());
+        final Document found = worldCollection.find(Filters.eq(ID_KEY, chunkId(chunkPosition.x(), chunkPosition.z())))
+                .projection(Projections.fields(Projections.include(CHUNK_VERSION_KEY), Projections.excludeId()))
+                .first();
+        return this.isCurrentVersion(found);
+    }
+
+    private boolean isCurrentVersion(@Nullable Document chunkDocument) {
+        if (chunkDocument == null) return false;
+        final Integer version = chunkDocument.getInteger(CHUNK_VERSION_KEY);
+        return version != null && version == this.config.getChunkVersion();
+    }
+
+    @Override
+    public boolean loadBlocksIfChunkLoaded(ChunkPosition chunkPosition, LeavesConfig config, LoadedBlockConsumer consumer) {
+        final Document found = this.getWorldCollection(chunkPosition.world())
+                .find(Filters.eq(ID_KEY, chunkId(chunkPosition.x(), chunkPosition.z())))
+                .projection(Projections.include(CHUNK_VERSION_KEY, BLOCKS_KEY))
+                .first();
+        if (!this.isCurrentVersion(found)) return false;
+        this.readBlocks(found, config, consumer);
+        return true;
     }
 
     @Override
     public void setChunkLoaded(ChunkPosition chunkPosition) {
-        final MongoCollection<Document> worldCollection = this.worldsDatabase.getCollection(chunkPosition.world().toString());
-        final BsonDocument id = new BsonDocument();
-        id.put(CHUNK_POSITION_X_KEY, new BsonInt32(chunkPosition.x()));
-        id.put(CHUNK_POSITION_Z_KEY, new BsonInt32(chunkPosition.z()));
+        final MongoCollection<Document> worldCollection = this.getWorldCollection(chunkPosition.world());
+        final BsonDocument id = chunkId(chunkPosition.x(), chunkPosition.z());
 //        final Document document = new Document(Map.of(
 //                ID_KEY, id,
 //                CHUNK_VERSION_KEY, this.config.getChunkVersion()
@@ -194,46 +217,69 @@ public class MongoDBDatabase implements Database {
 
     @Override
     public void saveBlocksInChunk(ChunkBlockCache chunk) {
-        chunk.setSaving(true);
-        this.deleteRemovedBlocksInChunk(chunk);
-        if (chunk.getBlockDataMap().isEmpty()) return;
-        final Map<Position, BlockData> toSave = new HashMap<>();
-        for (var entry : chunk.getBlockDataMap().entrySet()) {
-            if (!entry.getValue().shouldSave()) {
+        this.saveBlocksInChunks(List.of(chunk));
+    }
+
+    /**
+     * Sends one unordered bulk write per world, each chunk is a single upsert of its block list
+     */
+    @Override
+    public List<ChunkBlockCache> saveBlocksInChunks(Collection<ChunkBlockCache> chunks) {
+        if (chunks.isEmpty()) return List.of();
+        final List<ChunkBlockCache> failed = new ArrayList<>();
+        final Map<UUID, List<ChunkBlockCache>> chunksByWorld = new HashMap<>();
+        for (ChunkBlockCache chunk : chunks) {
+            chunksByWorld.computeIfAbsent(chunk.getChunkPosition().world(), world -> new ArrayList<>()).add(chunk);
+        }
+        for (var entry : chunksByWorld.entrySet()) {
+            final List<ChunkBlockCache> worldChunks = entry.getValue();
+            final List<WriteModel<Document>> writes = new ArrayList<>(worldChunks.size());
+            for (ChunkBlockCache chunk : worldChunks) {
+                chunk.setSaving(true);
+                this.mergeStoredBlocks(chunk, this.config);
+                // blocks are stored in the chunk document, so removed blocks are gone once the list is replaced
+                chunk.clearRemovedPositions(removed -> true);
+                final ChunkPosition chunkPosition = chunk.getChunkPosition();
+                writes.add(new UpdateOneModel<>(
+                        Filters.eq(ID_KEY, chunkId(chunkPosition.x(), chunkPosition.z())),
+                        Updates.set(BLOCKS_KEY, this.createBlockDocuments(chunk)),
+                        UPDATE_OPTIONS
+                ));
+            }
+            try {
+                this.getWorldCollection(entry.getKey()).bulkWrite(writes, BULK_WRITE_OPTIONS);
+            } catch (Exception e) {
+                e.printStackTrace();
+                for (ChunkBlockCache chunk : worldChunks) {
+                    chunk.setSaving(false);
+                }
+                failed.addAll(worldChunks);
                 continue;
             }
-            toSave.put(entry.getKey(), entry.getValue());
-        }
-        if (toSave.isEmpty()) {
-            return;
+            for (ChunkBlockCache chunk : worldChunks) {
+                chunk.setSaving(false);
+                chunk.markClean();
+                chunk.setSafeToMarkClean(true);
+            }
         }
+        return failed;
+    }
+
+    private List<Document> createBlockDocuments(ChunkBlockCache chunk) {
         final ChunkPosition chunkPosition = chunk.getChunkPosition();
         final int chunkX = chunkPosition.x();
         final int chunkZ = chunkPosition.z();
-        final MongoCollection<Document> chunkDocuments = this.worldsDatabase.getCollection(chunkPosition.world().toString());
-//        final Document chunkDocument = new Document();
-        final BsonDocument id = new BsonDocument();
-        id.put(CHUNK_POSITION_X_KEY, new BsonInt32(chunkX));
-        id.put(CHUNK_POSITION_Z_KEY, new BsonInt32(chunkZ));
-//        chunkDocument.put(ID_KEY, id);
         final List<Document> blockDocuments = new ArrayList<>();
-        for (var entry : toSave.entrySet()) {
-            final Position position = entry.getKey();
-            final int blockX = position.x();
-            final int blockY = position.y();
-            final int blockZ = position.z();
-            final BlockData blockData = entry.getValue();
-            if (!blockData.shouldSave()) continue;
-            final BsonDocument blockId = new BsonDocument();
-            blockId.put(CHUNK_POSITION_X_KEY, new BsonInt32(chunkX));
-            blockId.put(CHUNK_POSITION_Z_KEY, new BsonInt32(chunkZ));
-            blockId.put(BLOCK_X_KEY, new BsonInt32(blockX));
-            blockId.put(BLOCK_Y_KEY, new BsonInt32(blockY));
-            blockId.put(BLOCK_Z_KEY, new BsonInt32(blockZ));
+        chunk.forEachBlockInSectionOrder((sectionY, index, blockData) -> {
+            if (!blockData.shouldSave()) return;
+            final String type = blockTypeKeyFromBlockDataClass(blockData);
+            if (type == null) return;
+            final BsonDocument blockId = chunkId(chunkX, chunkZ);
+            blockId.put(BLOCK_X_KEY, new BsonInt32((chunkX << 4) | (index & 15)));
+            blockId.put(BLOCK_Y_KEY, new BsonInt32((sectionY << 4) | (index >> 8)));
+            blockId.put(BLOCK_Z_KEY, new BsonInt32((chunkZ << 4) | ((index >> 4) & 15)));
             final Document blockDocument = new Document();
             blockDocument.put(ID_KEY, blockId);
-            final String type = blockTypeKeyFromBlockDataClass(blockData);
-            if (type == null) continue;
             blockDocument.put(BLOCK_TYPE_KEY, type);
             blockDocument.put(BLOCK_ID_KEY, blockData.id());
             switch (type) {
@@ -242,31 +288,31 @@ public class MongoDBDatabase implements Database {
                 case LOG_BLOCK_TYPE -> blockDocument.put(STRIPPED_KEY, ((LogData) blockData).stripped());
             }
             blockDocuments.add(blockDocument);
-        }
-//        chunkDocument.put(BLOCKS_KEY, blockDocuments);
-        final Bson filter = Filters.eq(ID_KEY, id);
-//        chunkDocuments.updateOne(filter, chunkDocument, UPDATE_OPTIONS);
-        chunkDocuments.updateOne(filter, Updates.set(BLOCKS_KEY, blockDocuments), UPDATE_OPTIONS);
-        chunk.setSaving(false);
-        chunk.markClean();
-        chunk.setSafeToMarkClean(true);
+        });
+        return blockDocuments;
     }
 
     @Override
     public Map<Position, BlockData> getBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
-        final MongoCollection<Document> leafBlocks = this.worldsDatabase.getCollection(chunkPosition.world().toString());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
+        final UUID world = chunkPosition.world();
         final Map<Position, BlockData> blocks = new HashMap<>();
-        final BsonDocument id = new BsonDocument();
-        id.put(CHUNK_POSITION_X_KEY, new BsonInt32(chunkX));
-        id.put(CHUNK_POSITION_Z_KEY, new BsonInt32(chunkZ));
-        final Bson query = Filters.eq(ID_KEY, id);
-//        query.put(ID_KEY, id);
-        final Document document = leafBlocks.find(query).first();
-        if (document == null) return blocks;
-        final List<Document> blockDocuments = document.getList(BLOCKS_KEY, Document.class);
-        if (blockDocuments == null) return blocks;
+        this.loadBlocksInChunk(chunkPosition, config, (x, y, z, blockData) -> blocks.put(new Position(world, x, y, z), blockData));
+        return blocks;
+    }
+
+    @Override
+    public void loadBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config, LoadedBlockConsumer consumer) {
+        final Document document = this.getWorldCollection(chunkPosition.world())
+                .find(Filters.eq(ID_KEY, chunkId(chunkPosition.x(), chunkPosition.z())))
+                .projection(Projections.include(BLOCKS_KEY))
+                .first();
+        if (document == null) return;
+        this.readBlocks(document, config, consumer);
+    }
+
+    private void readBlocks(Document chunkDocument, LeavesConfig config, LoadedBlockConsumer consumer) {
+        final List<Document> blockDocuments = chunkDocument.getList(BLOCKS_KEY, Document.class);
+        if (blockDocuments == null) return;
         for (var blockDocument : blockDocuments) {
             final Document idDoc = blockDocument.get(ID_KEY, Document.class);
             final int blockX = idDoc.getInteger(BLOCK_X_KEY);
@@ -274,7 +320,6 @@ public class MongoDBDatabase implements Database {
             final int blockZ = idDoc.getInteger(BLOCK_Z_KEY);
             final String blockType = blockDocument.getString(BLOCK_TYPE_KEY);
             final String blockId = blockDocument.getString(BLOCK_ID_KEY);
-            final Position position = new Position(chunkPosition.world(), blockX, blockY, blockZ);
             final BlockData blockData = config.getBlockData(blockId);
             if (blockData == null) {
                 this.plugin.getLogger().warning("Could not find block data for block type " + blockType + " at position " +
@@ -282,37 +327,24 @@ public class MongoDBDatabase implements Database {
                 continue;
             }
             switch (blockType) {
-                case CAVE_VINE_BLOCK_TYPE -> blocks.put(position, ((CaveVineData) blockData).withGlowBerry(blockDocument.getBoolean(GLOW_BERRY_KEY)));
-                case LEAF_BLOCK_TYPE -> blocks.put(position, ((LeafData) blockData).waterlog(blockDocument.getBoolean(WATERLOGGED_KEY)));
-                case LOG_BLOCK_TYPE -> blocks.put(position, ((LogData) blockData).stripped(blockDocument.getBoolean(STRIPPED_KEY)));
+                case CAVE_VINE_BLOCK_TYPE -> consumer.accept(blockX, blockY, blockZ, ((CaveVineData) blockData).withGlowBerry(blockDocument.getBoolean(GLOW_BERRY_KEY)));
+                case LEAF_BLOCK_TYPE -> consumer.accept(blockX, blockY, blockZ, ((LeafData) blockData).waterlog(blockDocument.getBoolean(WATERLOGGED_KEY)));
+                case LOG_BLOCK_TYPE -> consumer.accept(blockX, blockY, blockZ, ((LogData) blockData).stripped(blockDocument.getBoolean(STRIPPED_KEY)));
             }
         }
-        return blocks;
     }
 
+    /**
+     * Layers stay a list of y levels in MongoDB, they are added to the stored set so layers that were not loaded yet are kept
+     */
     @Override
-    public void saveDefaultDataLayers(UUID worldUUID, Collection<Integer> yLayers, ChunkPosition smallChunk) {
+    public void saveDefaultDataLayers(UUID worldUUID, LayerBitSet yLayers, ChunkPosition smallChunk) {
         if (yLayers.isEmpty()) return;
         final ChunkPosition largeChunk = smallChunk.toLargeChunk();
-        final Multimap<ChunkPosition, Integer> multimap = this.leafDatabase.getPossibleWorldDefaultLayers()
-                .computeIfAbsent(worldUUID, uuid -> Multimaps.newSetMultimap(new ConcurrentHashMap<>(), ConcurrentHashMap::newKeySet));
-        multimap.putAll(largeChunk, yLayers);
+        this.leafDatabase.addLayers(largeChunk, yLayers);
         final MongoCollection<Document> layers = this.worldDefaultLayersDatabase.getCollection(worldUUID.toString());
-//        final Document document = new Document();
-        final BsonDocument id = new BsonDocument();
-        id.put(CHUNK_POSITION_X_KEY, new BsonInt32(largeChunk.x()));
-        id.put(CHUNK_POSITION_Z_KEY, new BsonInt32(largeChunk.z()));
-//        Bson update = Updates.set(ID_KEY, id);
-
-//        document.put(ID_KEY, id);
-//        document.put(LAYERS_KEY, yLayers);
-        final Bson filter = Filters.eq(ID_KEY, id);
-        layers.updateMany(
-                filter,
-                List.of(Updates.set(ID_KEY, id), Updates.set(LAYERS_KEY, yLayers)),
-//                document,
-                UPDATE_OPTIONS
-        );
+        final Bson filter = Filters.eq(ID_KEY, chunkId(largeChunk.x(), largeChunk.z()));
+        layers.updateOne(filter, Updates.addEachToSet(LAYERS_KEY, yLayers.toList()), UPDATE_OPTIONS);
     }
 
     @Override
@@ -320,55 +352,19 @@ public class MongoDBDatabase implements Database {
         final ChunkPosition largeChunk = smallChunk.toLargeChunk();
         this.leafDatabase.getCurrentlyLoadingChunks().add(largeChunk);
         final MongoCollection<Document> layers = this.worldDefaultLayersDatabase.getCollection(worldUUID.toString());
-        final BsonDocument id = new BsonDocument();
-        id.put(CHUNK_POSITION_X_KEY, new BsonInt32(largeChunk.x()));
-        id.put(CHUNK_POSITION_Z_KEY, new BsonInt32(largeChunk.z()));
-        final Bson filter = Filters.eq(ID_KEY, id);
+        final Bson filter = Filters.eq(ID_KEY, chunkId(largeChunk.x(), largeChunk.z()));
         final Document found = layers.find(filter).first();
-        if (found == null) {
-            this.leafDatabase.getCurrentlyLoadingChunks().remove(largeChunk);
-            return;
-        }
-        final List<Integer> layersList = found.getList(LAYERS_KEY, Integer.class);
-        if (layersList == null) {
-            this.leafDatabase.getCurrentlyLoadingChunks().remove(largeChunk);
-            return;
+        final List<Integer> layersList = found == null ? null : found.getList(LAYERS_KEY, Integer.class);
+        if (layersList != null) {
+            final LayerBitSet yLevels = new LayerBitSet();
+            for (int y : layersList) {
+                yLevels.add(y);
+            }
+            this.leafDatabase.addLayers(largeChunk, yLevels);
         }
-        final List<Integer> yLevels = new ArrayList<>(layersList);
-        final Multimap<ChunkPosition, Integer> multimap = this.leafDatabase.getPossibleWorldDefaultLayers()
-                .computeIfAbsent(worldUUID, uuid -> Multimaps.newSetMultimap(new ConcurrentHashMap<>(), ConcurrentHashMap::newKeySet));
-        multimap.putAll(largeChunk, yLevels);
         this.leafDatabase.getCurrentlyLoadingChunks().remove(largeChunk);
     }
 
-    private void deleteRemovedBlocksInChunk(ChunkBlockCache chunkBlockCache) {
-        final ChunkPosition chunkPosition = chunkBlockCache.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final MongoCollection<Document> documents = this.worldsDatabase.getCollection(chunkPosition.world().toString());
-        final List<Document> toDelete = new ArrayList<>();
-        chunkBlockCache.clearRemovedPositions(entry -> {
-            final Position position = entry.getKey();
-            final int blockX = position.x();
-            final int blockY = position.y();
-            final int blockZ = position.z();
-            final BsonDocument id = new BsonDocument();
-            id.put(CHUNK_POSITION_X_KEY, new BsonInt32(chunkX));
-            id.put(CHUNK_POSITION_Z_KEY, new BsonInt32(chunkZ));
-            id.put(BLOCK_X_KEY, new BsonInt32(blockX));
-            id.put(BLOCK_Y_KEY, new BsonInt32(blockY));
-            id.put(BLOCK_Z_KEY, new BsonInt32(blockZ));
-            final Document document = new Document();
-            document.put(ID_KEY, id);
-            toDelete.add(document);
-            return true;
-        });
-        if (toDelete.isEmpty()) {
-            return;
-        }
-        documents.deleteMany(new Document("$or", toDelete));
-    }
-
     private @Nullable
     String blockTypeKeyFromBlockDataClass(BlockData blockData) {
         if (blockData instanceof AgeableData) return AGEABLE_BLOCK_TYPE;
@@ -0,0 +1,249 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Holds the data of 32x32 chunks, laid out like an anvil region file.
+ * <p>
+ * The first sector is the location table, one int per chunk (start sector << 8 | sector count),
+ * the second is the chunk version table, one int per chunk. Every chunk payload is an int length followed by the data,
+ * starting on a sector boundary. Reads go through a mapping of the file, writes go through the channel.
+ */
+final class RegionFile implements Closeable {
+
+    static final int SECTOR_BYTES = 4096;
+    private static final int CHUNKS = 1024;
+    private static final int HEADER_SECTORS = 2;
+    private static final int VERSIONS_OFFSET = SECTOR_BYTES;
+    private static final int MAX_SECTORS_PER_CHUNK = 255;
+
+    private final FileChannel channel;
+    private final int[] locations = new int[CHUNKS];
+    private final int[] versions = new int[CHUNKS];
+    private final BitSet usedSectors = new BitSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private MappedByteBuffer mapped;
+    private long mappedSize;
+
+    RegionFile(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (this.channel.size() < (long) HEADER_SECTORS * SECTOR_BYTES) {
+            this.writeFully(ByteBuffer.allocate(HEADER_SECTORS * SECTOR_BYTES), 0);
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_BYTES);
+        while (header.hasRemaining()) {
+            if (this.channel.read(header, header.position()) < 0) break;
+        }
+        header.flip();
+        this.usedSectors.set(0, HEADER_SECTORS);
+        final long fileSectors = this.channel.size() / SECTOR_BYTES;
+        for (int i = 0; i < CHUNKS; i++) {
+            final int location = header.getInt(i * 4);
+            this.versions[i] = header.getInt(VERSIONS_OFFSET + i * 4);
+            if (location == 0) continue;
+            final int start = location >>> 8;
+            final int count = location & 0xFF;
+            // ignore entries pointing outside the file, the chunk is treated as not saved
+            if (start < HEADER_SECTORS || start + count > fileSectors) continue;
+            this.locations[i] = location;
+            this.usedSectors.set(start, start + count);
+        }
+    }
+
+    static int index(int chunkX, int chunkZ) {
+        return (chunkX & 31) | ((chunkZ & 31) << 5);
+    }
+
+    int getVersion(int chunkX, int chunkZ) {
+        this.lock.readLock().lock();
+        try {
+            return this.versions[index(chunkX, chunkZ)];
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    void setVersion(int chunkX, int chunkZ, int version) throws IOException {
+        final int index = index(chunkX, chunkZ);
+        this.lock.writeLock().lock();
+        try {
+            this.versions[index] = version;
+            this.writeFully(ByteBuffer.allocate(4).putInt(0, version), VERSIONS_OFFSET + index * 4L);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the chunk's payload, or null if it has not been written
+     */
+    @Nullable
+    byte[] read(int chunkX, int chunkZ) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            final int location = this.locations[index(chunkX, chunkZ)];
+            if (location == 0) return null;
+            final long offset = (long) (location >>> 8) * SECTOR_BYTES;
+            final int sectorBytes = (location & 0xFF) * SECTOR_BYTES;
+            final ByteBuffer buffer = this.getMapped(offset + sectorBytes);
+            final int length = buffer.getInt((int) offset);
+            if (length < 0 || length > sectorBytes - 4) {
+                throw new IOException("Invalid chunk length " + length + " for chunk " + chunkX + ", " + chunkZ + "!");
+            }
+            final byte[] data = new byte[length];
+            buffer.get((int) offset + 4, data);
+            return data;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    record ChunkWrite(int chunkX, int chunkZ, byte[] data) {
+
+    }
+
+    void write(int chunkX, int chunkZ, byte[] data) throws IOException {
+        this.write(List.of(new ChunkWrite(chunkX, chunkZ, data)));
+    }
+
+    /**
+     * Syncs twice for all the chunks instead of for each chunk. Every payload goes to free sectors and is on disk
+     * before a header points at it, and the old sectors are only freed once the new headers are on disk,
+     * so a crash leaves either the old or the new data readable.
+     */
+    void write(List<ChunkWrite> writes) throws IOException {
+        final int[] sectors = new int[writes.size()];
+        for (int i = 0; i < sectors.length; i++) {
+            final ChunkWrite write = writes.get(i);
+            sectors[i] = (write.data().length + 4 + SECTOR_BYTES - 1) / SECTOR_BYTES;
+            if (sectors[i] > MAX_SECTORS_PER_CHUNK) {
+                throw new IOException("Chunk " + write.chunkX() + ", " + write.chunkZ() + " is too large to save (" + write.data().length + " bytes)!");
+            }
+        }
+        this.lock.writeLock().lock();
+        try {
+            final int[] locations = new int[sectors.length];
+            for (int i = 0; i < sectors.length; i++) {
+                final byte[] data = writes.get(i).data();
+                final int start = this.findFreeSectors(sectors[i]);
+                final ByteBuffer buffer = ByteBuffer.allocate(sectors[i] * SECTOR_BYTES);
+                buffer.putInt(0, data.length);
+                buffer.put(4, data);
+                this.writeFully(buffer, (long) start * SECTOR_BYTES);
+                this.usedSectors.set(start, start + sectors[i]);
+                locations[i] = (start << 8) | sectors[i];
+            }
+            this.channel.force(false);
+            final int[] previous = new int[sectors.length];
+            for (int i = 0; i < sectors.length; i++) {
+                final ChunkWrite write = writes.get(i);
+                final int index = index(write.chunkX(), write.chunkZ());
+                previous[i] = this.locations[index];
+                this.setLocation(index, locations[i]);
+            }
+            this.channel.force(false);
+            for (int location : previous) {
+                this.freeSectors(location);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int chunkX, int chunkZ) throws IOException {
+        final int index = index(chunkX, chunkZ);
+        this.lock.writeLock().lock();
+        try {
+            final int previous = this.locations[index];
+            if (previous == 0) return;
+            this.setLocation(index, 0);
+            // the sectors can't be reused while the header on disk still points at them
+            this.channel.force(false);
+            this.freeSectors(previous);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private int findFreeSectors(int count) {
+        int start = this.usedSectors.nextClearBit(HEADER_SECTORS);
+        while (true) {
+            final int nextUsed = this.usedSectors.nextSetBit(start);
+            if (nextUsed == -1 || nextUsed - start >= count) return start;
+            start = this.usedSectors.nextClearBit(nextUsed);
+        }
+    }
+
+    private void freeSectors(int location) {
+        if (location == 0) return;
+        final int start = location >>> 8;
+        this.usedSectors.clear(start, start + (location & 0xFF));
+    }
+
+    private void setLocation(int index, int location) throws IOException {
+        this.locations[index] = location;
+        this.writeFully(ByteBuffer.allocate(4).putInt(0, location), index * 4L);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += this.channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * The mapping is shared with the channel, so writes show up in it, it only has to be replaced when the file grows
+     */
+    private synchronized ByteBuffer getMapped(long requiredSize) throws IOException {
+        if (this.mapped == null || this.mappedSize < requiredSize) {
+            this.mappedSize = this.channel.size();
+            this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.mappedSize);
+        }
+        return this.mapped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.channel.force(false);
+            this.channel.close();
+            this.mapped = null;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,353 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import io.github.fisher2911.hmcleaves.HMCLeaves;
+import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
+import io.github.fisher2911.hmcleaves.config.LeavesConfig;
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+import io.github.fisher2911.hmcleaves.world.Position;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Stores every chunk as a {@link ChunkBlobCodec} blob in region files, database/regions/world uuid/r.x.z.hmcl,
+ * and the default data layers in one small file per large chunk.
+ */
+public class RegionFileDatabase implements Database {
+
+    private static final String REGION_FILE_EXTENSION = ".hmcl";
+    private static final String LAYERS_FOLDER = "layers";
+    private static final int MAX_OPEN_REGION_FILES = 64;
+
+    private final HMCLeaves plugin;
+    private final LeavesConfig config;
+    private final Path regionsFolderPath;
+    private final ExecutorService writeExecutor;
+    private final ExecutorService readExecutor;
+    // access ordered so the least recently used region is closed first, guarded by itself
+    private final Map<RegionKey, RegionFile> regionFiles;
+    private final Object layersLock = new Object();
+    private final LeafDatabase leafDatabase;
+
+    protected RegionFileDatabase(HMCLeaves plugin) {
+        this.plugin = plugin;
+        this.config = plugin.getLeavesConfig();
+        this.regionsFolderPath = this.plugin.getDataFolder().toPath().resolve("database").resolve("regions");
+        this.writeExecutor = DatabaseExecutors.newWriteExecutor(this.config);
+        this.readExecutor = DatabaseExecutors.newReadExecutor(this.config, plugin.getLogger());
+        this.regionFiles = new LinkedHashMap<>(16, 0.75f, true);
+        this.leafDatabase = new LeafDatabase();
+    }
+
+    private record RegionKey(UUID world, int x, int z) {
+
+        private static RegionKey of(ChunkPosition chunkPosition) {
+            return new RegionKey(chunkPosition.world(), chunkPosition.x() >> 5, chunkPosition.z() >> 5);
+        }
+
+    }
+
+    private RegionFile getRegionFile(ChunkPosition chunkPosition) {
+        final RegionKey key = RegionKey.of(chunkPosition);
+        synchronized (this.regionFiles) {
+            final RegionFile existing = this.regionFiles.get(key);
+            if (existing != null) return existing;
+            final Path worldFolder = this.regionsFolderPath.resolve(key.world().toString());
+            final RegionFile regionFile;
+            try {
+                Files.createDirectories(worldFolder);
+                regionFile = new RegionFile(worldFolder.resolve("r." + key.x() + "." + key.z() + REGION_FILE_EXTENSION));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open region " + key.x() + ", " + key.z() + "!", e);
+            }
+            this.regionFiles.put(key, regionFile);
+            if (this.regionFiles.size() > MAX_OPEN_REGION_FILES) {
+                final Iterator<RegionFile> iterator = this.regionFiles.values().iterator();
+                final RegionFile eldest = iterator.next();
+                iterator.remove();
+                // waits for anything still using it, those calls are retried on the reopened file
+                try {
+                    eldest.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            return regionFile;
+        }
+    }
+
+    /**
+     * Runs the action again on a reopened file if the region was closed while it was being used
+     */
+    private <T> T useRegionFile(ChunkPosition chunkPosition, RegionFileAction<T> action) throws IOException {
+        while (true) {
+            try {
+                return action.apply(this.getRegionFile(chunkPosition));
+            } catch (ClosedChannelException ignored) {
+                // evicted by another thread
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RegionFileAction<T> {
+
+        T apply(RegionFile regionFile) throws IOException;
+
+    }
+
+    @Override
+    public boolean isLayerLoaded(ChunkPosition smallChunk) {
+        return this.leafDatabase.isLayerLoaded(smallChunk);
+    }
+
+    @Override
+    public LayerBitSet getPossibleWorldDefaultLayers(ChunkPosition smallChunk) {
+        return this.leafDatabase.getPossibleWorldDefaultLayers(smallChunk);
+    }
+
+    @Override
+    public void load() {
+        try {
+            Files.createDirectories(this.regionsFolderPath);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create region folder!", e);
+        }
+    }
+
+    @Override
+    public void doDatabaseWriteAsync(Runnable runnable) {
+        if (this.writeExecutor.isShutdown() || this.writeExecutor.isTerminated()) {
+            runnable.run();
+            return;
+        }
+        this.writeExecutor.execute(() -> {
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void doDatabaseReadAsync(Runnable runnable) {
+        this.readExecutor.execute(() -> {
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.regionFiles) {
+            for (RegionFile regionFile : this.regionFiles.values()) {
+                try {
+                    regionFile.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            this.regionFiles.clear();
+        }
+    }
+
+    @Override
+    public boolean isChunkLoaded(ChunkPosition chunkPosition) {
+        return this.getRegionFile(chunkPosition).getVersion(chunkPosition.x(), chunkPosition.z()) == this.config.getChunkVersion();
+    }
+
+    @Override
+    public void setChunkLoaded(ChunkPosition chunkPosition) {
+        try {
+            this.useRegionFile(chunkPosition, regionFile -> {
+                regionFile.setVersion(chunkPosition.x(), chunkPosition.z(), this.config.getChunkVersion());
+                return null;
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        this.readExecutor.shutdown();
+        return this.writeExecutor.shutdownNow();
+    }
+
+    @Override
+    public void saveBlocksInChunk(ChunkBlockCache chunk) {
+        this.saveBlocksInChunks(List.of(chunk));
+    }
+
+    /**
+     * Writes the chunks of each region together, so the region is only synced twice for all of them
+     */
+    @Override
+    public List<ChunkBlockCache> saveBlocksInChunks(Collection<ChunkBlockCache> chunks) {
+        final List<ChunkBlockCache> failed = new ArrayList<>();
+        final Map<RegionKey, List<ChunkBlockCache>> chunksByRegion = new LinkedHashMap<>();
+        final Map<RegionKey, List<RegionFile.ChunkWrite>> writesByRegion = new HashMap<>();
+        for (ChunkBlockCache chunk : chunks) {
+            final ChunkPosition chunkPosition = chunk.getChunkPosition();
+            try {
+                chunk.setSaving(true);
+                this.mergeStoredBlocks(chunk, this.config);
+                // the whole chunk is rewritten, so removed positions don't need to be tracked
+                chunk.clearRemovedPositions(entry -> true);
+                final byte[] data = ChunkBlobCodec.encode(chunk);
+                final RegionKey key = RegionKey.of(chunkPosition);
+                chunksByRegion.computeIfAbsent(key, k -> new ArrayList<>()).add(chunk);
+                writesByRegion.computeIfAbsent(key, k -> new ArrayList<>())
+                        .add(new RegionFile.ChunkWrite(chunkPosition.x(), chunkPosition.z(), data));
+            } catch (IllegalStateException e) {
+                chunk.setSaving(false);
+                failed.add(chunk);
+                e.printStackTrace();
+            }
+        }
+        for (var entry : chunksByRegion.entrySet()) {
+            final List<ChunkBlockCache> regionChunks = entry.getValue();
+            final List<RegionFile.ChunkWrite> writes = writesByRegion.get(entry.getKey());
+            try {
+                this.useRegionFile(regionChunks.get(0).getChunkPosition(), regionFile -> {
+                    regionFile.write(writes);
+                    return null;
+                });
+            } catch (IOException | IllegalStateException e) {
+                for (ChunkBlockCache chunk : regionChunks) {
+                    chunk.setSaving(false);
+                }
+                failed.addAll(regionChunks);
+                e.printStackTrace();
+                continue;
+            }
+            for (ChunkBlockCache chunk : regionChunks) {
+                chunk.setSaving(false);
+                chunk.markClean();
+                chunk.setSafeToMarkClean(true);
+            }
+        }
+        return failed;
+    }
+
+    public void deleteChunk(ChunkPosition chunkPosition) {
+        try {
+            this.useRegionFile(chunkPosition, regionFile -> {
+                regionFile.remove(chunkPosition.x(), chunkPosition.z());
+                return null;
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Map<Position, BlockData> getBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
+        final UUID world = chunkPosition.world();
+        final Map<Position, BlockData> blocks = new HashMap<>();
+        this.loadBlocksInChunk(chunkPosition, config, (x, y, z, blockData) -> blocks.put(new Position(world, x, y, z), blockData));
+        return blocks;
+    }
+
+    @Override
+    public void loadBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config, LoadedBlockConsumer consumer) {
+        final byte[] data;
+        try {
+            data = this.useRegionFile(chunkPosition, regionFile -> regionFile.read(chunkPosition.x(), chunkPosition.z()));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not get blocks in chunk " + chunkPosition.x() + ", " + chunkPosition.z() + "!", e);
+        }
+        if (data == null) return;
+        ChunkBlobCodec.decode(data, chunkPosition, config, this.plugin.getLogger(), consumer);
+    }
+
+    @Override
+    public void saveDefaultDataLayers(UUID worldUUID, LayerBitSet yLayers, ChunkPosition smallChunk) {
+        if (yLayers.isEmpty()) return;
+        final ChunkPosition largeChunk = smallChunk.toLargeChunk();
+        final Path layersFile = this.getLayersFile(largeChunk);
+        synchronized (this.layersLock) {
+            try {
+                final LayerBitSet layers = this.readLayers(layersFile);
+                final byte[] previous = layers.toBytes();
+                layers.addAll(yLayers);
+                this.leafDatabase.addLayers(largeChunk, layers);
+                final byte[] bytes = layers.toBytes();
+                if (Arrays.equals(previous, bytes)) return;
+                Files.createDirectories(layersFile.getParent());
+                // write to a temporary file first so a crash can't leave a half written file behind
+                final Path tempFile = layersFile.resolveSibling(layersFile.getFileName() + ".tmp");
+                Files.write(tempFile, bytes);
+                Files.move(tempFile, layersFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not save default data layers!", e);
+            }
+        }
+    }
+
+    @Override
+    public void loadAllDefaultPossibleLayersInWorld(UUID worldUUID, ChunkPosition smallChunk) {
+        final ChunkPosition largeChunk = smallChunk.toLargeChunk();
+        this.leafDatabase.getCurrentlyLoadingChunks().add(largeChunk);
+        final LayerBitSet layers;
+        synchronized (this.layersLock) {
+            try {
+                layers = this.readLayers(this.getLayersFile(largeChunk));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not get all possible layers in chunk!", e);
+            }
+        }
+        this.leafDatabase.addLayers(largeChunk, layers);
+        this.leafDatabase.getCurrentlyLoadingChunks().remove(largeChunk);
+    }
+
+    private Path getLayersFile(ChunkPosition largeChunk) {
+        return this.regionsFolderPath.resolve(largeChunk.world().toString())
+                .resolve(LAYERS_FOLDER)
+                .resolve("l." + largeChunk.x() + "." + largeChunk.z() + REGION_FILE_EXTENSION);
+    }
+
+    private LayerBitSet readLayers(Path layersFile) throws IOException {
+        if (!Files.exists(layersFile)) return new LayerBitSet();
+        return LayerBitSet.fromBytes(Files.readAllBytes(layersFile));
+    }
+
+}
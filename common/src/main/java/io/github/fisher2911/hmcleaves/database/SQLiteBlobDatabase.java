@@ -0,0 +1,164 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import io.github.fisher2911.hmcleaves.HMCLeaves;
+import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
+import io.github.fisher2911.hmcleaves.config.LeavesConfig;
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+import io.github.fisher2911.hmcleaves.world.Position;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Stores each chunk as one row holding a {@link ChunkBlobCodec} blob instead of one row per block.
+ * Chunks that don't have a blob yet are read from the per block tables, and are written as a blob the next time they are saved.
+ */
+public class SQLiteBlobDatabase extends SQLiteDatabase {
+
+    private static final String CHUNK_BLOBS_TABLE_NAME = "chunk_blobs";
+    private static final String CHUNK_BLOBS_TABLE_WORLD_UUID_COLUMN = "world_uuid";
+    private static final String CHUNK_BLOBS_TABLE_CHUNK_X_COLUMN = "chunk_x";
+    private static final String CHUNK_BLOBS_TABLE_CHUNK_Z_COLUMN = "chunk_z";
+    private static final String CHUNK_BLOBS_TABLE_DATA_COLUMN = "data";
+    private static final String CREATE_CHUNK_BLOBS_TABLE_STATEMENT =
+            "CREATE TABLE IF NOT EXISTS " + CHUNK_BLOBS_TABLE_NAME + " (" +
+                    CHUNK_BLOBS_TABLE_WORLD_UUID_COLUMN + " BINARY(16) NOT NULL, " +
+                    CHUNK_BLOBS_TABLE_CHUNK_X_COLUMN + " INTEGER NOT NULL, " +
+                    CHUNK_BLOBS_TABLE_CHUNK_Z_COLUMN + " INTEGER NOT NULL, " +
+                    CHUNK_BLOBS_TABLE_DATA_COLUMN + " BLOB NOT NULL, " +
+                    "PRIMARY KEY (" + CHUNK_BLOBS_TABLE_WORLD_UUID_COLUMN + ", " + CHUNK_BLOBS_TABLE_CHUNK_X_COLUMN + ", " + CHUNK_BLOBS_TABLE_CHUNK_Z_COLUMN + ")" +
+                    ");";
+
+    private static final String SET_CHUNK_BLOB_STATEMENT =
+            "INSERT OR REPLACE INTO " + CHUNK_BLOBS_TABLE_NAME + " (" +
+                    CHUNK_BLOBS_TABLE_WORLD_UUID_COLUMN + ", " +
+                    CHUNK_BLOBS_TABLE_CHUNK_X_COLUMN + ", " +
+                    CHUNK_BLOBS_TABLE_CHUNK_Z_COLUMN + ", " +
+                    CHUNK_BLOBS_TABLE_DATA_COLUMN + ") VALUES (?, ?, ?, ?);";
+
+    private static final String GET_CHUNK_BLOB_STATEMENT =
+            "SELECT " + CHUNK_BLOBS_TABLE_DATA_COLUMN + " FROM " + CHUNK_BLOBS_TABLE_NAME + " WHERE " +
+                    CHUNK_BLOBS_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
+                    CHUNK_BLOBS_TABLE_CHUNK_X_COLUMN + " = ? AND " +
+                    CHUNK_BLOBS_TABLE_CHUNK_Z_COLUMN + " = ?;";
+
+    private static final String DELETE_CHUNK_BLOB_STATEMENT =
+            "DELETE FROM " + CHUNK_BLOBS_TABLE_NAME + " WHERE " +
+                    CHUNK_BLOBS_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
+                    CHUNK_BLOBS_TABLE_CHUNK_X_COLUMN + " = ? AND " +
+                    CHUNK_BLOBS_TABLE_CHUNK_Z_COLUMN + " = ?;";
+
+    // false once none of the per block tables have rows, then chunks without a blob have nothing saved at all
+    private volatile boolean hasBlockRows;
+
+    protected SQLiteBlobDatabase(HMCLeaves plugin) {
+        super(plugin);
+    }
+
+    @Override
+    public void load() {
+        super.load();
+        synchronized (this.writeLock) {
+            final Connection connection = this.getConnection();
+            if (connection == null) throw new IllegalStateException("Could not connect to database!");
+            try (final PreparedStatement statement = connection.prepareStatement(CREATE_CHUNK_BLOBS_TABLE_STATEMENT)) {
+                statement.execute();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not create tables!", e);
+            }
+            try {
+                this.hasBlockRows = this.hasBlockRows(connection);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not check for per block rows!", e);
+            }
+        }
+    }
+
+    /**
+     * The whole chunk is rewritten, so removed positions don't need their own deletes.
+     * The chunk's per block rows are deleted in the same transaction, since the blob now holds all of them.
+     */
+    @Override
+    protected void writeChunk(ChunkBlockCache chunk, Map<Position, BlockData> removedPositions) throws SQLException {
+        final ChunkPosition chunkPosition = chunk.getChunkPosition();
+        this.mergeStoredBlocks(chunk, this.config);
+        final PreparedStatement statement = this.getWriteStatement(SET_CHUNK_BLOB_STATEMENT);
+        statement.setBytes(1, Database.uuidToBytes(chunkPosition.world()));
+        statement.setInt(2, chunkPosition.x());
+        statement.setInt(3, chunkPosition.z());
+        statement.setBytes(4, ChunkBlobCodec.encode(chunk));
+        statement.executeUpdate();
+        if (this.hasBlockRows) {
+            this.deleteBlockRowsInChunk(chunkPosition);
+        }
+    }
+
+    @Override
+    public void loadBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config, LoadedBlockConsumer consumer) {
+        final byte[] blob;
+        try (final ReadConnection readConnection = this.getReadConnection();
+             final PreparedStatement statement = readConnection.connection().prepareStatement(GET_CHUNK_BLOB_STATEMENT)) {
+            statement.setBytes(1, Database.uuidToBytes(chunkPosition.world()));
+            statement.setInt(2, chunkPosition.x());
+            statement.setInt(3, chunkPosition.z());
+            try (final ResultSet resultSet = statement.executeQuery()) {
+                blob = resultSet.next() ? resultSet.getBytes(1) : null;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not get blocks in chunk " + chunkPosition.x() + ", " + chunkPosition.z() + "!", e);
+        }
+        if (blob == null) {
+            if (this.hasBlockRows) {
+                super.loadBlocksInChunk(chunkPosition, config, consumer);
+            }
+            return;
+        }
+        ChunkBlobCodec.decode(blob, chunkPosition, config, this.plugin.getLogger(), consumer);
+    }
+
+    @Override
+    public void deleteChunk(ChunkPosition chunkPosition) {
+        super.deleteChunk(chunkPosition);
+        synchronized (this.writeLock) {
+            final Connection connection = this.getConnection();
+            if (connection == null) throw new IllegalStateException("Could not connect to database!");
+            try {
+                connection.setAutoCommit(false);
+                final PreparedStatement statement = this.getWriteStatement(DELETE_CHUNK_BLOB_STATEMENT);
+                statement.setBytes(1, Database.uuidToBytes(chunkPosition.world()));
+                statement.setInt(2, chunkPosition.x());
+                statement.setInt(3, chunkPosition.z());
+                statement.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                this.rollback(connection);
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
@@ -20,20 +20,19 @@
 
 package io.github.fisher2911.hmcleaves.database;
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import io.github.fisher2911.hmcleaves.HMCLeaves;
 import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
 import io.github.fisher2911.hmcleaves.config.LeavesConfig;
-import io.github.fisher2911.hmcleaves.data.AgeableData;
 import io.github.fisher2911.hmcleaves.data.BlockData;
 import io.github.fisher2911.hmcleaves.data.CaveVineData;
 import io.github.fisher2911.hmcleaves.data.LeafData;
 import io.github.fisher2911.hmcleaves.data.LogData;
-import io.github.fisher2911.hmcleaves.data.SaplingData;
 import io.github.fisher2911.hmcleaves.world.ChunkPosition;
 import io.github.fisher2911.hmcleaves.world.Position;
 import org.jetbrains.annotations.Nullable;
+import org.sqlite.SQLiteConfig;
 
 import java.io.File;
 import java.nio.file.Path;
@@ -42,32 +41,38 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class SQLiteDatabase implements Database {
 
-    private final HMCLeaves plugin;
-    private final LeavesConfig config;
+    protected final HMCLeaves plugin;
+    protected final LeavesConfig config;
     private final Path databaseFilePath;
     private final ExecutorService writeExecutor;
     private final ExecutorService readExecutor;
+    // only used by the write executor (and onDisable) when pooled, otherwise shared by everything
     private Connection connection;
+    // read only connections, null when sqlite-pooled is disabled
+    @Nullable
+    private HikariDataSource readPool;
     private LeafDatabase leafDatabase;
+    // guards the writer connection's transaction and its cached statements
+    protected final Object writeLock = new Object();
+    private final Map<String, PreparedStatement> writeStatements = new HashMap<>();
 
     protected SQLiteDatabase(HMCLeaves plugin) {
         this.plugin = plugin;
         this.config = plugin.getLeavesConfig();
         this.databaseFilePath = this.plugin.getDataFolder().toPath().resolve("database").resolve("leaves.db");
-        this.writeExecutor = Executors.newSingleThreadExecutor();
-        this.readExecutor = Executors.newFixedThreadPool(5);
+        this.writeExecutor = DatabaseExecutors.newWriteExecutor(this.config);
+        this.readExecutor = DatabaseExecutors.newReadExecutor(this.config, plugin.getLogger());
         this.leafDatabase = new LeafDatabase();
     }
 
@@ -77,28 +82,97 @@ public class SQLiteDatabase implements Database {
     }
 
     @Override
-    public Collection<Integer> getPossibleWorldDefaultLayers(ChunkPosition smallChunk) {
+    public LayerBitSet getPossibleWorldDefaultLayers(ChunkPosition smallChunk) {
         return leafDatabase.getPossibleWorldDefaultLayers(smallChunk);
     }
 
     @Nullable
-    private Connection getConnection() {
+    protected Connection getConnection() {
         if (this.connection != null) return this.connection;
         final File folder = this.databaseFilePath.getParent().toFile();
         if (!folder.exists()) {
             folder.mkdirs();
         }
         try {
-            this.connection = DriverManager.getConnection("jdbc:sqlite:" + this.databaseFilePath);
+            if (this.config.isSqlitePooled()) {
+                this.connection = DriverManager.getConnection(this.getJdbcUrl(), this.createWriterConfig().toProperties());
+            } else {
+                this.connection = DriverManager.getConnection(this.getJdbcUrl());
+            }
         } catch (SQLException e) {
             throw new IllegalStateException("Could not connect to database!", e);
         }
         return this.connection;
     }
 
+    private String getJdbcUrl() {
+        return "jdbc:sqlite:" + this.databaseFilePath;
+    }
+
+    private SQLiteConfig createWriterConfig() {
+        final SQLiteConfig sqLiteConfig = new SQLiteConfig();
+        // WAL is persisted in the database file, so the readers pick it up from the writer
+        sqLiteConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        sqLiteConfig.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        sqLiteConfig.setCacheSize(CACHE_SIZE_KIB);
+        sqLiteConfig.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        sqLiteConfig.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        return sqLiteConfig;
+    }
+
+    private HikariDataSource createReadPool() {
+        final SQLiteConfig sqLiteConfig = new SQLiteConfig();
+        sqLiteConfig.setReadOnly(true);
+        sqLiteConfig.setCacheSize(CACHE_SIZE_KIB);
+        sqLiteConfig.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        sqLiteConfig.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        final HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("HMCLeaves-SQLite-Read");
+        hikariConfig.setJdbcUrl(this.getJdbcUrl());
+        hikariConfig.setDataSourceProperties(sqLiteConfig.toProperties());
+        hikariConfig.setConnectionInitSql("PRAGMA mmap_size=" + MMAP_SIZE_BYTES + ";");
+        hikariConfig.setMaximumPoolSize(this.config.getSqliteReadPoolSize());
+        hikariConfig.setMinimumIdle(1);
+        return new HikariDataSource(hikariConfig);
+    }
+
+    /**
+     * When pooled, borrows a read only connection that is returned to the pool on close,
+     * otherwise hands out the shared connection and leaves it open
+     */
+    protected ReadConnection getReadConnection() throws SQLException {
+        if (this.readPool == null) {
+            final Connection connection = this.getConnection();
+            if (connection == null) throw new IllegalStateException("Could not connect to database!");
+            return new ReadConnection(connection, false);
+        }
+        return new ReadConnection(this.readPool.getConnection(), true);
+    }
+
+    protected record ReadConnection(Connection connection, boolean pooled) implements AutoCloseable {
+
+        @Override
+        public void close() throws SQLException {
+            if (this.pooled) this.connection.close();
+        }
+
+    }
+
     @Override
     public void load() {
         this.createTables();
+        this.migrateLegacyDefaultLayers();
+        if (this.config.isSqlitePooled()) {
+            // the writer has to create the tables and switch to WAL before any read only connection opens
+            final Connection connection = this.getConnection();
+            if (connection == null) throw new IllegalStateException("Could not connect to database!");
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA mmap_size=" + MMAP_SIZE_BYTES + ";");
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not configure database!", e);
+            }
+            this.readPool = this.createReadPool();
+        }
     }
 
     @Override
@@ -127,6 +201,11 @@ public class SQLiteDatabase implements Database {
         });
     }
 
+    // negative means KiB instead of pages
+    private static final int CACHE_SIZE_KIB = -16_000;
+    private static final long MMAP_SIZE_BYTES = 256L * 1024 * 1024;
+    private static final int BUSY_TIMEOUT_MILLIS = 5_000;
+
     private static final String LOADED_CHUNKS_TABLE_NAME = "loaded_chunks";
     private static final String LOADED_CHUNKS_TABLE_WORLD_UUID_COLUMN = "world_uuid";
     private static final String LOADED_CHUNKS_TABLE_CHUNK_X_COLUMN = "chunk_x";
@@ -154,35 +233,45 @@ public class SQLiteDatabase implements Database {
                     LOADED_CHUNKS_TABLE_CHUNK_Z_COLUMN + ", " +
                     LOADED_CHUNKS_TABLE_CHUNK_VERSION_COLUMN + ") VALUES (?, ?, ?, ?);";
 
-    // stores all layers that have default leaf data
-    private static final String DEFAULT_CHUNK_DATA_LAYERS_TABLE_NAME = "default_chunk_data_y_layers";
-    private static final String DEFAULT_CHUNK_DATA_LAYERS_WORLD_UUID_COLUMN = "world_uuid";
+    // stores all layers that have default leaf data as a LayerBitSet, one row per large chunk
+    private static final String DEFAULT_LAYERS_TABLE_NAME = "default_chunk_layers";
+    private static final String DEFAULT_LAYERS_WORLD_UUID_COLUMN = "world_uuid";
     // instead of 16x16 chunks, use 528*528 chunks
-    private static final String DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_X_COLUMN = "chunk_x";
-    private static final String DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_Z_COLUMN = "chunk_z";
-    private static final String DEFAULT_CHUNK_DATA_LAYERS_Y_COLUMN = "y";
-    private static final String CREATE_DEFAULT_CHUNK_DATA_LAYERS_TABLE_STATEMENT =
-            "CREATE TABLE IF NOT EXISTS " + DEFAULT_CHUNK_DATA_LAYERS_TABLE_NAME + " (" +
-                    DEFAULT_CHUNK_DATA_LAYERS_WORLD_UUID_COLUMN + " BINARY(16) NOT NULL, " +
-                    DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_X_COLUMN + " INTEGER NOT NULL, " +
-                    DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_Z_COLUMN + " INTEGER NOT NULL, " +
-                    DEFAULT_CHUNK_DATA_LAYERS_Y_COLUMN + " INTEGER NOT NULL, " +
-                    "UNIQUE(" + DEFAULT_CHUNK_DATA_LAYERS_WORLD_UUID_COLUMN + ", " +
-                    DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_X_COLUMN + ", " +
-                    DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_Z_COLUMN + ", "
-                    + DEFAULT_CHUNK_DATA_LAYERS_Y_COLUMN + ")" +
+    private static final String DEFAULT_LAYERS_LARGE_CHUNK_X_COLUMN = "chunk_x";
+    private static final String DEFAULT_LAYERS_LARGE_CHUNK_Z_COLUMN = "chunk_z";
+    private static final String DEFAULT_LAYERS_LAYERS_COLUMN = "layers";
+    private static final String CREATE_DEFAULT_LAYERS_TABLE_STATEMENT =
+            "CREATE TABLE IF NOT EXISTS " + DEFAULT_LAYERS_TABLE_NAME + " (" +
+                    DEFAULT_LAYERS_WORLD_UUID_COLUMN + " BINARY(16) NOT NULL, " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_X_COLUMN + " INTEGER NOT NULL, " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_Z_COLUMN + " INTEGER NOT NULL, " +
+                    DEFAULT_LAYERS_LAYERS_COLUMN + " BLOB NOT NULL, " +
+                    "PRIMARY KEY (" + DEFAULT_LAYERS_WORLD_UUID_COLUMN + ", " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_X_COLUMN + ", " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_Z_COLUMN + ")" +
                     ");";
-    private static final String GET_DEFAULT_CHUNK_DATA_LAYERS_STATEMENT =
-            "SELECT " + DEFAULT_CHUNK_DATA_LAYERS_Y_COLUMN + " FROM " + DEFAULT_CHUNK_DATA_LAYERS_TABLE_NAME + " WHERE " +
-                    DEFAULT_CHUNK_DATA_LAYERS_WORLD_UUID_COLUMN + " = ? AND " +
-                    DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_X_COLUMN + " = ? AND " +
-                    DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_Z_COLUMN + " = ?;";
-    private static final String INSERT_DEFAULT_CHUNK_DATA_LAYERS_STATEMENT =
-            "INSERT OR REPLACE INTO " + DEFAULT_CHUNK_DATA_LAYERS_TABLE_NAME + " (" +
-                    DEFAULT_CHUNK_DATA_LAYERS_WORLD_UUID_COLUMN + ", " +
-                    DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_X_COLUMN + ", " +
-                    DEFAULT_CHUNK_DATA_LAYERS_LARGE_CHUNK_Z_COLUMN + ", " +
-                    DEFAULT_CHUNK_DATA_LAYERS_Y_COLUMN + ") VALUES (?, ?, ?, ?);";
+    private static final String GET_DEFAULT_LAYERS_STATEMENT =
+            "SELECT " + DEFAULT_LAYERS_LAYERS_COLUMN + " FROM " + DEFAULT_LAYERS_TABLE_NAME + " WHERE " +
+                    DEFAULT_LAYERS_WORLD_UUID_COLUMN + " = ? AND " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_X_COLUMN + " = ? AND " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_Z_COLUMN + " = ?;";
+    private static final String INSERT_DEFAULT_LAYERS_STATEMENT =
+            "INSERT OR REPLACE INTO " + DEFAULT_LAYERS_TABLE_NAME + " (" +
+                    DEFAULT_LAYERS_WORLD_UUID_COLUMN + ", " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_X_COLUMN + ", " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_Z_COLUMN + ", " +
+                    DEFAULT_LAYERS_LAYERS_COLUMN + ") VALUES (?, ?, ?, ?);";
+
+    // older versions stored one row per y level, these are moved to DEFAULT_LAYERS_TABLE_NAME once and the table is dropped
+    private static final String LEGACY_DEFAULT_LAYERS_TABLE_NAME = "default_chunk_data_y_layers";
+    private static final String LEGACY_DEFAULT_LAYERS_Y_COLUMN = "y";
+    private static final String TABLE_EXISTS_STATEMENT = "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?;";
+    private static final String GET_ALL_LEGACY_DEFAULT_LAYERS_STATEMENT =
+            "SELECT " + DEFAULT_LAYERS_WORLD_UUID_COLUMN + ", " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_X_COLUMN + ", " +
+                    DEFAULT_LAYERS_LARGE_CHUNK_Z_COLUMN + ", " +
+                    LEGACY_DEFAULT_LAYERS_Y_COLUMN + " FROM " + LEGACY_DEFAULT_LAYERS_TABLE_NAME + ";";
+    private static final String DROP_LEGACY_DEFAULT_LAYERS_TABLE_STATEMENT = "DROP TABLE " + LEGACY_DEFAULT_LAYERS_TABLE_NAME + ";";
 
     private static final String LEAVES_TABLE_NAME = "leaves";
     private static final String LEAVES_TABLE_WORLD_UUID_COLUMN = "world_uuid";
@@ -218,12 +307,6 @@ public class SQLiteDatabase implements Database {
                     LEAVES_TABLE_WATERLOGGED_COLUMN +
                     ") VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
 
-    private static final String GET_LEAF_BLOCKS_IN_CHUNK_STATEMENT =
-            "SELECT " + LEAVES_TABLE_BLOCK_X_COLUMN + ", " + LEAVES_TABLE_BLOCK_Y_COLUMN + ", " + LEAVES_TABLE_BLOCK_Z_COLUMN + ", " + LEAVES_TABLE_BLOCK_ID_COLUMN + ", " + LEAVES_TABLE_WATERLOGGED_COLUMN + " FROM " + LEAVES_TABLE_NAME + " WHERE " +
-                    LEAVES_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
-                    LEAVES_TABLE_CHUNK_X_COLUMN + " = ? AND " +
-                    LEAVES_TABLE_CHUNK_Z_COLUMN + " = ?;";
-
     private static final String DELETE_LEAF_BLOCK_STATEMENT =
             "DELETE FROM " + LEAVES_TABLE_NAME + " WHERE " +
                     LEAVES_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
@@ -272,12 +355,6 @@ public class SQLiteDatabase implements Database {
                     LOGS_TABLE_STRIPPED_COLUMN +
                     ") VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
 
-    private static final String GET_LOG_BLOCKS_IN_CHUNK_STATEMENT =
-            "SELECT " + LOGS_TABLE_BLOCK_X_COLUMN + ", " + LOGS_TABLE_BLOCK_Y_COLUMN + ", " + LOGS_TABLE_BLOCK_Z_COLUMN + ", " + LOGS_TABLE_BLOCK_ID_COLUMN + ", " + LOGS_TABLE_STRIPPED_COLUMN + " FROM " + LOGS_TABLE_NAME + " WHERE " +
-                    LOGS_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
-                    LOGS_TABLE_CHUNK_X_COLUMN + " = ? AND " +
-                    LOGS_TABLE_CHUNK_Z_COLUMN + " = ?;";
-
     private static final String DELETE_LOG_BLOCK_STATEMENT =
             "DELETE FROM " + LOGS_TABLE_NAME + " WHERE " +
                     LOGS_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
@@ -322,12 +399,6 @@ public class SQLiteDatabase implements Database {
                     SAPLINGS_TABLE_BLOCK_ID_COLUMN +
                     ") VALUES (?, ?, ?, ?, ?, ?, ?);";
 
-    public static final String GET_SAPLING_BLOCKS_IN_CHUNK_STATEMENT =
-            "SELECT " + SAPLINGS_TABLE_BLOCK_X_COLUMN + ", " + SAPLINGS_TABLE_BLOCK_Y_COLUMN + ", " + SAPLINGS_TABLE_BLOCK_Z_COLUMN + ", " + SAPLINGS_TABLE_BLOCK_ID_COLUMN + " FROM " + SAPLINGS_TABLE_NAME + " WHERE " +
-                    SAPLINGS_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
-                    SAPLINGS_TABLE_CHUNK_X_COLUMN + " = ? AND " +
-                    SAPLINGS_TABLE_CHUNK_Z_COLUMN + " = ?;";
-
     public static final String DELETE_SAPLING_BLOCK_STATEMENT =
             "DELETE FROM " + SAPLINGS_TABLE_NAME + " WHERE " +
                     SAPLINGS_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
@@ -375,12 +446,6 @@ public class SQLiteDatabase implements Database {
                     CAVE_VINES_TABLE_HAS_BERRIES_COLUMN +
                     ") VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
 
-    public static final String GET_CAVE_VINES_BLOCKS_IN_CHUNK_STATEMENT =
-            "SELECT " + CAVE_VINES_TABLE_BLOCK_X_COLUMN + ", " + CAVE_VINES_TABLE_BLOCK_Y_COLUMN + ", " + CAVE_VINES_TABLE_BLOCK_Z_COLUMN + ", " + CAVE_VINES_TABLE_BLOCK_ID_COLUMN + ", " + CAVE_VINES_TABLE_HAS_BERRIES_COLUMN + " FROM " + CAVE_VINES_TABLE_NAME + " WHERE " +
-                    CAVE_VINES_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
-                    CAVE_VINES_TABLE_CHUNK_X_COLUMN + " = ? AND " +
-                    CAVE_VINES_TABLE_CHUNK_Z_COLUMN + " = ?;";
-
     public static final String DELETE_CAVE_VINES_BLOCK_STATEMENT =
             "DELETE FROM " + CAVE_VINES_TABLE_NAME + " WHERE " +
                     CAVE_VINES_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
@@ -425,12 +490,6 @@ public class SQLiteDatabase implements Database {
                     AGEABLE_TABLE_BLOCK_ID_COLUMN +
                     ") VALUES (?, ?, ?, ?, ?, ?, ?);";
 
-    private static final String GET_AGEABLE_BLOCKS_IN_CHUNK_STATEMENT =
-            "SELECT " + AGEABLE_TABLE_BLOCK_X_COLUMN + ", " + AGEABLE_TABLE_BLOCK_Y_COLUMN + ", " + AGEABLE_TABLE_BLOCK_Z_COLUMN + ", " + AGEABLE_TABLE_BLOCK_ID_COLUMN + " FROM " + AGEABLE_TABLE_NAME + " WHERE " +
-                    AGEABLE_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
-                    AGEABLE_TABLE_CHUNK_X_COLUMN + " = ? AND " +
-                    AGEABLE_TABLE_CHUNK_Z_COLUMN + " = ?;";
-
     private static final String DELETE_AGEABLE_BLOCK_STATEMENT =
             "DELETE FROM " + AGEABLE_TABLE_NAME + " WHERE " +
                     AGEABLE_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
@@ -444,11 +503,71 @@ public class SQLiteDatabase implements Database {
                     AGEABLE_TABLE_CHUNK_X_COLUMN + " = ? AND " +
                     AGEABLE_TABLE_CHUNK_Z_COLUMN + " = ?;";
 
+    // indexed by the block type
+    private static final String[] SET_BLOCK_STATEMENTS = {
+            SET_LEAF_BLOCK_STATEMENT,
+            SET_LOG_BLOCK_STATEMENT,
+            SET_SAPLING_BLOCK_STATEMENT,
+            SET_CAVE_VINES_BLOCK_STATEMENT,
+            SET_AGEABLE_BLOCK_STATEMENT
+    };
+    private static final String[] DELETE_BLOCK_STATEMENTS = {
+            DELETE_LEAF_BLOCK_STATEMENT,
+            DELETE_LOG_BLOCK_STATEMENT,
+            DELETE_SAPLING_BLOCK_STATEMENT,
+            DELETE_CAVE_VINES_BLOCK_STATEMENT,
+            DELETE_AGEABLE_BLOCK_STATEMENT
+    };
+    private static final String[] DELETE_CHUNK_STATEMENTS = {
+            DELETE_LEAF_CHUNK_STATEMENT,
+            DELETE_LOG_CHUNK_STATEMENT,
+            DELETE_SAPLING_CHUNK_STATEMENT,
+            DELETE_CAVE_VINES_CHUNK_STATEMENT,
+            DELETE_AGEABLE_CHUNK_STATEMENT
+    };
+
+    // every block table in one query, the first column is the block type and the last is the table's flag column
+    private static final String GET_BLOCKS_IN_CHUNK_STATEMENT =
+            selectBlocksInChunk(StoredBlockTypes.LEAF_TYPE, LEAVES_TABLE_NAME, LEAVES_TABLE_WATERLOGGED_COLUMN) + " UNION ALL " +
+                    selectBlocksInChunk(StoredBlockTypes.LOG_TYPE, LOGS_TABLE_NAME, LOGS_TABLE_STRIPPED_COLUMN) + " UNION ALL " +
+                    selectBlocksInChunk(StoredBlockTypes.SAPLING_TYPE, SAPLINGS_TABLE_NAME, "0") + " UNION ALL " +
+                    selectBlocksInChunk(StoredBlockTypes.CAVE_VINE_TYPE, CAVE_VINES_TABLE_NAME, CAVE_VINES_TABLE_HAS_BERRIES_COLUMN) + " UNION ALL " +
+                    selectBlocksInChunk(StoredBlockTypes.AGEABLE_TYPE, AGEABLE_TABLE_NAME, "0") + ";";
+
+    private static final String HAS_BLOCK_ROWS_STATEMENT =
+            "SELECT EXISTS(SELECT 1 FROM " + LEAVES_TABLE_NAME + ") OR " +
+                    "EXISTS(SELECT 1 FROM " + LOGS_TABLE_NAME + ") OR " +
+                    "EXISTS(SELECT 1 FROM " + SAPLINGS_TABLE_NAME + ") OR " +
+                    "EXISTS(SELECT 1 FROM " + CAVE_VINES_TABLE_NAME + ") OR " +
+                    "EXISTS(SELECT 1 FROM " + AGEABLE_TABLE_NAME + ");";
+
+    // the primary keys start with the world, so without these a chunk lookup scans every block in the world
+    private static final String[] CREATE_CHUNK_INDEX_STATEMENTS = {
+            createChunkIndex(LEAVES_TABLE_NAME),
+            createChunkIndex(LOGS_TABLE_NAME),
+            createChunkIndex(SAPLINGS_TABLE_NAME),
+            createChunkIndex(CAVE_VINES_TABLE_NAME),
+            createChunkIndex(AGEABLE_TABLE_NAME)
+    };
+
+    // all block tables use the same names for the shared columns
+    private static String selectBlocksInChunk(int type, String tableName, String flagColumn) {
+        return "SELECT " + type + ", " + LEAVES_TABLE_BLOCK_X_COLUMN + ", " + LEAVES_TABLE_BLOCK_Y_COLUMN + ", " + LEAVES_TABLE_BLOCK_Z_COLUMN + ", " +
+                LEAVES_TABLE_BLOCK_ID_COLUMN + ", " + flagColumn + " FROM " + tableName + " WHERE " +
+                LEAVES_TABLE_WORLD_UUID_COLUMN + " = ? AND " +
+                LEAVES_TABLE_CHUNK_X_COLUMN + " = ? AND " +
+                LEAVES_TABLE_CHUNK_Z_COLUMN + " = ?";
+    }
+
+    private static String createChunkIndex(String tableName) {
+        return "CREATE INDEX IF NOT EXISTS " + tableName + "_chunk_index ON " + tableName + " (" +
+                LEAVES_TABLE_WORLD_UUID_COLUMN + ", " + LEAVES_TABLE_CHUNK_X_COLUMN + ", " + LEAVES_TABLE_CHUNK_Z_COLUMN + ");";
+    }
 
     private void createTables() {
         final Connection connection = this.getConnection();
         if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        try (final PreparedStatement statement = connection.prepareStatement(CREATE_DEFAULT_CHUNK_DATA_LAYERS_TABLE_STATEMENT)) {
+        try (final PreparedStatement statement = connection.prepareStatement(CREATE_DEFAULT_LAYERS_TABLE_STATEMENT)) {
             statement.execute();
         } catch (SQLException e) {
             throw new IllegalStateException("Could not create tables!", e);
@@ -483,10 +602,30 @@ public class SQLiteDatabase implements Database {
         } catch (SQLException e) {
             throw new IllegalStateException("Could not create tables!", e);
         }
+        for (String createIndexStatement : CREATE_CHUNK_INDEX_STATEMENTS) {
+            try (final PreparedStatement statement = connection.prepareStatement(createIndexStatement)) {
+                statement.execute();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not create indexes!", e);
+            }
+        }
     }
 
     @Override
     public void close() {
+        if (this.readPool != null) {
+            this.readPool.close();
+        }
+        synchronized (this.writeLock) {
+            for (PreparedStatement statement : this.writeStatements.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            this.writeStatements.clear();
+        }
         try {
             this.connection.close();
         } catch (SQLException e) {
@@ -496,7 +635,8 @@ public class SQLiteDatabase implements Database {
 
     @Override
     public boolean isChunkLoaded(ChunkPosition chunkPosition) {
-        try (final PreparedStatement statement = this.connection.prepareStatement(GET_CHUNK_VERSION_STATEMENT)) {
+        try (final ReadConnection readConnection = this.getReadConnection();
+             final PreparedStatement statement = readConnection.connection().prepareStatement(GET_CHUNK_VERSION_STATEMENT)) {
             statement.setBytes(1, Database.uuidToBytes(chunkPosition.world()));
             statement.setInt(2, chunkPosition.x());
             statement.setInt(3, chunkPosition.z());
@@ -513,20 +653,21 @@ public class SQLiteDatabase implements Database {
 
     @Override
     public void setChunkLoaded(ChunkPosition chunkPosition) {
-        try {
-            final Connection connection = this.getConnection();
-            if (connection == null) throw new IllegalStateException("Could not connect to database!");
-            connection.setAutoCommit(false);
-            try (final PreparedStatement statement = connection.prepareStatement(INSERT_CHUNK_VERSION_STATEMENT)) {
+        synchronized (this.writeLock) {
+            try {
+                final Connection connection = this.getConnection();
+                if (connection == null) throw new IllegalStateException("Could not connect to database!");
+                connection.setAutoCommit(false);
+                final PreparedStatement statement = this.getWriteStatement(INSERT_CHUNK_VERSION_STATEMENT);
                 statement.setBytes(1, Database.uuidToBytes(chunkPosition.world()));
                 statement.setInt(2, chunkPosition.x());
                 statement.setInt(3, chunkPosition.z());
                 statement.setInt(4, this.config.getChunkVersion());
                 statement.execute();
+                connection.commit();
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-            connection.commit();
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
     }
 
@@ -538,700 +679,379 @@ public class SQLiteDatabase implements Database {
 
     @Override
     public void saveBlocksInChunk(ChunkBlockCache chunk) {
-        try {
-            chunk.setSaving(true);
-            this.saveLeafBlocksInChunk(chunk);
-            this.saveLogBlocksInChunk(chunk);
-            this.saveSaplingBlocksInChunk(chunk);
-            this.saveCaveVineBlocksInChunk(chunk);
-            this.saveAgeableBlocksInChunk(chunk);
-            chunk.setSaving(false);
-            chunk.markClean();
-            chunk.setSafeToMarkClean(true);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public void deleteChunk(ChunkPosition chunkPosition) {
-        try {
-            this.deleteLeafChunk(chunkPosition);
-            this.deleteLogChunk(chunkPosition);
-            this.deleteSaplingChunk(chunkPosition);
-            this.deleteCaveVinesChunk(chunkPosition);
-            this.deleteAgeableChunk(chunkPosition);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-    }
-
-    @Override
-    public Map<Position, BlockData> getBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
-        final Map<Position, BlockData> blocks = new HashMap<>();
-        blocks.putAll(this.getLeafBlocksInChunk(chunkPosition, config));
-        blocks.putAll(this.getLogBlocksInChunk(chunkPosition, config));
-        blocks.putAll(this.getSaplingBlocksInChunk(chunkPosition, config));
-        blocks.putAll(this.getCaveVineBlocksInChunk(chunkPosition, config));
-        blocks.putAll(this.getAgeableBlocksInChunk(chunkPosition, config));
-        return blocks;
-    }
-
-    @Override
-    public void saveDefaultDataLayers(UUID worldUUID, Collection<Integer> yLayers, ChunkPosition smallChunk) throws SQLException {
-        if (yLayers.isEmpty()) return;
-        final ChunkPosition largeChunk = smallChunk.toLargeChunk();
-        final Multimap<ChunkPosition, Integer> multimap = this.leafDatabase.getPossibleWorldDefaultLayers()
-                .computeIfAbsent(worldUUID, uuid -> Multimaps.newSetMultimap(new ConcurrentHashMap<>(), ConcurrentHashMap::newKeySet));
-        multimap.putAll(largeChunk, yLayers);
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final byte[] worldUUIDBytes = Database.uuidToBytes(worldUUID);
-        this.connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(INSERT_DEFAULT_CHUNK_DATA_LAYERS_STATEMENT)) {
-            for (int y : yLayers) {
-                statement.setBytes(1, worldUUIDBytes);
-                statement.setInt(2, largeChunk.x());
-                statement.setInt(3, largeChunk.z());
-                statement.setInt(4, y);
-                statement.addBatch();
-            }
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not save default data layers!", e);
-        }
-        connection.commit();
+        this.saveBlocksInChunks(List.of(chunk));
     }
 
+    /**
+     * Saves all the chunks in a single transaction, if it fails none of them are written
+     */
     @Override
-    public void loadAllDefaultPossibleLayersInWorld(UUID worldUUID, ChunkPosition smallChunk) {
-        final List<Integer> yLevels = new ArrayList<>();
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final byte[] worldUUIDBytes = Database.uuidToBytes(worldUUID);
-        final ChunkPosition largeChunk = smallChunk.toLargeChunk();
-        this.leafDatabase.getCurrentlyLoadingChunks().add(largeChunk);
-        try (final PreparedStatement statement = connection.prepareStatement(GET_DEFAULT_CHUNK_DATA_LAYERS_STATEMENT)) {
-            statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, largeChunk.x());
-            statement.setInt(3, largeChunk.z());
-            try (final ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    yLevels.add(resultSet.getInt(DEFAULT_CHUNK_DATA_LAYERS_Y_COLUMN));
+    public List<ChunkBlockCache> saveBlocksInChunks(Collection<ChunkBlockCache> chunks) {
+        if (chunks.isEmpty()) return List.of();
+        synchronized (this.writeLock) {
+            final Connection connection = this.getConnection();
+            if (connection == null) throw new IllegalStateException("Could not connect to database!");
+            // removed positions are only dropped once the deletes are committed
+            final List<Map<Position, BlockData>> removedPositions = new ArrayList<>(chunks.size());
+            try {
+                connection.setAutoCommit(false);
+                for (ChunkBlockCache chunk : chunks) {
+                    chunk.setSaving(true);
+                    final Map<Position, BlockData> removed = chunk.getRemovedPositions();
+                    removedPositions.add(removed);
+                    this.writeChunk(chunk, removed);
                 }
+                connection.commit();
+                int i = 0;
+                for (ChunkBlockCache chunk : chunks) {
+                    final Map<Position, BlockData> removed = removedPositions.get(i++);
+                    if (!removed.isEmpty()) {
+                        chunk.clearRemovedPositions(entry -> removed.get(entry.getKey()) == entry.getValue());
+                    }
+                    chunk.setSaving(false);
+                    chunk.markClean();
+                    chunk.setSafeToMarkClean(true);
+                }
+                return List.of();
+            } catch (SQLException | IllegalStateException e) {
+                this.clearWriteBatches();
+                this.rollback(connection);
+                for (ChunkBlockCache chunk : chunks) {
+                    chunk.setSaving(false);
+                }
+                e.printStackTrace();
+                return new ArrayList<>(chunks);
             }
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not get all possible layers in chunk!", e);
         }
-        final Multimap<ChunkPosition, Integer> multimap = this.leafDatabase.getPossibleWorldDefaultLayers()
-                .computeIfAbsent(worldUUID, uuid -> Multimaps.newSetMultimap(new ConcurrentHashMap<>(), ConcurrentHashMap::newKeySet));
-        multimap.putAll(largeChunk, yLevels);
-        this.leafDatabase.getCurrentlyLoadingChunks().remove(largeChunk);
     }
 
-    private void saveLeafBlocksInChunk(ChunkBlockCache chunk) throws SQLException {
-        this.deleteRemovedLeafBlocksInChunk(chunk);
-        if (chunk.getBlockDataMap().isEmpty()) return;
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final ChunkPosition chunkPosition = chunk.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        this.connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(SET_LEAF_BLOCK_STATEMENT)) {
-            for (var entry : chunk.getBlockDataMap().entrySet()) {
-                final Position position = entry.getKey();
-                final int blockX = position.x();
-                final int blockY = position.y();
-                final int blockZ = position.z();
-                final BlockData blockData = entry.getValue();
-                if (!blockData.shouldSave()) continue;
-                if (!(blockData instanceof final LeafData leafData)) continue;
-                final String blockID = blockData.id();
-                statement.setBytes(1, worldUUIDBytes);
-                statement.setInt(2, chunkX);
-                statement.setInt(3, chunkZ);
-                statement.setInt(4, blockX);
-                statement.setInt(5, blockY);
-                statement.setInt(6, blockZ);
-                statement.setString(7, blockID);
-                statement.setBoolean(8, leafData.waterlogged());
-                statement.addBatch();
+    public void deleteChunk(ChunkPosition chunkPosition) {
+        synchronized (this.writeLock) {
+            final Connection connection = this.getConnection();
+            if (connection == null) throw new IllegalStateException("Could not connect to database!");
+            try {
+                connection.setAutoCommit(false);
+                this.deleteBlockRowsInChunk(chunkPosition);
+                connection.commit();
+            } catch (SQLException e) {
+                this.rollback(connection);
+                e.printStackTrace();
             }
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not save leaf blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
         }
-        this.connection.commit();
     }
 
-    private void deleteRemovedLeafBlocksInChunk(ChunkBlockCache chunkBlockCache) {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final ChunkPosition chunkPosition = chunkBlockCache.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_LEAF_BLOCK_STATEMENT)) {
-            chunkBlockCache.clearRemovedPositions(entry -> {
-                try {
-                    final Position position = entry.getKey();
-                    final BlockData blockData = entry.getValue();
-                    if (!(blockData instanceof LeafData)) return false;
-                    final int blockX = position.x();
-                    final int blockY = position.y();
-                    final int blockZ = position.z();
-                    statement.setBytes(1, worldUUIDBytes);
-                    statement.setInt(2, blockX);
-                    statement.setInt(3, blockY);
-                    statement.setInt(4, blockZ);
-                    statement.addBatch();
-                    return true;
-                } catch (SQLException e) {
-                    throw new IllegalStateException("Could not delete removed leaf blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
-                }
-            });
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete removed leaf blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
-        }
-    }
-
-    private void deleteLeafChunk(ChunkPosition chunkPosition) throws SQLException {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_LEAF_CHUNK_STATEMENT)) {
-            statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.execute();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete leaf chunk " + chunkX + ", " + chunkZ + "!", e);
-        }
-        connection.commit();
+    @Override
+    public Map<Position, BlockData> getBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
+        final UUID world = chunkPosition.world();
+        final Map<Position, BlockData> blocks = new HashMap<>();
+        this.loadBlocksInChunk(chunkPosition, config, (x, y, z, blockData) -> blocks.put(new Position(world, x, y, z), blockData));
+        return blocks;
     }
 
-    private Map<Position, BlockData> getLeafBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
+    /**
+     * Reads all five block tables with one query
+     */
+    @Override
+    public void loadBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config, LoadedBlockConsumer consumer) {
         final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
         final int chunkX = chunkPosition.x();
         final int chunkZ = chunkPosition.z();
-        final Map<Position, BlockData> leafBlocks = new HashMap<>();
-        try (final PreparedStatement statement = connection.prepareStatement(GET_LEAF_BLOCKS_IN_CHUNK_STATEMENT)) {
-            statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
+        // resolved block data by id, one map per block type and flag so variants (waterlogged, stripped, glow berries) are only created once
+        final Map<String, BlockData>[] resolved = newResolvedCache();
+        try (final ReadConnection readConnection = this.getReadConnection();
+             final PreparedStatement statement = readConnection.connection().prepareStatement(GET_BLOCKS_IN_CHUNK_STATEMENT)) {
+            for (int i = 0; i < SET_BLOCK_STATEMENTS.length; i++) {
+                statement.setBytes(i * 3 + 1, worldUUIDBytes);
+                statement.setInt(i * 3 + 2, chunkX);
+                statement.setInt(i * 3 + 3, chunkZ);
+            }
             try (final ResultSet resultSet = statement.executeQuery()) {
                 while (resultSet.next()) {
-                    final int blockX = resultSet.getInt(LEAVES_TABLE_BLOCK_X_COLUMN);
-                    final int blockY = resultSet.getInt(LEAVES_TABLE_BLOCK_Y_COLUMN);
-                    final int blockZ = resultSet.getInt(LEAVES_TABLE_BLOCK_Z_COLUMN);
-                    final String blockID = resultSet.getString(LEAVES_TABLE_BLOCK_ID_COLUMN);
-                    final boolean waterlogged = resultSet.getBoolean(LEAVES_TABLE_WATERLOGGED_COLUMN);
-                    final Position position = new Position(chunkPosition.world(), blockX, blockY, blockZ);
-                    final BlockData blockData = config.getBlockData(blockID);
-                    if (!(blockData instanceof final LeafData leafData)) {
-                        this.plugin.getLogger().warning("Could not find block data for block ID " + blockID + " at position " +
-                                blockX + ", " + blockY + ", " + blockZ + "!");
-                        continue;
-                    }
-                    if (waterlogged) {
-                        leafBlocks.put(position, leafData.waterlog(true));
-                        continue;
+                    final int type = resultSet.getInt(1);
+                    final int blockX = resultSet.getInt(2);
+                    final int blockY = resultSet.getInt(3);
+                    final int blockZ = resultSet.getInt(4);
+                    final String blockID = resultSet.getString(5);
+                    final boolean flag = resultSet.getBoolean(6);
+                    final Map<String, BlockData> cache = resolved[type * 2 + (flag ? 1 : 0)];
+                    BlockData blockData = cache.get(blockID);
+                    if (blockData == null) {
+                        blockData = StoredBlockTypes.resolveBlockData(config.getBlockData(blockID), type, flag);
+                        if (blockData == null) {
+                            this.plugin.getLogger().warning("Could not find block data for block ID " + blockID + " at position " +
+                                    blockX + ", " + blockY + ", " + blockZ + "!");
+                            continue;
+                        }
+                        cache.put(blockID, blockData);
                     }
-                    leafBlocks.put(position, leafData);
+                    consumer.accept(blockX, blockY, blockZ, blockData);
                 }
             }
-            return leafBlocks;
         } catch (SQLException e) {
-            throw new IllegalStateException("Could not get leaf blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
+            throw new IllegalStateException("Could not get blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
         }
     }
 
-    private void saveLogBlocksInChunk(ChunkBlockCache chunkBlockCache) throws SQLException {
-        this.deleteRemovedLogBlocksInChunk(chunkBlockCache);
-        if (chunkBlockCache.getBlockDataMap().isEmpty()) return;
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final ChunkPosition chunkPosition = chunkBlockCache.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        this.connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(SET_LOG_BLOCK_STATEMENT)) {
-            for (var entry : chunkBlockCache.getBlockDataMap().entrySet()) {
-                final Position position = entry.getKey();
-                final BlockData blockData = entry.getValue();
-                if (!blockData.shouldSave()) continue;
-                if (!(blockData instanceof final LogData logData)) continue;
-                final int blockX = position.x();
-                final int blockY = position.y();
-                final int blockZ = position.z();
-                statement.setBytes(1, worldUUIDBytes);
-                statement.setInt(2, chunkX);
-                statement.setInt(3, chunkZ);
-                statement.setInt(4, blockX);
-                statement.setInt(5, blockY);
-                statement.setInt(6, blockZ);
-                statement.setString(7, blockData.id());
-                statement.setBoolean(8, logData.stripped());
-                statement.addBatch();
-            }
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not save log blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
+    @SuppressWarnings("unchecked")
+    private static Map<String, BlockData>[] newResolvedCache() {
+        final Map<String, BlockData>[] resolved = new Map[SET_BLOCK_STATEMENTS.length * 2];
+        for (int i = 0; i < resolved.length; i++) {
+            resolved[i] = new HashMap<>();
         }
-        this.connection.commit();
+        return resolved;
     }
 
-    private void deleteRemovedLogBlocksInChunk(ChunkBlockCache chunkBlockCache) {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final ChunkPosition chunkPosition = chunkBlockCache.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_LOG_BLOCK_STATEMENT)) {
-            chunkBlockCache.clearRemovedPositions(entry -> {
-                try {
-                    final Position position = entry.getKey();
-                    final BlockData blockData = entry.getValue();
-                    if (!(blockData instanceof LogData)) return false;
-                    final int blockX = position.x();
-                    final int blockY = position.y();
-                    final int blockZ = position.z();
-                    statement.setBytes(1, worldUUIDBytes);
-                    statement.setInt(2, blockX);
-                    statement.setInt(3, blockY);
-                    statement.setInt(4, blockZ);
-                    statement.addBatch();
-                    return true;
-                } catch (SQLException e) {
-                    throw new IllegalStateException("Could not delete removed log blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
+    @Override
+    public void saveDefaultDataLayers(UUID worldUUID, LayerBitSet yLayers, ChunkPosition smallChunk) throws SQLException {
+        if (yLayers.isEmpty()) return;
+        final ChunkPosition largeChunk = smallChunk.toLargeChunk();
+        final LayerBitSet layers = this.leafDatabase.addLayers(largeChunk, yLayers);
+        final byte[] worldUUIDBytes = Database.uuidToBytes(worldUUID);
+        synchronized (this.writeLock) {
+            final Connection connection = this.getConnection();
+            if (connection == null) throw new IllegalStateException("Could not connect to database!");
+            connection.setAutoCommit(false);
+            try {
+                // the large chunk's layers may not have been loaded yet, so merge with what is stored instead of replacing it
+                final LayerBitSet stored = this.readDefaultLayers(connection, worldUUIDBytes, largeChunk);
+                if (stored != null) {
+                    layers.addAll(stored);
                 }
-            });
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete removed log blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
+                this.writeDefaultLayers(worldUUIDBytes, largeChunk, layers);
+            } catch (SQLException e) {
+                this.rollback(connection);
+                throw new IllegalStateException("Could not save default data layers!", e);
+            }
+            connection.commit();
         }
     }
 
-    private void deleteLogChunk(ChunkPosition chunkPosition) throws SQLException {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_LOG_CHUNK_STATEMENT)) {
-            statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.executeUpdate();
+    @Override
+    public void loadAllDefaultPossibleLayersInWorld(UUID worldUUID, ChunkPosition smallChunk) {
+        final byte[] worldUUIDBytes = Database.uuidToBytes(worldUUID);
+        final ChunkPosition largeChunk = smallChunk.toLargeChunk();
+        this.leafDatabase.getCurrentlyLoadingChunks().add(largeChunk);
+        final LayerBitSet layers;
+        try (final ReadConnection readConnection = this.getReadConnection()) {
+            layers = this.readDefaultLayers(readConnection.connection(), worldUUIDBytes, largeChunk);
         } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete log chunk " + chunkX + ", " + chunkZ + "!", e);
+            throw new IllegalStateException("Could not get all possible layers in chunk!", e);
+        }
+        if (layers != null) {
+            this.leafDatabase.addLayers(largeChunk, layers);
         }
-        connection.commit();
+        this.leafDatabase.getCurrentlyLoadingChunks().remove(largeChunk);
     }
 
-    private Map<Position, BlockData> getLogBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final Map<Position, BlockData> logBlocks = new HashMap<>();
-        try (final PreparedStatement statement = connection.prepareStatement(GET_LOG_BLOCKS_IN_CHUNK_STATEMENT)) {
+    @Nullable
+    private LayerBitSet readDefaultLayers(Connection connection, byte[] worldUUIDBytes, ChunkPosition largeChunk) throws SQLException {
+        try (final PreparedStatement statement = connection.prepareStatement(GET_DEFAULT_LAYERS_STATEMENT)) {
             statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
+            statement.setInt(2, largeChunk.x());
+            statement.setInt(3, largeChunk.z());
             try (final ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    final int blockX = resultSet.getInt(LOGS_TABLE_BLOCK_X_COLUMN);
-                    final int blockY = resultSet.getInt(LOGS_TABLE_BLOCK_Y_COLUMN);
-                    final int blockZ = resultSet.getInt(LOGS_TABLE_BLOCK_Z_COLUMN);
-                    final String blockID = resultSet.getString(LOGS_TABLE_BLOCK_ID_COLUMN);
-                    final boolean stripped = resultSet.getBoolean(LOGS_TABLE_STRIPPED_COLUMN);
-                    final Position position = new Position(chunkPosition.world(), blockX, blockY, blockZ);
-                    final BlockData blockData = config.getBlockData(blockID);
-                    if (!(blockData instanceof LogData logData)) {
-                        this.plugin.getLogger().warning("Could not find block data for block ID " + blockID + " at position " +
-                                blockX + ", " + blockY + ", " + blockZ + "!");
-                        continue;
-                    }
-                    if (stripped) {
-                        logData = logData.strip();
-                    }
-                    logBlocks.put(position, logData);
-                }
+                if (!resultSet.next()) return null;
+                return LayerBitSet.fromBytes(resultSet.getBytes(DEFAULT_LAYERS_LAYERS_COLUMN));
             }
-            return logBlocks;
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not get log blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
         }
     }
 
-    private void saveSaplingBlocksInChunk(ChunkBlockCache chunk) throws SQLException {
-        this.deleteRemovedSaplingsInChunk(chunk);
-        if (chunk.getBlockDataMap().isEmpty()) return;
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final ChunkPosition chunkPosition = chunk.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        this.connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(SET_SAPLING_BLOCK_STATEMENT)) {
-            for (var entry : chunk.getBlockDataMap().entrySet()) {
-                final Position position = entry.getKey();
-                final int blockX = position.x();
-                final int blockY = position.y();
-                final int blockZ = position.z();
-                final BlockData blockData = entry.getValue();
-                if (!blockData.shouldSave()) continue;
-                if (!(blockData instanceof SaplingData)) continue;
-                final String blockID = blockData.id();
-                statement.setBytes(1, worldUUIDBytes);
-                statement.setInt(2, chunkX);
-                statement.setInt(3, chunkZ);
-                statement.setInt(4, blockX);
-                statement.setInt(5, blockY);
-                statement.setInt(6, blockZ);
-                statement.setString(7, blockID);
-                statement.addBatch();
-            }
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not save saplings in chunk " + chunkX + ", " + chunkZ + "!", e);
-        }
-        this.connection.commit();
+    private void writeDefaultLayers(byte[] worldUUIDBytes, ChunkPosition largeChunk, LayerBitSet layers) throws SQLException {
+        final PreparedStatement statement = this.getWriteStatement(INSERT_DEFAULT_LAYERS_STATEMENT);
+        statement.setBytes(1, worldUUIDBytes);
+        statement.setInt(2, largeChunk.x());
+        statement.setInt(3, largeChunk.z());
+        statement.setBytes(4, layers.toBytes());
+        statement.executeUpdate();
     }
 
-    private void deleteRemovedSaplingsInChunk(ChunkBlockCache chunkBlockCache) {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final ChunkPosition chunkPosition = chunkBlockCache.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_SAPLING_BLOCK_STATEMENT)) {
-            chunkBlockCache.clearRemovedPositions(entry -> {
+    private void migrateLegacyDefaultLayers() {
+        synchronized (this.writeLock) {
+            final Connection connection = this.getConnection();
+            if (connection == null) throw new IllegalStateException("Could not connect to database!");
+            try {
+                try (final PreparedStatement statement = connection.prepareStatement(TABLE_EXISTS_STATEMENT)) {
+                    statement.setString(1, LEGACY_DEFAULT_LAYERS_TABLE_NAME);
+                    try (final ResultSet resultSet = statement.executeQuery()) {
+                        if (!resultSet.next()) return;
+                    }
+                }
+                final Map<ChunkPosition, LayerBitSet> layers = new HashMap<>();
+                try (final PreparedStatement statement = connection.prepareStatement(GET_ALL_LEGACY_DEFAULT_LAYERS_STATEMENT);
+                     final ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        final ChunkPosition largeChunk = new ChunkPosition(
+                                Database.bytesToUUID(resultSet.getBytes(DEFAULT_LAYERS_WORLD_UUID_COLUMN)),
+                                resultSet.getInt(DEFAULT_LAYERS_LARGE_CHUNK_X_COLUMN),
+                                resultSet.getInt(DEFAULT_LAYERS_LARGE_CHUNK_Z_COLUMN)
+                        );
+                        layers.computeIfAbsent(largeChunk, position -> new LayerBitSet())
+                                .add(resultSet.getInt(LEGACY_DEFAULT_LAYERS_Y_COLUMN));
+                    }
+                }
+                connection.setAutoCommit(false);
                 try {
-                    final Position position = entry.getKey();
-                    final BlockData blockData = entry.getValue();
-                    if (!(blockData instanceof SaplingData)) return false;
-                    final int blockX = position.x();
-                    final int blockY = position.y();
-                    final int blockZ = position.z();
-                    statement.setBytes(1, worldUUIDBytes);
-                    statement.setInt(2, blockX);
-                    statement.setInt(3, blockY);
-                    statement.setInt(4, blockZ);
-                    statement.addBatch();
-                    return true;
+                    for (var entry : layers.entrySet()) {
+                        final ChunkPosition largeChunk = entry.getKey();
+                        final byte[] worldUUIDBytes = Database.uuidToBytes(largeChunk.world());
+                        final LayerBitSet stored = this.readDefaultLayers(connection, worldUUIDBytes, largeChunk);
+                        if (stored != null) {
+                            entry.getValue().addAll(stored);
+                        }
+                        this.writeDefaultLayers(worldUUIDBytes, largeChunk, entry.getValue());
+                    }
+                    try (final Statement statement = connection.createStatement()) {
+                        statement.execute(DROP_LEGACY_DEFAULT_LAYERS_TABLE_STATEMENT);
+                    }
+                    connection.commit();
                 } catch (SQLException e) {
-                    throw new IllegalStateException("Could not delete removed saplings in chunk " + chunkX + ", " + chunkZ + "!", e);
+                    this.rollback(connection);
+                    throw e;
                 }
-            });
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete removed saplings in chunk " + chunkX + ", " + chunkZ + "!", e);
+                this.plugin.getLogger().info("Moved default layers of " + layers.size() + " large chunks to " + DEFAULT_LAYERS_TABLE_NAME);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not migrate default data layers!", e);
+            }
         }
     }
 
-    private void deleteSaplingChunk(ChunkPosition chunkPosition) throws SQLException {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
+    /**
+     * Deletes every block row in the chunk as part of the caller's transaction, the caller must hold {@link #writeLock}
+     */
+    protected void deleteBlockRowsInChunk(ChunkPosition chunkPosition) throws SQLException {
         final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_SAPLING_CHUNK_STATEMENT)) {
+        for (String sql : DELETE_CHUNK_STATEMENTS) {
+            final PreparedStatement statement = this.getWriteStatement(sql);
             statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
+            statement.setInt(2, chunkPosition.x());
+            statement.setInt(3, chunkPosition.z());
             statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete sapling chunk " + chunkX + ", " + chunkZ + "!", e);
-        }
-        connection.commit();
-    }
-
-    private Map<Position, BlockData> getSaplingBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final Map<Position, BlockData> saplingBlocks = new HashMap<>();
-        try (final PreparedStatement statement = connection.prepareStatement(GET_SAPLING_BLOCKS_IN_CHUNK_STATEMENT)) {
-            statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            try (final ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    final int blockX = resultSet.getInt(SAPLINGS_TABLE_BLOCK_X_COLUMN);
-                    final int blockY = resultSet.getInt(SAPLINGS_TABLE_BLOCK_Y_COLUMN);
-                    final int blockZ = resultSet.getInt(SAPLINGS_TABLE_BLOCK_Z_COLUMN);
-                    final String blockID = resultSet.getString(SAPLINGS_TABLE_BLOCK_ID_COLUMN);
-                    final Position position = new Position(chunkPosition.world(), blockX, blockY, blockZ);
-                    final BlockData blockData = config.getBlockData(blockID);
-                    if (!(blockData instanceof SaplingData saplingData)) {
-                        this.plugin.getLogger().warning("Could not find block data for block ID " + blockID + " at position " +
-                                blockX + ", " + blockY + ", " + blockZ + "!");
-                        continue;
-                    }
-                    saplingBlocks.put(position, saplingData);
-                }
-            }
-            return saplingBlocks;
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not get sapling blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
         }
     }
 
-    private void saveCaveVineBlocksInChunk(ChunkBlockCache chunk) throws SQLException {
-        this.deleteRemovedCaveVineBlocksInChunk(chunk);
-        if (chunk.getBlockDataMap().isEmpty()) return;
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final ChunkPosition chunkPosition = chunk.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        this.connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(SET_CAVE_VINES_BLOCK_STATEMENT)) {
-            for (var entry : chunk.getBlockDataMap().entrySet()) {
-                final Position position = entry.getKey();
-                final int blockX = position.x();
-                final int blockY = position.y();
-                final int blockZ = position.z();
-                final BlockData blockData = entry.getValue();
-                if (!blockData.shouldSave()) continue;
-                if (!(blockData instanceof final CaveVineData caveVineData)) continue;
-                final String blockID = blockData.id();
-                statement.setBytes(1, worldUUIDBytes);
-                statement.setInt(2, chunkX);
-                statement.setInt(3, chunkZ);
-                statement.setInt(4, blockX);
-                statement.setInt(5, blockY);
-                statement.setInt(6, blockZ);
-                statement.setString(7, blockID);
-                statement.setBoolean(8, caveVineData.glowBerry());
-                statement.addBatch();
-            }
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not save cave vine blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
+    /**
+     * @return true if any of the block tables has a row
+     */
+    protected boolean hasBlockRows(Connection connection) throws SQLException {
+        try (final PreparedStatement statement = connection.prepareStatement(HAS_BLOCK_ROWS_STATEMENT);
+             final ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() && resultSet.getBoolean(1);
         }
-        this.connection.commit();
     }
 
-    private void deleteRemovedCaveVineBlocksInChunk(ChunkBlockCache chunkBlockCache) {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final ChunkPosition chunkPosition = chunkBlockCache.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_CAVE_VINES_BLOCK_STATEMENT)) {
-            chunkBlockCache.clearRemovedPositions(entry -> {
-                try {
-                    final Position position = entry.getKey();
-                    final BlockData blockData = entry.getValue();
-                    if (!(blockData instanceof CaveVineData)) return false;
-                    final int blockX = position.x();
-                    final int blockY = position.y();
-                    final int blockZ = position.z();
-                    statement.setBytes(1, worldUUIDBytes);
-                    statement.setInt(2, blockX);
-                    statement.setInt(3, blockY);
-                    statement.setInt(4, blockZ);
-                    statement.addBatch();
-                    return true;
-                } catch (SQLException e) {
-                    throw new IllegalStateException("Could not delete removed cave vine blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
-                }
-            });
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete removed cave vine blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
-        }
+    /**
+     * Writes one chunk as part of the transaction opened by {@link #saveBlocksInChunks(Collection)}
+     */
+    protected void writeChunk(ChunkBlockCache chunk, Map<Position, BlockData> removedPositions) throws SQLException {
+        this.deleteRemovedBlocksInChunk(chunk.getChunkPosition(), removedPositions);
+        this.insertBlocksInChunk(chunk);
     }
 
-    private void deleteCaveVinesChunk(ChunkPosition chunkPosition) throws SQLException {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
+    /**
+     * Deletes every removed block in one pass, each type going to its own batch
+     */
+    private void deleteRemovedBlocksInChunk(ChunkPosition chunkPosition, Map<Position, BlockData> removedPositions) throws SQLException {
+        if (removedPositions.isEmpty()) return;
         final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_CAVE_VINES_CHUNK_STATEMENT)) {
+        final PreparedStatement[] statements = this.getWriteStatements(DELETE_BLOCK_STATEMENTS);
+        for (var entry : removedPositions.entrySet()) {
+            final int type = StoredBlockTypes.getBlockType(entry.getValue());
+            if (type == -1) continue;
+            final Position position = entry.getKey();
+            final PreparedStatement statement = statements[type];
             statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete cave vines chunk " + chunkX + ", " + chunkZ + "!", e);
+            statement.setInt(2, position.x());
+            statement.setInt(3, position.y());
+            statement.setInt(4, position.z());
+            statement.addBatch();
         }
-        connection.commit();
-    }
-
-    private Map<Position, BlockData> getCaveVineBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final Map<Position, BlockData> caveVineBlocks = new HashMap<>();
-        try (final PreparedStatement statement = connection.prepareStatement(GET_CAVE_VINES_BLOCKS_IN_CHUNK_STATEMENT)) {
-            statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            try (final ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    final int blockX = resultSet.getInt(CAVE_VINES_TABLE_BLOCK_X_COLUMN);
-                    final int blockY = resultSet.getInt(CAVE_VINES_TABLE_BLOCK_Y_COLUMN);
-                    final int blockZ = resultSet.getInt(CAVE_VINES_TABLE_BLOCK_Z_COLUMN);
-                    final String blockID = resultSet.getString(CAVE_VINES_TABLE_BLOCK_ID_COLUMN);
-                    final boolean glowBerry = resultSet.getBoolean(CAVE_VINES_TABLE_HAS_BERRIES_COLUMN);
-                    final Position position = new Position(chunkPosition.world(), blockX, blockY, blockZ);
-                    final BlockData blockData = config.getBlockData(blockID);
-                    if (!(blockData instanceof CaveVineData caveVineData)) {
-                        this.plugin.getLogger().warning("Could not find block data for block ID " + blockID + " at position " +
-                                blockX + ", " + blockY + ", " + blockZ + "!");
-                        continue;
-                    }
-                    caveVineBlocks.put(position, caveVineData.withGlowBerry(glowBerry));
-                }
-            }
-            return caveVineBlocks;
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not get cave vine blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
+        for (PreparedStatement statement : statements) {
+            statement.executeBatch();
         }
     }
 
-    private void saveAgeableBlocksInChunk(ChunkBlockCache chunk) throws SQLException {
-        this.deleteRemovedAgeableBlocksInChunk(chunk);
-        if (chunk.getBlockDataMap().isEmpty()) return;
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
+    /**
+     * Inserts every saved block in one pass, each type going to its own batch
+     */
+    private void insertBlocksInChunk(ChunkBlockCache chunk) throws SQLException {
+        if (chunk.getBlockCount() == 0) return;
         final ChunkPosition chunkPosition = chunk.getChunkPosition();
         final int chunkX = chunkPosition.x();
         final int chunkZ = chunkPosition.z();
+        final int chunkBlockX = chunkX << 4;
+        final int chunkBlockZ = chunkZ << 4;
         final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        this.connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(SET_AGEABLE_BLOCK_STATEMENT)) {
-            for (var entry : chunk.getBlockDataMap().entrySet()) {
-                final Position position = entry.getKey();
-                final int blockX = position.x();
-                final int blockY = position.y();
-                final int blockZ = position.z();
-                final BlockData blockData = entry.getValue();
-                if (!blockData.shouldSave()) continue;
-                if (!(blockData instanceof AgeableData)) continue;
-                final String blockID = blockData.id();
+        final PreparedStatement[] statements = this.getWriteStatements(SET_BLOCK_STATEMENTS);
+        chunk.forEachBlockInSectionOrder((sectionY, index, blockData) -> {
+            if (!blockData.shouldSave()) return;
+            final int type = StoredBlockTypes.getBlockType(blockData);
+            if (type == -1) return;
+            final PreparedStatement statement = statements[type];
+            try {
                 statement.setBytes(1, worldUUIDBytes);
                 statement.setInt(2, chunkX);
                 statement.setInt(3, chunkZ);
-                statement.setInt(4, blockX);
-                statement.setInt(5, blockY);
-                statement.setInt(6, blockZ);
-                statement.setString(7, blockID);
+                statement.setInt(4, chunkBlockX | (index & 15));
+                statement.setInt(5, (sectionY << 4) | (index >> 8));
+                statement.setInt(6, chunkBlockZ | ((index >> 4) & 15));
+                statement.setString(7, blockData.id());
+                if (blockData instanceof final LeafData leafData) {
+                    statement.setBoolean(8, leafData.waterlogged());
+                } else if (blockData instanceof final LogData logData) {
+                    statement.setBoolean(8, logData.stripped());
+                } else if (blockData instanceof final CaveVineData caveVineData) {
+                    statement.setBoolean(8, caveVineData.glowBerry());
+                }
                 statement.addBatch();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not save blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
             }
+        });
+        for (PreparedStatement statement : statements) {
             statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not save ageable blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
         }
-        this.connection.commit();
     }
 
-    private void deleteRemovedAgeableBlocksInChunk(ChunkBlockCache chunkBlockCache) {
+    /**
+     * Statements are prepared once per writer connection and reused, the caller must hold {@link #writeLock}
+     */
+    protected PreparedStatement getWriteStatement(String sql) throws SQLException {
+        final PreparedStatement cached = this.writeStatements.get(sql);
+        if (cached != null) return cached;
         final Connection connection = this.getConnection();
         if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final ChunkPosition chunkPosition = chunkBlockCache.getChunkPosition();
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_AGEABLE_BLOCK_STATEMENT)) {
-            chunkBlockCache.clearRemovedPositions(entry -> {
-                try {
-                    final Position position = entry.getKey();
-                    final BlockData blockData = entry.getValue();
-                    if (!(blockData instanceof AgeableData)) return false;
-                    final int blockX = position.x();
-                    final int blockY = position.y();
-                    final int blockZ = position.z();
-                    statement.setBytes(1, worldUUIDBytes);
-                    statement.setInt(2, blockX);
-                    statement.setInt(3, blockY);
-                    statement.setInt(4, blockZ);
-                    statement.addBatch();
-                    return true;
-                } catch (SQLException e) {
-                    throw new IllegalStateException("Could not delete removed ageable blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
-                }
-            });
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete removed ageable blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
-        }
+        final PreparedStatement statement = connection.prepareStatement(sql);
+        this.writeStatements.put(sql, statement);
+        return statement;
     }
 
-    private void deleteAgeableChunk(ChunkPosition chunkPosition) throws SQLException {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        connection.setAutoCommit(false);
-        try (final PreparedStatement statement = connection.prepareStatement(DELETE_AGEABLE_CHUNK_STATEMENT)) {
-            statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            statement.execute();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Could not delete ageable chunk " + chunkX + ", " + chunkZ + "!", e);
+    private PreparedStatement[] getWriteStatements(String[] sql) throws SQLException {
+        final PreparedStatement[] statements = new PreparedStatement[sql.length];
+        for (int i = 0; i < sql.length; i++) {
+            statements[i] = this.getWriteStatement(sql[i]);
         }
-        connection.commit();
+        return statements;
     }
 
-    private Map<Position, BlockData> getAgeableBlocksInChunk(ChunkPosition chunkPosition, LeavesConfig config) {
-        final Connection connection = this.getConnection();
-        if (connection == null) throw new IllegalStateException("Could not connect to database!");
-        final byte[] worldUUIDBytes = Database.uuidToBytes(chunkPosition.world());
-        final int chunkX = chunkPosition.x();
-        final int chunkZ = chunkPosition.z();
-        final Map<Position, BlockData> ageableBlocks = new HashMap<>();
-        try (final PreparedStatement statement = connection.prepareStatement(GET_AGEABLE_BLOCKS_IN_CHUNK_STATEMENT)) {
-            statement.setBytes(1, worldUUIDBytes);
-            statement.setInt(2, chunkX);
-            statement.setInt(3, chunkZ);
-            try (final ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    final int blockX = resultSet.getInt(AGEABLE_TABLE_BLOCK_X_COLUMN);
-                    final int blockY = resultSet.getInt(AGEABLE_TABLE_BLOCK_Y_COLUMN);
-                    final int blockZ = resultSet.getInt(AGEABLE_TABLE_BLOCK_Z_COLUMN);
-                    final String blockID = resultSet.getString(AGEABLE_TABLE_BLOCK_ID_COLUMN);
-                    final Position position = new Position(chunkPosition.world(), blockX, blockY, blockZ);
-                    final BlockData blockData = config.getBlockData(blockID);
-                    if (!(blockData instanceof AgeableData ageableData)) {
-                        this.plugin.getLogger().warning("Could not find block data for block ID " + blockID + " at position " +
-                                blockX + ", " + blockY + ", " + blockZ + "!");
-                        continue;
-                    }
-                    ageableBlocks.put(position, ageableData);
-                }
+    /**
+     * Drops anything batched by a failed transaction so it isn't executed with the next one,
+     * the caller must hold {@link #writeLock}
+     */
+    protected void clearWriteBatches() {
+        for (PreparedStatement statement : this.writeStatements.values()) {
+            try {
+                statement.clearBatch();
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-            return ageableBlocks;
+        }
+    }
+
+    protected void rollback(Connection connection) {
+        try {
+            connection.rollback();
         } catch (SQLException e) {
-            throw new IllegalStateException("Could not get ageable blocks in chunk " + chunkX + ", " + chunkZ + "!", e);
+            e.printStackTrace();
         }
     }
 
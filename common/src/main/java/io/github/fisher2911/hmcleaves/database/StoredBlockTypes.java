@@ -0,0 +1,81 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import io.github.fisher2911.hmcleaves.data.AgeableData;
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.data.CaveVineData;
+import io.github.fisher2911.hmcleaves.data.LeafData;
+import io.github.fisher2911.hmcleaves.data.LogData;
+import io.github.fisher2911.hmcleaves.data.SaplingData;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The block types saved by {@link SQLiteDatabase} and {@link ChunkBlobCodec}, each with one flag
+ * (waterlogged, stripped or glow berries) next to the block id
+ */
+final class StoredBlockTypes {
+
+    static final int LEAF_TYPE = 0;
+    static final int LOG_TYPE = 1;
+    static final int SAPLING_TYPE = 2;
+    static final int CAVE_VINE_TYPE = 3;
+    static final int AGEABLE_TYPE = 4;
+
+    private StoredBlockTypes() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the type the block is saved as, or -1 if it is not saved
+     */
+    static int getBlockType(BlockData blockData) {
+        if (blockData instanceof LeafData) return LEAF_TYPE;
+        if (blockData instanceof LogData) return LOG_TYPE;
+        if (blockData instanceof SaplingData) return SAPLING_TYPE;
+        if (blockData instanceof CaveVineData) return CAVE_VINE_TYPE;
+        if (blockData instanceof AgeableData) return AGEABLE_TYPE;
+        return -1;
+    }
+
+    static boolean getFlag(BlockData blockData) {
+        if (blockData instanceof final LeafData leafData) return leafData.waterlogged();
+        if (blockData instanceof final LogData logData) return logData.stripped();
+        if (blockData instanceof final CaveVineData caveVineData) return caveVineData.glowBerry();
+        return false;
+    }
+
+    /**
+     * @return the block data with the flag applied, or null if the id is not a block of that type
+     */
+    @Nullable
+    static BlockData resolveBlockData(@Nullable BlockData blockData, int type, boolean flag) {
+        return switch (type) {
+            case LEAF_TYPE -> blockData instanceof final LeafData leafData ? (flag ? leafData.waterlog(true) : leafData) : null;
+            case LOG_TYPE -> blockData instanceof final LogData logData ? (flag ? logData.strip() : logData) : null;
+            case SAPLING_TYPE -> blockData instanceof SaplingData ? blockData : null;
+            case CAVE_VINE_TYPE -> blockData instanceof final CaveVineData caveVineData ? caveVineData.withGlowBerry(flag) : null;
+            case AGEABLE_TYPE -> blockData instanceof AgeableData ? blockData : null;
+            default -> null;
+        };
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.database;
+
+import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
+import io.github.fisher2911.hmcleaves.debug.DatabaseSaveTraceEvent;
+import io.github.fisher2911.hmcleaves.metrics.LatencyHistogram;
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects chunks that need to be saved and writes them in batches on the database write thread.
+ * A chunk that is queued again before it is written is only saved once.
+ */
+public class WriteBehindQueue {
+
+    private final Database database;
+    private final int batchSize;
+    // insertion ordered so chunks are written roughly in the order they were queued
+    private final Map<ChunkPosition, ChunkBlockCache> pending = new LinkedHashMap<>();
+    // older caches for a position that was queued again with a new cache (unloaded and loaded again),
+    // these have to be written before the newer one
+    private final ArrayDeque<ChunkBlockCache> displaced = new ArrayDeque<>();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong flushedChunks = new AtomicLong();
+    private final LatencyHistogram batchLatency;
+    private boolean flushScheduled;
+    private boolean shutdown;
+
+    public WriteBehindQueue(Database database, int batchSize, LatencyHistogram batchLatency) {
+        this.database = database;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchLatency = batchLatency;
+    }
+
+    public void enqueue(ChunkBlockCache chunk) {
+        synchronized (this) {
+            final ChunkBlockCache previous = this.pending.put(chunk.getChunkPosition(), chunk);
+            if (previous != null && previous != chunk) {
+                this.displaced.add(previous);
+            }
+            if (this.flushScheduled || this.shutdown) return;
+            this.flushScheduled = true;
+        }
+        this.database.doDatabaseWriteAsync(this::flushScheduled);
+    }
+
+    private void flushScheduled() {
+        int requeued = 0;
+        try {
+            requeued = this.flushBatches();
+        } finally {
+            final boolean reschedule;
+            synchronized (this) {
+                // chunks that failed wait for the next enqueue, so a database that keeps failing isn't retried in a loop
+                reschedule = !this.shutdown && this.getQueueDepth() > requeued;
+                this.flushScheduled = reschedule;
+            }
+            if (reschedule) {
+                this.database.doDatabaseWriteAsync(this::flushScheduled);
+            }
+        }
+    }
+
+    /**
+     * Writes everything that is queued on the calling thread, chunks that fail are queued again but not retried by this call
+     */
+    public void flush() {
+        this.flushBatches();
+    }
+
+    /**
+     * @return how many chunks were queued again because they failed
+     */
+    private int flushBatches() {
+        // by position, a newer cache of the same chunk written later in this flush replaces a failed older one
+        final Map<ChunkPosition, ChunkBlockCache> failed = new LinkedHashMap<>();
+        List<ChunkBlockCache> batch;
+        while (!(batch = this.takeBatch()).isEmpty()) {
+            final long start = System.nanoTime();
+            final DatabaseSaveTraceEvent traceEvent = DatabaseSaveTraceEvent.start(this.database.getClass().getSimpleName(), batch.size());
+            List<ChunkBlockCache> batchFailed;
+            try {
+                batchFailed = this.database.saveBlocksInChunks(batch);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                batchFailed = batch;
+            }
+            traceEvent.finish();
+            final long elapsed = System.nanoTime() - start;
+            this.lastFlushNanos.set(elapsed);
+            this.maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+            this.batchLatency.record(elapsed);
+            this.flushedChunks.addAndGet(batch.size() - batchFailed.size());
+            for (ChunkBlockCache chunk : batch) {
+                failed.remove(chunk.getChunkPosition());
+            }
+            for (ChunkBlockCache chunk : batchFailed) {
+                failed.put(chunk.getChunkPosition(), chunk);
+            }
+        }
+        this.requeue(failed.values());
+        return failed.size();
+    }
+
+    /**
+     * Puts chunks that failed back in the queue, before a newer cache of the same chunk if one was queued meanwhile
+     */
+    private synchronized void requeue(Collection<ChunkBlockCache> chunks) {
+        for (ChunkBlockCache chunk : chunks) {
+            final ChunkBlockCache queued = this.pending.putIfAbsent(chunk.getChunkPosition(), chunk);
+            if (queued == null || queued == chunk) continue;
+            this.displaced.add(chunk);
+        }
+    }
+
+    private synchronized List<ChunkBlockCache> takeBatch() {
+        final List<ChunkBlockCache> batch = new ArrayList<>(Math.min(this.batchSize, this.getQueueDepth()));
+        while (batch.size() < this.batchSize && !this.displaced.isEmpty()) {
+            batch.add(this.displaced.poll());
+        }
+        final Iterator<ChunkBlockCache> iterator = this.pending.values().iterator();
+        while (batch.size() < this.batchSize && iterator.hasNext()) {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+        return batch;
+    }
+
+    /**
+     * Stops scheduling flushes on the write thread, anything queued afterwards is only written by {@link #flush()}
+     */
+    public synchronized void shutdown() {
+        this.shutdown = true;
+    }
+
+    public synchronized int getQueueDepth() {
+        return this.pending.size() + this.displaced.size();
+    }
+
+    public long getLastFlushNanos() {
+        return this.lastFlushNanos.get();
+    }
+
+    public long getMaxFlushNanos() {
+        return this.maxFlushNanos.get();
+    }
+
+    public long getFlushedChunkCount() {
+        return this.flushedChunks.get();
+    }
+
+}
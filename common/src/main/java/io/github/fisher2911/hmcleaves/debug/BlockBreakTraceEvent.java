@@ -0,0 +1,68 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.debug;
+
+import io.github.fisher2911.hmcleaves.world.Position;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.github.fisher2911.hmcleaves.BlockBreak")
+@Label("Block Break")
+@Description("A player finished breaking a block with a custom break speed")
+public class BlockBreakTraceEvent extends TraceEvent {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(BlockBreakTraceEvent.class);
+    private static final BlockBreakTraceEvent DISABLED = disabled(new BlockBreakTraceEvent());
+
+    @Label("Player")
+    private String player;
+    @Label("Block")
+    private String blockId;
+    @Label("X")
+    private int x;
+    @Label("Y")
+    private int y;
+    @Label("Z")
+    private int z;
+    @Label("Break Time Ticks")
+    private int breakTimeTicks;
+
+    public static BlockBreakTraceEvent start(String player, String blockId, Position position, int breakTimeTicks) {
+        if (!isTraced(EVENT_TYPE)) return DISABLED;
+        final BlockBreakTraceEvent event = new BlockBreakTraceEvent();
+        event.player = player;
+        event.blockId = blockId;
+        event.x = position.x();
+        event.y = position.y();
+        event.z = position.z();
+        event.breakTimeTicks = breakTimeTicks;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    protected String describe() {
+        return "blockBreak: " + this.player + " -> " + this.blockId + " (" + this.x + ", " + this.y + ", " + this.z + ") -> " + this.breakTimeTicks + " ticks";
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.debug;
+
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.github.fisher2911.hmcleaves.ChunkLoad")
+@Label("Chunk Load")
+@Description("Loading a chunk's saved blocks from the database, or scanning it for default blocks")
+public class ChunkLoadTraceEvent extends TraceEvent {
+
+    public static final String DATABASE = "database";
+    public static final String SCAN = "scan";
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(ChunkLoadTraceEvent.class);
+    private static final ChunkLoadTraceEvent DISABLED = disabled(new ChunkLoadTraceEvent());
+
+    @Label("World")
+    private String world;
+    @Label("Chunk X")
+    private int chunkX;
+    @Label("Chunk Z")
+    private int chunkZ;
+    @Label("Stage")
+    private String stage;
+
+    public static ChunkLoadTraceEvent start(ChunkPosition chunkPosition, String stage) {
+        if (!isTraced(EVENT_TYPE)) return DISABLED;
+        final ChunkLoadTraceEvent event = new ChunkLoadTraceEvent();
+        event.world = chunkPosition.world().toString();
+        event.chunkX = chunkPosition.x();
+        event.chunkZ = chunkPosition.z();
+        event.stage = stage;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    protected String describe() {
+        return "chunkLoad " + this.stage + ": (" + this.chunkX + ", " + this.chunkZ + ")";
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.debug;
+
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.github.fisher2911.hmcleaves.ChunkRewrite")
+@Label("Chunk Packet Rewrite")
+@Description("Writing custom block states into an outgoing chunk packet")
+public class ChunkRewriteTraceEvent extends TraceEvent {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(ChunkRewriteTraceEvent.class);
+    private static final ChunkRewriteTraceEvent DISABLED = disabled(new ChunkRewriteTraceEvent());
+
+    @Label("World")
+    private String world;
+    @Label("Chunk X")
+    private int chunkX;
+    @Label("Chunk Z")
+    private int chunkZ;
+    @Label("Cached Patch Used")
+    private boolean patchHit;
+    @Label("Virtual Default Blocks")
+    private boolean virtualDefaultBlocks;
+
+    public static ChunkRewriteTraceEvent start(ChunkPosition chunkPosition, boolean virtualDefaultBlocks) {
+        if (!isTraced(EVENT_TYPE)) return DISABLED;
+        final ChunkRewriteTraceEvent event = new ChunkRewriteTraceEvent();
+        event.world = chunkPosition.world().toString();
+        event.chunkX = chunkPosition.x();
+        event.chunkZ = chunkPosition.z();
+        event.virtualDefaultBlocks = virtualDefaultBlocks;
+        event.begin();
+        return event;
+    }
+
+    public void setPatchHit(boolean patchHit) {
+        this.patchHit = patchHit;
+    }
+
+    @Override
+    protected String describe() {
+        return "chunkRewrite: (" + this.chunkX + ", " + this.chunkZ + ") -> patchHit=" + this.patchHit;
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.debug;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.github.fisher2911.hmcleaves.DatabaseSave")
+@Label("Database Save Batch")
+@Description("Writing a batch of chunks to the database")
+public class DatabaseSaveTraceEvent extends TraceEvent {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(DatabaseSaveTraceEvent.class);
+    private static final DatabaseSaveTraceEvent DISABLED = disabled(new DatabaseSaveTraceEvent());
+
+    @Label("Database")
+    private String database;
+    @Label("Chunks")
+    private int chunks;
+
+    public static DatabaseSaveTraceEvent start(String database, int chunks) {
+        if (!isTraced(EVENT_TYPE)) return DISABLED;
+        final DatabaseSaveTraceEvent event = new DatabaseSaveTraceEvent();
+        event.database = database;
+        event.chunks = chunks;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    protected String describe() {
+        return "databaseSave: " + this.database + " -> " + this.chunks;
+    }
+
+}
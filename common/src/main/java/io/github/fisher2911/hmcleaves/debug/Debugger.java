@@ -21,7 +21,6 @@
 package io.github.fisher2911.hmcleaves.debug;
 
 import io.github.fisher2911.hmcleaves.HMCLeaves;
-import io.github.fisher2911.hmcleaves.world.ChunkPosition;
 
 import java.io.File;
 import java.nio.charset.StandardCharsets;
@@ -31,7 +30,6 @@ import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -53,47 +51,18 @@ public class Debugger {
         this.debugExecutor = Executors.newSingleThreadExecutor();
     }
 
-    public void logChunkLoadTaskStart(ChunkPosition chunkPos) {
-        if (!this.plugin.debug()) return;
-        this.debug("loadChunkStart: (" + chunkPos.x() + ", " + chunkPos.z() + ")");
+    public boolean isEnabled() {
+        return this.plugin.debug();
     }
 
-    public void logChunkBlockSendStart(ChunkPosition chunkPos) {
-        if (!this.plugin.debug()) return;
-        this.debug("sendChunkStart: (" + chunkPos.x() + ", " + chunkPos.z() + ")");
+    /**
+     * Writes the event to the debug log if debug is enabled in the config
+     */
+    public void log(TraceEvent event) {
+        if (!this.isEnabled()) return;
+        this.debug(event.describe());
     }
 
-    public void logChunkLayersLoad(ChunkPosition chunkPos, int layers) {
-        if (!this.plugin.debug()) return;
-        this.debug("layersLoad: (" + chunkPos.x() + ", " + chunkPos.z() + ") -> " + layers);
-    }
-
-    public void logChunkLoadEnd(ChunkPosition chunkPos, int totalBlocks) {
-        if (!this.plugin.debug()) return;
-        this.debug("loadChunkEnd: (" + chunkPos.x() + ", " + chunkPos.z() + ") -> " + totalBlocks);
-    }
-
-    public void logChunkBlockSendEnd(ChunkPosition chunkPos) {
-        if (!this.plugin.debug()) return;
-        this.debug("sendChunkEnd: (" + chunkPos.x() + ", " + chunkPos.z() + ")");
-    }
-
-    public void logTimeBetweenChunkLoadAndSend(ChunkPosition chunkPosition, LocalDateTime start, LocalDateTime end) {
-        if (!this.plugin.debug()) return;
-        this.debug("timeBetweenChunkLoadAndSend: (" + chunkPosition.x() + ", " + chunkPosition.z() + ") -> " + start.until(end, ChronoUnit.MILLIS) + "ms");
-    }
-
-    public void logMultiBlockSend(ChunkPosition chunkPosition, int playerCount, int blockCount, LocalDateTime time) {
-        if (!this.plugin.debug()) return;
-        this.debug("multiBlockSend: (" + chunkPosition.x() + ", " + chunkPosition.z() + ") -> " + playerCount + " -> " + blockCount + " -> " + TIME_FORMATTER.format(time) + "ms");
-    }
-
-    public void logChunkSend(ChunkPosition chunkPosition, LocalDateTime time) {
-        if (!this.plugin.debug()) return;
-        this.debug("chunkSend: (" + chunkPosition.x() + ", " + chunkPosition.z() + ") -> " + TIME_FORMATTER.format(time) + "ms");
-    }
-
-
     private static final DateTimeFormatter DATE_TIME_FORMATTER_FILE_NAME = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss-SSS");
 
@@ -0,0 +1,62 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.debug;
+
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("io.github.fisher2911.hmcleaves.MultiBlockResend")
+@Label("Multi Block Resend")
+@Description("Sending a chunk's custom blocks to players that already have the chunk")
+public class MultiBlockResendTraceEvent extends TraceEvent {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(MultiBlockResendTraceEvent.class);
+    private static final MultiBlockResendTraceEvent DISABLED = disabled(new MultiBlockResendTraceEvent());
+
+    @Label("Chunk X")
+    private int chunkX;
+    @Label("Chunk Z")
+    private int chunkZ;
+    @Label("Players")
+    private int players;
+    @Label("Blocks")
+    private int blocks;
+
+    public static MultiBlockResendTraceEvent start(ChunkPosition chunkPosition, int players, int blocks) {
+        if (!isTraced(EVENT_TYPE)) return DISABLED;
+        final MultiBlockResendTraceEvent event = new MultiBlockResendTraceEvent();
+        event.chunkX = chunkPosition.x();
+        event.chunkZ = chunkPosition.z();
+        event.players = players;
+        event.blocks = blocks;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    protected String describe() {
+        return "multiBlockResend: (" + this.chunkX + ", " + this.chunkZ + ") -> " + this.players + " -> " + this.blocks;
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.debug;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+/**
+ * Base of the JDK Flight Recorder events, record them with {@code jcmd <pid> JFR.start} and turn them on
+ * or off with the usual JFR settings. Finished events are also written to the debug log when debug is enabled.
+ */
+@Category("HMCLeaves")
+public abstract class TraceEvent extends Event {
+
+    // transient fields aren't recorded
+    private transient boolean disabled;
+
+    /**
+     * Whether a running recording or the debug log wants events of this type, checked before the fields are filled
+     */
+    protected static boolean isTraced(EventType eventType) {
+        return eventType.isEnabled() || Debugger.getInstance().isEnabled();
+    }
+
+    /**
+     * Marks an event that is returned when nothing is tracing, so it can be shared and {@link #finish()} does nothing
+     */
+    protected static <T extends TraceEvent> T disabled(T event) {
+        event.disabled = true;
+        return event;
+    }
+
+    /**
+     * Ends the event, commits it if a recording wants it and passes it to the debug log
+     */
+    public void finish() {
+        if (this.disabled) return;
+        this.end();
+        if (this.shouldCommit()) {
+            this.commit();
+        }
+        Debugger.getInstance().log(this);
+    }
+
+    /**
+     * Only called when the debug log is enabled
+     */
+    protected abstract String describe();
+
+}
@@ -32,11 +32,10 @@ import io.github.fisher2911.hmcleaves.data.LeafData;
 import io.github.fisher2911.hmcleaves.data.LogData;
 import io.github.fisher2911.hmcleaves.data.SaplingData;
 import io.github.fisher2911.hmcleaves.hook.Hooks;
-import io.github.fisher2911.hmcleaves.packet.PacketUtils;
+import io.github.fisher2911.hmcleaves.packet.BlockUpdateBuffer;
 import io.github.fisher2911.hmcleaves.util.ChainedBlockUtil;
 import io.github.fisher2911.hmcleaves.util.LeafDropUtil;
 import io.github.fisher2911.hmcleaves.world.Position;
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.Tag;
@@ -84,7 +83,9 @@ public class LeafAndLogEditListener implements Listener {
         if (!this.leavesConfig.isWorldWhitelisted(block.getWorld())) return;
         final Position position = Position.fromLocation(block.getLocation());
         ChainedBlockUtil.handleBlockBreak(block, this.blockCache, this.leavesConfig);
-        final BlockData blockData = this.blockCache.removeBlockData(position);
+        // read first so virtual default blocks still drop
+        final BlockData blockData = this.blockCache.getBlockData(position);
+        this.blockCache.removeBlockData(position);
         if (blockData == BlockData.EMPTY) return;
         LeafDropUtil.addToDropPositions(this.blockCache, position, blockData);
     }
@@ -136,20 +137,7 @@ public class LeafAndLogEditListener implements Listener {
             return;
         }
         runnables.forEach(Runnable::run);
-        if (adjacent.isEmpty()) {
-            return;
-        }
-        Bukkit.getScheduler().runTaskLaterAsynchronously(this.plugin, () -> {
-            for (var entry : adjacent.entries()) {
-                final AdjacentInfo adjacentInfo = entry.getValue();
-                PacketUtils.sendBlockData(
-                        adjacentInfo.blockData(),
-                        adjacentInfo.relativePosition(),
-                        adjacentInfo.realWorldMaterial(),
-                        Bukkit.getOnlinePlayers()
-                );
-            }
-        }, 1);
+        this.resendAdjacent(adjacent);
     }
 
     //
@@ -192,20 +180,19 @@ public class LeafAndLogEditListener implements Listener {
             return;
         }
         runnables.forEach(Runnable::run);
-        if (adjacent.isEmpty()) {
-            return;
+        this.resendAdjacent(adjacent);
+    }
+
+    // sent with the next tick's block updates, after the server has sent the piston's own changes
+    private void resendAdjacent(Multimap<Position, AdjacentInfo> adjacent) {
+        final BlockUpdateBuffer blockUpdateBuffer = this.plugin.getBlockUpdateBuffer();
+        for (AdjacentInfo adjacentInfo : adjacent.values()) {
+            blockUpdateBuffer.queue(
+                    adjacentInfo.relativePosition(),
+                    adjacentInfo.blockData(),
+                    adjacentInfo.realWorldMaterial()
+            );
         }
-        Bukkit.getScheduler().runTaskLaterAsynchronously(this.plugin, () -> {
-            for (var entry : adjacent.entries()) {
-                final AdjacentInfo adjacentInfo = entry.getValue();
-                PacketUtils.sendBlockData(
-                        adjacentInfo.blockData(),
-                        adjacentInfo.relativePosition(),
-                        adjacentInfo.realWorldMaterial(),
-                        Bukkit.getOnlinePlayers()
-                );
-            }
-        }, 1);
     }
 
     private static final Set<BlockFace> ADJACENT_FACES = Set.of(
@@ -272,7 +259,8 @@ public class LeafAndLogEditListener implements Listener {
         final Block block = event.getBlock();
         if (!this.leavesConfig.isWorldWhitelisted(block.getWorld())) return;
         final Position position = Position.fromLocation(block.getLocation());
-        final BlockData blockData = this.blockCache.removeBlockData(position);
+        final BlockData blockData = this.blockCache.getBlockData(position);
+        this.blockCache.removeBlockData(position);
         ChainedBlockUtil.handleBlockBreak(block, this.blockCache, this.leavesConfig);
         if (blockData == BlockData.EMPTY) return;
         LeafDropUtil.addToDropPositions(this.blockCache, position, blockData);
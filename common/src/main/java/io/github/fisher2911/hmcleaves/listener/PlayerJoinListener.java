@@ -21,11 +21,14 @@
 package io.github.fisher2911.hmcleaves.listener;
 
 import io.github.fisher2911.hmcleaves.HMCLeaves;
+import org.bukkit.Bukkit;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerQuitEvent;
 
+import java.util.UUID;
+
 public class PlayerJoinListener implements Listener {
 
     private final HMCLeaves plugin;
@@ -37,7 +40,14 @@ public class PlayerJoinListener implements Listener {
     // just in case the player quit is cancelled, forcing the player to stay on the server forever (free player retention)
     @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
     public void onPlayerQuit(PlayerQuitEvent event) {
-        this.plugin.getLeavesPacketListener().removeSentChunks(event.getPlayer().getUniqueId());
+        final UUID playerUUID = event.getPlayer().getUniqueId();
+        this.plugin.getLeavesPacketListener().removeSentChunks(playerUUID);
+        if (!this.plugin.isEnabled()) return;
+        // the player is still online during the event, so chunks sent before they are removed are cleared on the next tick
+        Bukkit.getScheduler().runTask(this.plugin, () -> {
+            if (Bukkit.getPlayer(playerUUID) != null) return;
+            this.plugin.getLeavesPacketListener().removeSentChunks(playerUUID);
+        });
     }
 
 
@@ -28,11 +28,14 @@ import io.github.fisher2911.hmcleaves.packet.PacketUtils;
 import io.github.fisher2911.hmcleaves.world.Position;
 import org.bukkit.Bukkit;
 import org.bukkit.GameEvent;
+import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.world.GenericGameEvent;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 
@@ -51,11 +54,11 @@ public class SoundListener implements Listener {
         final GameEvent gameEvent = event.getEvent();
         if (gameEvent == GameEvent.HIT_GROUND) {
             if (!(event.getEntity() instanceof final Player player)) return;
-            final Position position = Position.fromLocation(event.getLocation().clone().subtract(0, 1, 0));
-            final BlockDataSound sound = this.cache.getBlockData(position).blockDataSound();
+            final BlockDataSound sound = this.getBlockDataSoundBelow(event.getLocation());
             if (sound == null) return;
             final SoundData hitSound = sound.hitSound();
             if (hitSound == null) return;
+            final Position position = Position.fromLocation(event.getLocation().clone().subtract(0, 1, 0));
             Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () ->
                     PacketUtils.sendSound(hitSound, position, List.of(player))
             );
@@ -63,11 +66,11 @@ public class SoundListener implements Listener {
         }
         if (gameEvent == GameEvent.STEP) {
             if (!(event.getEntity() instanceof final Player player)) return;
-            final Position position = Position.fromLocation(event.getLocation().clone().subtract(0, 1, 0));
-            final BlockDataSound sound = this.cache.getBlockData(position).blockDataSound();
+            final BlockDataSound sound = this.getBlockDataSoundBelow(event.getLocation());
             if (sound == null) return;
             final SoundData stepSound = sound.stepSound();
             if (stepSound == null) return;
+            final Position position = Position.fromLocation(event.getLocation().clone().subtract(0, 1, 0));
             Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () ->
                     PacketUtils.sendSound(stepSound, position, List.of(player))
             );
@@ -75,4 +78,16 @@ public class SoundListener implements Listener {
         }
     }
 
+    @Nullable
+    private BlockDataSound getBlockDataSoundBelow(Location location) {
+        final World world = location.getWorld();
+        if (world == null) return null;
+        return this.cache.getBlockData(
+                world.getUID(),
+                location.getBlockX(),
+                location.getBlockY() - 1,
+                location.getBlockZ()
+        ).blockDataSound();
+    }
+
 }
@@ -26,15 +26,25 @@ import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
 import io.github.fisher2911.hmcleaves.cache.WorldBlockCache;
 import io.github.fisher2911.hmcleaves.config.LeavesConfig;
 import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.database.ChunkLoadScheduler;
+import io.github.fisher2911.hmcleaves.database.ChunkPDCDatabase;
 import io.github.fisher2911.hmcleaves.database.Database;
+import io.github.fisher2911.hmcleaves.database.LayerBitSet;
+import io.github.fisher2911.hmcleaves.database.LoadedBlockConsumer;
+import io.github.fisher2911.hmcleaves.debug.ChunkLoadTraceEvent;
+import io.github.fisher2911.hmcleaves.metrics.LatencyHistogram;
+import io.github.fisher2911.hmcleaves.metrics.LeavesMetrics;
+import io.github.fisher2911.hmcleaves.nms.ChunkSections;
+import io.github.fisher2911.hmcleaves.packet.LeavesPacketListener;
 import io.github.fisher2911.hmcleaves.packet.PacketUtils;
+import io.github.fisher2911.hmcleaves.util.LongHashSet;
 import io.github.fisher2911.hmcleaves.world.ChunkPosition;
 import io.github.fisher2911.hmcleaves.world.Position;
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
-import org.bukkit.ChunkSnapshot;
-import org.bukkit.Material;
+import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.world.ChunkLoadEvent;
@@ -42,15 +52,17 @@ import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.event.world.WorldLoadEvent;
 import org.bukkit.event.world.WorldSaveEvent;
 import org.bukkit.event.world.WorldUnloadEvent;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
 import java.util.stream.Collectors;
 
 public class WorldAndChunkLoadListener implements Listener {
@@ -59,12 +71,48 @@ public class WorldAndChunkLoadListener implements Listener {
     private final BlockCache blockCache;
     private final LeavesConfig leavesConfig;
     private final Database leafDatabase;
+    private final ChunkLoadScheduler chunkLoadScheduler;
+    private final LatencyHistogram chunkLoadDatabaseLatency;
+    private final LatencyHistogram chunkLoadScanLatency;
 
     public WorldAndChunkLoadListener(HMCLeaves plugin) {
         this.plugin = plugin;
         this.blockCache = plugin.getBlockCache();
         this.leavesConfig = plugin.getLeavesConfig();
         this.leafDatabase = plugin.getDatabase();
+        this.chunkLoadScheduler = new ChunkLoadScheduler(this.leafDatabase, this::getLoadPriority);
+        this.chunkLoadDatabaseLatency = plugin.getLeavesMetrics().histogram(LeavesMetrics.CHUNK_LOAD_DATABASE);
+        this.chunkLoadScanLatency = plugin.getLeavesMetrics().histogram(LeavesMetrics.CHUNK_LOAD_SCAN);
+    }
+
+    /**
+     * The squared chunk distance to the closest player the chunk was sent to,
+     * or to the closest player in the world if it hasn't been sent yet
+     */
+    private long getLoadPriority(ChunkPosition chunkPosition) {
+        final World world = Bukkit.getWorld(chunkPosition.world());
+        if (world == null) return Long.MAX_VALUE;
+        long closest = Long.MAX_VALUE;
+        final LeavesPacketListener packetListener = this.plugin.getLeavesPacketListener();
+        if (packetListener != null) {
+            for (UUID uuid : packetListener.getPlayersChunkSentTo(chunkPosition)) {
+                final Player player = Bukkit.getPlayer(uuid);
+                if (player == null || player.getWorld() != world) continue;
+                closest = Math.min(closest, this.getChunkDistanceSquared(chunkPosition, player));
+            }
+        }
+        if (closest != Long.MAX_VALUE) return closest;
+        for (Player player : world.getPlayers()) {
+            closest = Math.min(closest, this.getChunkDistanceSquared(chunkPosition, player));
+        }
+        return closest;
+    }
+
+    private long getChunkDistanceSquared(ChunkPosition chunkPosition, Player player) {
+        final Location location = player.getLocation();
+        final long distanceX = chunkPosition.x() - (location.getBlockX() >> 4);
+        final long distanceZ = chunkPosition.z() - (location.getBlockZ() >> 4);
+        return distanceX * distanceX + distanceZ * distanceZ;
     }
 
     public void loadDefaultWorlds() {
@@ -76,6 +124,10 @@ public class WorldAndChunkLoadListener implements Listener {
         }
     }
 
+    public ChunkLoadScheduler getChunkLoadScheduler() {
+        return this.chunkLoadScheduler;
+    }
+
     @EventHandler
     public void onChunkLoad(ChunkLoadEvent event) {
         final World world = event.getWorld();
@@ -88,41 +140,182 @@ public class WorldAndChunkLoadListener implements Listener {
         final World world = chunk.getWorld();
         final UUID worldUUID = world.getUID();
         final ChunkPosition chunkPosition = ChunkPosition.at(worldUUID, chunk.getX(), chunk.getZ());
-        final ChunkSnapshot snapshot = chunk.getChunkSnapshot();
-
+        final int minSectionY = world.getMinHeight() >> 4;
+        // blocks read from the chunk's container are already in the chunk packet, so they aren't sent again
+        final boolean storedBlocksInPacket = this.leafDatabase instanceof ChunkPDCDatabase;
+        if (this.leafDatabase instanceof final ChunkPDCDatabase chunkPDCDatabase) {
+            final ChunkBlockCache existing = this.blockCache.getChunkBlockCache(chunkPosition);
+            final boolean markClean = existing == null || existing.isClean();
+            chunkPDCDatabase.readChunk(
+                    chunk,
+                    (x, y, z, blockData) -> this.blockCache.addBlockData(worldUUID, x, y, z, blockData)
+            );
+            final ChunkBlockCache chunkBlockCache = this.blockCache.getChunkBlockCache(chunkPosition);
+            if (chunkBlockCache != null) {
+                chunkBlockCache.markLoaded();
+                if (markClean) chunkBlockCache.markClean();
+            }
+        }
 
-        this.leafDatabase.doDatabaseReadAsync(() -> {
-            if (!this.leafDatabase.isChunkLoaded(chunkPosition)) {
-                this.loadNewChunkData(snapshot, world);
+        this.chunkLoadScheduler.schedule(chunkPosition, () -> {
+            final ChunkBlockCache chunkBlockCache = this.blockCache.getChunkBlockCache(chunkPosition);
+            final boolean markClean = chunkBlockCache == null || chunkBlockCache.isClean();
+            final long start = System.nanoTime();
+            final ChunkLoadTraceEvent databaseEvent = ChunkLoadTraceEvent.start(chunkPosition, ChunkLoadTraceEvent.DATABASE);
+            if (this.leavesConfig.isVirtualDefaultBlocks()) {
+                final boolean loadedRows = this.loadStoredChunkData(chunkPosition, worldUUID);
+                this.markLoaded(chunkPosition);
+                this.chunkLoadDatabaseLatency.recordSince(start);
+                databaseEvent.finish();
+                if (storedBlocksInPacket && !loadedRows) {
+                    if (markClean) this.markClean(chunkPosition);
+                    return;
+                }
+                // nothing is copied, the few stored blocks are looked up in the world when they are sent
+                this.runWithLoadedChunk(chunkPosition, loadedChunk -> this.sendStoredBlocks(
+                        chunkPosition,
+                        (x, y, z) -> loadedChunk.getBlock(x, y, z).getType(),
+                        markClean
+                ));
                 return;
             }
-            this.loadChunkFromDatabase(ChunkPosition.at(worldUUID, chunk.getX(), chunk.getZ()), snapshot, worldUUID);
+            final AtomicBoolean loadedRows = new AtomicBoolean();
+            final boolean loaded = this.leafDatabase.loadBlocksIfChunkLoaded(
+                    chunkPosition,
+                    this.leavesConfig,
+                    (x, y, z, blockData) -> {
+                        loadedRows.set(true);
+                        this.blockCache.addBlockData(worldUUID, x, y, z, blockData);
+                    }
+            );
+            this.markLoaded(chunkPosition);
+            // rows from the old database aren't in the chunk packet, then every block is sent
+            final LongHashSet scanned = storedBlocksInPacket && !loadedRows.get() ? new LongHashSet() : null;
+            final LayerBitSet layers;
+            final IntPredicate sectionFilter;
+            if (loaded) {
+                if (!this.leafDatabase.isLayerLoaded(chunkPosition)) {
+                    this.leafDatabase.loadAllDefaultPossibleLayersInWorld(worldUUID, chunkPosition);
+                }
+                layers = this.leafDatabase.getPossibleWorldDefaultLayers(chunkPosition);
+                sectionFilter = this.getSectionsToCopy(chunkPosition, layers, minSectionY, scanned == null);
+            } else {
+                layers = null;
+                sectionFilter = sectionIndex -> true;
+            }
+            this.chunkLoadDatabaseLatency.recordSince(start);
+            databaseEvent.finish();
+            // only the sections the scan needs are copied on the main thread, the scan itself runs asynchronously
+            this.runWithLoadedChunk(chunkPosition, loadedChunk -> {
+                final ChunkSections sections = this.plugin.getChunkSectionReader().read(loadedChunk, sectionFilter);
+                final World loadedWorld = loadedChunk.getWorld();
+                Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+                    final long scanStart = System.nanoTime();
+                    final ChunkLoadTraceEvent scanEvent = ChunkLoadTraceEvent.start(chunkPosition, ChunkLoadTraceEvent.SCAN);
+                    if (layers == null) {
+                        this.loadNewChunkData(sections, loadedWorld, scanned);
+                    } else {
+                        this.loadChunkFromDatabase(chunkPosition, sections, layers, worldUUID, markClean, scanned);
+                    }
+                    this.chunkLoadScanLatency.recordSince(scanStart);
+                    scanEvent.finish();
+                });
+            });
+        });
+    }
+
+    /**
+     * A chunk that was loaded before only needs the sections with default layers, and the ones with stored blocks
+     * if they are sent, so their world materials can be read
+     */
+    private IntPredicate getSectionsToCopy(ChunkPosition chunkPosition, LayerBitSet layers, int minSectionY, boolean sendStoredBlocks) {
+        final BitSet sectionIndexes = new BitSet();
+        layers.forEach(y -> sectionIndexes.set((y >> 4) - minSectionY));
+        final ChunkBlockCache chunkBlockCache = this.blockCache.getChunkBlockCache(chunkPosition);
+        if (sendStoredBlocks && chunkBlockCache != null) {
+            chunkBlockCache.forEachBlockInSectionOrder((sectionY, index, blockData) -> sectionIndexes.set(sectionY - minSectionY));
+        }
+        return sectionIndexes::get;
+    }
+
+    /**
+     * Runs the consumer on the main thread if the chunk is still loaded by then
+     */
+    private void runWithLoadedChunk(ChunkPosition chunkPosition, Consumer<Chunk> consumer) {
+        if (!this.plugin.isEnabled()) return;
+        Bukkit.getScheduler().runTask(this.plugin, () -> {
+            final World world = Bukkit.getWorld(chunkPosition.world());
+            if (world == null || !world.isChunkLoaded(chunkPosition.x(), chunkPosition.z())) return;
+            consumer.accept(world.getChunkAt(chunkPosition.x(), chunkPosition.z()));
         });
     }
 
-    private void loadNewChunkData(ChunkSnapshot chunkSnapshot, World world) {
-        final List<Integer> yLevels = new ArrayList<>();
-        final Map<Position, Material> worldMaterials = new HashMap<>();
+    /**
+     * Chunks without a cache yet have nothing saved, a cache created later is merged with the database when it is saved
+     */
+    private void markLoaded(ChunkPosition chunkPosition) {
+        final ChunkBlockCache chunkBlockCache = this.blockCache.getChunkBlockCache(chunkPosition);
+        if (chunkBlockCache == null) return;
+        chunkBlockCache.markLoaded();
+    }
+
+    private void markClean(ChunkPosition chunkPosition) {
+        final ChunkBlockCache chunkBlockCache = this.blockCache.getChunkBlockCache(chunkPosition);
+        if (chunkBlockCache == null) return;
+        chunkBlockCache.markClean();
+    }
+
+    /**
+     * Key of the block for {@link PacketUtils#sendMultiBlockChange(ChunkBlockCache, PacketUtils.BlockTypeLookup, LongPredicate, Collection)},
+     * x and z in the chunk, y in the world
+     */
+    private static long sectionBlockKey(int x, int y, int z) {
+        return PacketUtils.sectionBlockKey(y >> 4, (y & 15) << 8 | z << 4 | x);
+    }
+
+    /**
+     * Every block is sent if nothing was scanned for, otherwise only the scanned ones
+     */
+    private static LongPredicate resendFilter(@Nullable LongHashSet scanned) {
+        if (scanned == null) return sectionBlockKey -> true;
+        return scanned::contains;
+    }
+
+    /**
+     * @param scanned if not null, only the blocks found here are sent to players that already have the chunk
+     */
+    private void loadNewChunkData(ChunkSections chunkSections, World world, @Nullable LongHashSet scanned) {
+        final LayerBitSet yLevels = new LayerBitSet();
+        final UUID worldUUID = world.getUID();
 //        final Map<Position, DataPackTreeData> dataPackReplacements = new HashMap<>();
-        for (int y = world.getMinHeight(); y < world.getMaxHeight(); y++) {
-            int count = 0;
-            for (int x = 0; x < 16; x++) {
-                for (int z = 0; z < 16; z++) {
-                    final org.bukkit.block.data.BlockData bukkitBlockData = chunkSnapshot.getBlockData(x, y, z);
-                    final Position position = Position.at(world.getUID(), chunkSnapshot.getX() * 16 + x, y, chunkSnapshot.getZ() * 16 + z);
-                    if (this.blockCache.getBlockData(position) != BlockData.EMPTY) continue;
-                    final BlockData blockData = this.leavesConfig.getDefaultBlockData(bukkitBlockData);
-                    if (blockData == null) continue;
-                    this.blockCache.addBlockData(position, blockData);
-                    worldMaterials.put(position, bukkitBlockData.getMaterial());
-                    count++;
+        final int minHeight = world.getMinHeight();
+        final int maxHeight = world.getMaxHeight();
+        for (int sectionMinY = minHeight; sectionMinY < maxHeight; sectionMinY += 16) {
+            // skips sections that are only air, or whose palette has nothing that can have default blocks
+            if (!chunkSections.mayHaveDefaultBlocks((sectionMinY - minHeight) >> 4)) continue;
+            final int sectionMaxY = Math.min(sectionMinY + 16, maxHeight);
+            for (int y = sectionMinY; y < sectionMaxY; y++) {
+                int count = 0;
+                for (int x = 0; x < 16; x++) {
+                    for (int z = 0; z < 16; z++) {
+                        if (!this.leavesConfig.mayHaveDefaultBlockData(chunkSections.getBlockType(x, y, z))) continue;
+                        final int blockX = (chunkSections.getX() << 4) + x;
+                        final int blockZ = (chunkSections.getZ() << 4) + z;
+                        if (this.blockCache.getStoredBlockData(worldUUID, blockX, y, blockZ) != BlockData.EMPTY) continue;
+                        final org.bukkit.block.data.BlockData bukkitBlockData = chunkSections.getBlockData(x, y, z);
+                        final BlockData blockData = this.leavesConfig.getDefaultBlockData(bukkitBlockData);
+                        if (blockData == null) continue;
+                        this.blockCache.addBlockData(Position.at(worldUUID, blockX, y, blockZ), blockData);
+                        if (scanned != null) scanned.add(sectionBlockKey(x, y, z));
+                        count++;
+                    }
                 }
+                if (count == 0) continue;
+                yLevels.add(y);
             }
-            if (count == 0) continue;
-            yLevels.add(y);
         }
-        final ChunkPosition chunkPosition = ChunkPosition.at(world.getUID(), chunkSnapshot.getX(), chunkSnapshot.getZ());
-        this.sendBlocksToPlayersAlreadyInChunk(chunkPosition, worldMaterials);
+        final ChunkPosition chunkPosition = ChunkPosition.at(world.getUID(), chunkSections.getX(), chunkSections.getZ());
+        this.sendBlocksToPlayersAlreadyInChunk(chunkPosition, chunkSections::getBlockType, resendFilter(scanned));
         this.leafDatabase.doDatabaseWriteAsync(() -> {
             try {
                 this.leafDatabase.saveDefaultDataLayers(chunkPosition.world(), yLevels, chunkPosition);
@@ -133,55 +326,74 @@ public class WorldAndChunkLoadListener implements Listener {
         });
     }
 
-    private void loadChunkFromDatabase(ChunkPosition chunkPosition, ChunkSnapshot snapshot, UUID worldUUID) {
-        final Map<Position, BlockData> chunkBlocks = this.leafDatabase.getBlocksInChunk(chunkPosition, this.leavesConfig);
-        ChunkBlockCache chunkBlockCache = this.blockCache.getChunkBlockCache(chunkPosition);
-        boolean markClean = chunkBlockCache == null || chunkBlockCache.isClean();
-        chunkBlocks.forEach(this.blockCache::addBlockData);
-        if (!this.leafDatabase.isLayerLoaded(chunkPosition)) {
-            this.leafDatabase.loadAllDefaultPossibleLayersInWorld(worldUUID, chunkPosition);
-        }
-        final Collection<Integer> layers = this.leafDatabase.getPossibleWorldDefaultLayers(chunkPosition);
+    /**
+     * Called after the saved blocks have been added to the cache
+     *
+     * @param scanned if not null, only the blocks found here are sent to players that already have the chunk
+     */
+    private void loadChunkFromDatabase(
+            ChunkPosition chunkPosition,
+            ChunkSections sections,
+            LayerBitSet layers,
+            UUID worldUUID,
+            boolean markClean,
+            @Nullable LongHashSet scanned
+    ) {
         if (!this.plugin.isEnabled()) return;
-        final Map<Position, Material> worldMaterials = new HashMap<>();
-        for (int y : layers) {
+        layers.forEach(y -> {
             for (int x = 0; x < 16; x++) {
                 for (int z = 0; z < 16; z++) {
-                    final Position position = Position.at(chunkPosition.world(), chunkPosition.x() * 16 + x, y, chunkPosition.z() * 16 + z);
-                    final BlockData current = this.blockCache.getBlockData(position);
+                    if (!this.leavesConfig.mayHaveDefaultBlockData(sections.getBlockType(x, y, z))) continue;
+                    final int blockX = (chunkPosition.x() << 4) + x;
+                    final int blockZ = (chunkPosition.z() << 4) + z;
+                    final BlockData current = this.blockCache.getStoredBlockData(worldUUID, blockX, y, blockZ);
                     if (current != BlockData.EMPTY) continue;
-                    final org.bukkit.block.data.BlockData bukkitBlockData = snapshot.getBlockData(x, y, z);
+                    final org.bukkit.block.data.BlockData bukkitBlockData = sections.getBlockData(x, y, z);
                     final BlockData blockData = this.leavesConfig.getDefaultBlockData(bukkitBlockData);
                     if (blockData == null) continue;
-                    this.blockCache.addBlockData(position, blockData);
-                    worldMaterials.put(position, bukkitBlockData.getMaterial());
+                    this.blockCache.addBlockData(Position.at(worldUUID, blockX, y, blockZ), blockData);
+                    if (scanned != null) scanned.add(sectionBlockKey(x, y, z));
                 }
             }
+        });
+        if (markClean) this.markClean(chunkPosition);
+        this.sendBlocksToPlayersAlreadyInChunk(chunkPosition, sections::getBlockType, resendFilter(scanned));
+    }
+
+    /**
+     * Used with virtual default blocks, only the saved blocks are loaded and default blocks
+     * are worked out from the world when they are needed, so the chunk isn't scanned
+     */
+    private boolean loadStoredChunkData(ChunkPosition chunkPosition, UUID worldUUID) {
+        final AtomicBoolean loadedRows = new AtomicBoolean();
+        final LoadedBlockConsumer consumer = (x, y, z, blockData) -> {
+            loadedRows.set(true);
+            this.blockCache.addBlockData(worldUUID, x, y, z, blockData);
+        };
+        // the chunk is never marked as loaded here, so turning virtual default blocks off scans it like a new chunk
+        if (!this.leafDatabase.loadBlocksIfChunkLoaded(chunkPosition, this.leavesConfig, consumer)) {
+            this.leafDatabase.loadBlocksInChunk(chunkPosition, this.leavesConfig, consumer);
         }
-        chunkBlockCache = this.blockCache.getChunkBlockCache(chunkPosition);
-        if (chunkBlockCache == null) return;
-        for (var entry : chunkBlockCache.getBlockDataMap().entrySet()) {
-            final Position position = entry.getKey();
-            final int positionInChunkX = position.x() & 15;
-            final int positionInChunkZ = position.z() & 15;
-            final Material material = snapshot.getBlockData(positionInChunkX, position.y(), positionInChunkZ).getMaterial();
-            worldMaterials.put(position, material);
-        }
-        this.sendBlocksToPlayersAlreadyInChunk(chunkPosition, worldMaterials);
-        if (!markClean) return;
-        chunkBlockCache.markClean();
+        return loadedRows.get();
     }
 
-    private void sendBlocksToPlayersAlreadyInChunk(ChunkPosition chunkPosition, Map<Position, Material> worldMaterials) {
+    private void sendStoredBlocks(ChunkPosition chunkPosition, PacketUtils.BlockTypeLookup worldTypes, boolean markClean) {
+        if (markClean) this.markClean(chunkPosition);
+        this.sendBlocksToPlayersAlreadyInChunk(chunkPosition, worldTypes, resendFilter(null));
+    }
+
+    private void sendBlocksToPlayersAlreadyInChunk(ChunkPosition chunkPosition, PacketUtils.BlockTypeLookup worldTypes, LongPredicate filter) {
         if (!this.plugin.isEnabled()) return;
+        // nothing is built when no one has the chunk yet, the chunk packet will have the blocks
+        final Collection<UUID> viewers = this.plugin.getLeavesPacketListener().getPlayersChunkSentTo(chunkPosition);
+        if (viewers.isEmpty()) return;
         final ChunkBlockCache chunkBlockCache = this.blockCache.getChunkBlockCache(chunkPosition);
         if (chunkBlockCache == null) return;
         PacketUtils.sendMultiBlockChange(
-                chunkBlockCache.getChunkPosition(),
-                chunkBlockCache.getBlockDataMap(),
-                worldMaterials,
-                this.plugin.getLeavesPacketListener().getPlayersChunkSentTo(chunkPosition)
-                        .stream()
+                chunkBlockCache,
+                worldTypes,
+                filter,
+                viewers.stream()
                         .map(Bukkit::getPlayer)
                         .filter(Objects::nonNull)
                         .collect(Collectors.toList())
@@ -195,10 +407,16 @@ public class WorldAndChunkLoadListener implements Listener {
         final UUID worldUUID = world.getUID();
         final Chunk chunk = event.getChunk();
         final ChunkPosition chunkPosition = ChunkPosition.at(worldUUID, chunk.getX(), chunk.getZ());
+        this.chunkLoadScheduler.cancel(chunkPosition);
+        this.plugin.getLeavesPacketListener().getChunkPatchCache().invalidate(chunkPosition);
         final ChunkBlockCache chunkBlockCache = this.blockCache.removeChunkBlockCache(chunkPosition);
+        if (this.leafDatabase instanceof final ChunkPDCDatabase chunkPDCDatabase) {
+            chunkPDCDatabase.unloadChunk(chunk, chunkBlockCache);
+            return;
+        }
         if (chunkBlockCache == null) return;
         if (chunkBlockCache.isClean()) return;
-        this.leafDatabase.doDatabaseWriteAsync(() -> this.leafDatabase.saveBlocksInChunk(chunkBlockCache));
+        this.plugin.getWriteBehindQueue().enqueue(chunkBlockCache);
     }
 
     @EventHandler
@@ -216,11 +434,16 @@ public class WorldAndChunkLoadListener implements Listener {
         final World world = event.getWorld();
         if (!this.leavesConfig.isWorldWhitelisted(world)) return;
         final UUID worldUUID = world.getUID();
+        this.chunkLoadScheduler.cancelWorld(worldUUID);
+        this.plugin.getLeavesPacketListener().getChunkPatchCache().invalidateWorld(worldUUID);
+        if (this.leafDatabase instanceof final ChunkPDCDatabase chunkPDCDatabase) {
+            chunkPDCDatabase.unloadWorld(world);
+        }
         final WorldBlockCache worldBlockCache = this.blockCache.getWorldBlockCache(worldUUID);
         if (worldBlockCache == null) return;
         worldBlockCache.clearAll(chunkBlockCache -> {
                     if (chunkBlockCache.isClean()) return;
-                    this.leafDatabase.doDatabaseWriteAsync(() -> this.leafDatabase.saveBlocksInChunk(chunkBlockCache));
+                    this.plugin.getWriteBehindQueue().enqueue(chunkBlockCache);
                 }
         );
     }
@@ -229,13 +452,17 @@ public class WorldAndChunkLoadListener implements Listener {
     public void onWorldSave(WorldSaveEvent event) {
         final World world = event.getWorld();
         if (!this.leavesConfig.isWorldWhitelisted(world)) return;
+        if (this.leafDatabase instanceof final ChunkPDCDatabase chunkPDCDatabase) {
+            chunkPDCDatabase.saveWorld(world);
+            return;
+        }
         final UUID worldUUID = world.getUID();
         final WorldBlockCache worldBlockCache = this.blockCache.getWorldBlockCache(worldUUID);
         if (worldBlockCache == null) return;
         for (var entry : worldBlockCache.getBlockCacheMap().entrySet()) {
             final ChunkBlockCache chunkBlockCache = entry.getValue();
             if (chunkBlockCache.isClean()) continue;
-            this.leafDatabase.doDatabaseWriteAsync(() -> this.leafDatabase.saveBlocksInChunk(chunkBlockCache));
+            this.plugin.getWriteBehindQueue().enqueue(chunkBlockCache);
         }
     }
 
@@ -0,0 +1,191 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counters and latency histograms are updated without locking, gauges are only read when a report is made
+ */
+public class LeavesMetrics {
+
+    public static final String CHUNK_LOAD_DATABASE = "chunk_load_database";
+    public static final String CHUNK_LOAD_SCAN = "chunk_load_scan";
+    public static final String CHUNK_PACKET_REWRITE = "chunk_packet_rewrite";
+    public static final String BLOCK_CHANGE = "block_change";
+    public static final String MULTI_BLOCK_CHANGE = "multi_block_change";
+    public static final String DATABASE_SAVE_BATCH = "database_save_batch";
+
+    public static final String CHUNK_PATCH_HITS = "chunk_patch_hits";
+    public static final String BLOCK_CHANGES_REWRITTEN = "block_changes_rewritten";
+
+    public static final String DATABASE_READ_QUEUE = "database_read_queue";
+    public static final String CHUNK_LOAD_BACKLOG = "chunk_load_backlog";
+    public static final String DATABASE_WRITE_QUEUE = "database_write_queue";
+    public static final String CACHED_BLOCKS = "cached_blocks";
+
+    private static final DateTimeFormatter FILE_NAME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, Supplier<Map<String, Long>>> gaugeGroups = new ConcurrentSkipListMap<>();
+
+    /**
+     * Callers on hot paths should keep the returned histogram instead of looking it up each time
+     */
+    public LatencyHistogram histogram(String name) {
+        return this.histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String name) {
+        return this.counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public void registerGauge(String name, LongSupplier gauge) {
+        this.gauges.put(name, gauge);
+    }
+
+    /**
+     * For values that are split up by something that can change, like the worlds that are loaded
+     */
+    public void registerGaugeGroup(String name, Supplier<Map<String, Long>> group) {
+        this.gaugeGroups.put(name, group);
+    }
+
+    public List<String> toText() {
+        final List<String> lines = new ArrayList<>();
+        lines.add("Counters:");
+        this.counters.forEach((name, counter) -> lines.add("  " + name + ": " + counter.sum()));
+        lines.add("Gauges:");
+        this.gauges.forEach((name, gauge) -> lines.add("  " + name + ": " + gauge.getAsLong()));
+        this.gaugeGroups.forEach((name, group) -> {
+            lines.add("  " + name + ":");
+            group.get().forEach((key, value) -> lines.add("    " + key + ": " + value));
+        });
+        lines.add("Latencies (ms):");
+        this.histograms.forEach((name, histogram) -> {
+            final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            lines.add("  " + name + ": count=" + snapshot.count() +
+                    " mean=" + toMillis(snapshot.meanNanos()) +
+                    " p50=" + toMillis(snapshot.p50Nanos()) +
+                    " p90=" + toMillis(snapshot.p90Nanos()) +
+                    " p99=" + toMillis(snapshot.p99Nanos()) +
+                    " max=" + toMillis(snapshot.maxNanos())
+            );
+        });
+        return lines;
+    }
+
+    public String toJson() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"time\":\"").append(LocalDateTime.now()).append("\",\"counters\":{");
+        appendEntries(builder, this.counters, LongAdder::sum);
+        builder.append("},\"gauges\":{");
+        appendEntries(builder, this.gauges, LongSupplier::getAsLong);
+        for (var entry : this.gaugeGroups.entrySet()) {
+            if (builder.charAt(builder.length() - 1) != '{') builder.append(',');
+            appendString(builder, entry.getKey());
+            builder.append(":{");
+            appendEntries(builder, entry.getValue().get(), Long::longValue);
+            builder.append('}');
+        }
+        builder.append("},\"latencies\":{");
+        boolean first = true;
+        for (var entry : this.histograms.entrySet()) {
+            if (!first) builder.append(',');
+            first = false;
+            final LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            appendString(builder, entry.getKey());
+            builder.append(":{\"count\":").append(snapshot.count())
+                    .append(",\"mean_ns\":").append(snapshot.meanNanos())
+                    .append(",\"p50_ns\":").append(snapshot.p50Nanos())
+                    .append(",\"p90_ns\":").append(snapshot.p90Nanos())
+                    .append(",\"p99_ns\":").append(snapshot.p99Nanos())
+                    .append(",\"max_ns\":").append(snapshot.maxNanos())
+                    .append('}');
+        }
+        return builder.append("}}").toString();
+    }
+
+    /**
+     * Appends a report to the day's file in the folder
+     */
+    public void dump(Path folder, MetricsFormat format) throws IOException {
+        Files.createDirectories(folder);
+        final String fileName = FILE_NAME_FORMATTER.format(LocalDateTime.now());
+        final String report = switch (format) {
+            case TEXT -> "[" + LocalDateTime.now() + "]\n" + String.join("\n", this.toText()) + "\n";
+            case JSON -> this.toJson() + "\n";
+        };
+        Files.writeString(
+                folder.resolve(fileName + (format == MetricsFormat.JSON ? ".jsonl" : ".txt")),
+                report,
+                StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND
+        );
+    }
+
+    private static <T> void appendEntries(StringBuilder builder, Map<String, T> map, ToLongFunction<T> toLong) {
+        boolean first = true;
+        for (var entry : map.entrySet()) {
+            if (!first) builder.append(',');
+            first = false;
+            appendString(builder, entry.getKey());
+            builder.append(':').append(toLong.applyAsLong(entry.getValue()));
+        }
+    }
+
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') builder.append('\\');
+            if (c < ' ') {
+                builder.append(String.format("\\u%04x", (int) c));
+                continue;
+            }
+            builder.append(c);
+        }
+        builder.append('"');
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / NANOS_PER_MILLI);
+    }
+
+}
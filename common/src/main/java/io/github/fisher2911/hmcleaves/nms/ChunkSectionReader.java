@@ -0,0 +1,50 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.nms;
+
+import io.github.fisher2911.hmcleaves.config.LeavesConfig;
+import org.bukkit.Chunk;
+
+import java.util.function.IntPredicate;
+
+public abstract class ChunkSectionReader {
+
+    protected final LeavesConfig config;
+
+    public ChunkSectionReader(LeavesConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Has to be called on the main thread, the returned sections can be read from any thread
+     */
+    public ChunkSections read(Chunk chunk) {
+        return this.read(chunk, sectionIndex -> true);
+    }
+
+    /**
+     * Like {@link #read(Chunk)}, but only sections the filter accepts have to be copied, the rest may read as empty
+     *
+     * @param sectionFilter tested with the index of the section counted from the bottom of the world
+     */
+    public abstract ChunkSections read(Chunk chunk, IntPredicate sectionFilter);
+
+}
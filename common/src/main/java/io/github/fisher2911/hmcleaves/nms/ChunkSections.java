@@ -0,0 +1,51 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.nms;
+
+import org.bukkit.Material;
+import org.bukkit.block.data.BlockData;
+
+/**
+ * Block states of a chunk copied on the main thread, safe to read from any thread.
+ * Coordinates are the same as {@link org.bukkit.ChunkSnapshot}, x and z in the chunk and y in the world.
+ */
+public interface ChunkSections {
+
+    int getX();
+
+    int getZ();
+
+    /**
+     * @param sectionIndex the index of the section counted from the bottom of the world
+     */
+    boolean isSectionEmpty(int sectionIndex);
+
+    /**
+     * @param sectionIndex the index of the section counted from the bottom of the world
+     * @return false only if no block in the section can have default block data
+     */
+    boolean mayHaveDefaultBlocks(int sectionIndex);
+
+    Material getBlockType(int x, int y, int z);
+
+    BlockData getBlockData(int x, int y, int z);
+
+}
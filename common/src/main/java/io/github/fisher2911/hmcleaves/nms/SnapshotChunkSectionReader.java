@@ -0,0 +1,82 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.nms;
+
+import io.github.fisher2911.hmcleaves.config.LeavesConfig;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.block.data.BlockData;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Used when there is no reader for the server version, copies the whole chunk with {@link Chunk#getChunkSnapshot()}
+ */
+public class SnapshotChunkSectionReader extends ChunkSectionReader {
+
+    public SnapshotChunkSectionReader(LeavesConfig config) {
+        super(config);
+    }
+
+    /**
+     * A snapshot always holds the whole chunk, so the filter is ignored
+     */
+    @Override
+    public ChunkSections read(Chunk chunk, IntPredicate sectionFilter) {
+        return new SnapshotChunkSections(chunk.getChunkSnapshot());
+    }
+
+    private record SnapshotChunkSections(ChunkSnapshot snapshot) implements ChunkSections {
+
+        @Override
+        public int getX() {
+            return this.snapshot.getX();
+        }
+
+        @Override
+        public int getZ() {
+            return this.snapshot.getZ();
+        }
+
+        @Override
+        public boolean isSectionEmpty(int sectionIndex) {
+            return this.snapshot.isSectionEmpty(sectionIndex);
+        }
+
+        @Override
+        public boolean mayHaveDefaultBlocks(int sectionIndex) {
+            return !this.snapshot.isSectionEmpty(sectionIndex);
+        }
+
+        @Override
+        public Material getBlockType(int x, int y, int z) {
+            return this.snapshot.getBlockType(x, y, z);
+        }
+
+        @Override
+        public BlockData getBlockData(int x, int y, int z) {
+            return this.snapshot.getBlockData(x, y, z);
+        }
+
+    }
+
+}
@@ -27,9 +27,11 @@ import io.github.fisher2911.hmcleaves.config.LeavesConfig;
 import io.github.fisher2911.hmcleaves.data.BlockData;
 import io.github.fisher2911.hmcleaves.data.LogData;
 import io.github.fisher2911.hmcleaves.data.MineableData;
+import io.github.fisher2911.hmcleaves.debug.BlockBreakTraceEvent;
 import io.github.fisher2911.hmcleaves.util.ItemUtil;
 import io.github.fisher2911.hmcleaves.world.Position;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -38,14 +40,19 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.potion.PotionEffect;
 import org.bukkit.potion.PotionEffectType;
-import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SplittableRandom;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Supplier;
 
 public class BlockBreakManager {
@@ -56,7 +63,11 @@ public class BlockBreakManager {
     private final BlockCache blockCache;
     private final LeavesConfig leavesConfig;
     private final Map<UUID, BlockBreakData> blockBreakDataMap;
-
+    // breaks are started from the netty threads and picked up by the next tick
+    private final Queue<BlockBreakData> startedBreaks = new ConcurrentLinkedQueue<>();
+    // only used on the main thread
+    private BlockBreakData[] activeBreaks = new BlockBreakData[16];
+    private int activeBreakCount;
 
     public BlockBreakManager(Map<UUID, BlockBreakData> blockBreakDataMap, HMCLeaves plugin) {
         this.blockBreakDataMap = blockBreakDataMap;
@@ -77,6 +88,8 @@ public class BlockBreakManager {
             Set.of(BlockBreakModifier.ToolType.AXE),
             Set.of()
     );
+    // same distance the server sends block break animations to
+    private static final int ANIMATION_VIEW_DISTANCE_SQUARED = 32 * 32;
 
     public <T extends MineableData & BlockData> void startBlockBreak(Player player, Position position, T mineableData) {
         if (mineableData.blockBreakModifier() == null) return;
@@ -91,90 +104,157 @@ public class BlockBreakManager {
                 player,
                 position,
                 blockBreakTime,
-                0,
-                this.createScheduler(blockBreakTime, player.getUniqueId())
+                0
         );
-        this.blockBreakDataMap.put(player.getUniqueId(), blockBreakData);
+        final BlockBreakData previous = this.blockBreakDataMap.put(player.getUniqueId(), blockBreakData);
+        if (previous != null) {
+            previous.cancel();
+        }
+        this.startedBreaks.add(blockBreakData);
     }
 
     public void cancelBlockBreak(Player player) {
-        final BlockBreakData blockBreakData = this.blockBreakDataMap.get(player.getUniqueId());
+        final BlockBreakData blockBreakData = this.blockBreakDataMap.remove(player.getUniqueId());
         if (blockBreakData == null) {
             return;
         }
-        PacketUtils.sendBlockBreakAnimation(player, blockBreakData.getPosition().toLocation(), blockBreakData.getEntityId(), (byte) -1);
-        blockBreakData.getBreakTask().cancel();
-        this.blockBreakDataMap.remove(player.getUniqueId());
+        // the animation is cleared on the next tick
+        blockBreakData.cancel();
+    }
+
+    /**
+     * Makes the break speed of the player's current break be calculated again on the next tick,
+     * for changes that aren't checked every tick such as potion effects
+     */
+    public void markConditionsChanged(UUID uuid) {
+        final BlockBreakData blockBreakData = this.blockBreakDataMap.get(uuid);
+        if (blockBreakData == null) return;
+        blockBreakData.markConditionsChanged();
+    }
+
+    /**
+     * Advances every active block break, called once a tick on the main thread
+     */
+    public void tick() {
+        BlockBreakData started;
+        while ((started = this.startedBreaks.poll()) != null) {
+            if (this.activeBreakCount == this.activeBreaks.length) {
+                this.activeBreaks = Arrays.copyOf(this.activeBreaks, this.activeBreaks.length * 2);
+            }
+            this.activeBreaks[this.activeBreakCount++] = started;
+        }
+        int i = 0;
+        while (i < this.activeBreakCount) {
+            if (this.tickBreak(this.activeBreaks[i])) {
+                i++;
+                continue;
+            }
+            this.activeBreaks[i] = this.activeBreaks[--this.activeBreakCount];
+            this.activeBreaks[this.activeBreakCount] = null;
+        }
+    }
+
+    /**
+     * @return false if the break is over and should no longer be ticked
+     */
+    private boolean tickBreak(BlockBreakData blockBreakData) {
+        final Player player = blockBreakData.getBreaker();
+        final Block block = blockBreakData.getBlock();
+        if (blockBreakData.isCancelled() || block == null || !player.isOnline()) {
+            this.blockBreakDataMap.remove(player.getUniqueId(), blockBreakData);
+            if (block != null && blockBreakData.getSentDamage() != -1) {
+                this.sendAnimation(blockBreakData, (byte) -1);
+            }
+            return false;
+        }
+        if (blockBreakData.isBroken()) {
+            this.breakBlock(blockBreakData, block);
+            return !blockBreakData.isCancelled();
+        }
+        if (blockBreakData.updateConditions()) {
+            final int updatedBlockBreakTime = this.calculateBlockBreakTimeInTicks(
+                    player,
+                    player.getInventory().getItemInMainHand(),
+                    blockBreakData.getBlockData().blockBreakModifier()
+            );
+            blockBreakData.setProgressPerTick((double) blockBreakData.getTotalBreakTime() / updatedBlockBreakTime);
+        }
+        blockBreakData.addBreakTimeProgress(blockBreakData.getProgressPerTick());
+        final byte damage = blockBreakData.calculateDamage();
+        if (damage != blockBreakData.getSentDamage()) {
+            this.sendAnimation(blockBreakData, damage);
+        }
+        return true;
     }
 
-    private BukkitTask createScheduler(int blockBreakTime, UUID uuid) {
-        return Bukkit.getScheduler().runTaskTimer(this.plugin,
-                () -> {
-                    final BlockBreakData blockBreakData = BlockBreakManager.this.blockBreakDataMap.get(uuid);
-                    if (blockBreakData == null) {
-                        return;
-                    }
-                    final Player player = blockBreakData.getBreaker();
-                    if (blockBreakData.isBroken()) {
-                        final Block block = blockBreakData.getPosition().toLocation().getBlock();
-                        final HMCLeavesBlockDataBreakEvent event = new HMCLeavesBlockDataBreakEvent(block, player, blockBreakData.getBlockData());
-                        Bukkit.getPluginManager().callEvent(event);
-                        if (event.isCancelled()) {
-                            blockBreakData.resetProgress();
-                            return;
-                        }
-                        Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> {
-                            PacketUtils.sendBlockBreakAnimation(
-                                    blockBreakData.getBreaker(),
-                                    blockBreakData.getPosition().toLocation(),
-                                    blockBreakData.getEntityId(),
-                                    (byte) -1
-                            );
-                            PacketUtils.sendBlockBroken(
-                                    player,
-                                    blockBreakData.getPosition(),
-                                    blockBreakData.getBlockData().sendBlockId()
-                            );
-                        });
-                        BlockBreakManager.this.blockCache.removeBlockData(blockBreakData.getPosition());
-                        block.setType(Material.AIR);
-                        Supplier<ItemStack> itemStackSupplier = null;
-                        final BlockBreakModifier blockBreakModifier = blockBreakData.getBlockData().blockBreakModifier();
-                        final ItemStack heldItem = blockBreakData.getBreaker().getInventory().getItemInMainHand();
-                        if (blockBreakModifier.hasEnchantment(heldItem) && !blockBreakModifier.requiresToolToDrop() || blockBreakModifier.hasToolType(heldItem.getType())) {
-                            if (blockBreakData.getBlockData() instanceof final LogData logData) {
-                                itemStackSupplier = BlockBreakManager.this.leavesConfig.getItemSupplier(logData.getCurrentId());
-                            } else {
-                                itemStackSupplier = BlockBreakManager.this.leavesConfig.getItemSupplier(blockBreakData.getBlockData().id());
-                            }
-                            if (itemStackSupplier == null) {
-                                itemStackSupplier = () -> new ItemStack(blockBreakData.getBlockData().worldBlockType());
-                            }
-                        }
-                        if (event.isDropItems() && itemStackSupplier != null) {
-                            final World world = block.getWorld();
-                            final ItemStack itemStack = itemStackSupplier.get();
-                            if (itemStack != null) {
-                                final Supplier<ItemStack> finalItemStackSupplier = itemStackSupplier;
-                                Bukkit.getScheduler().runTaskLater(BlockBreakManager.this.plugin, () -> world.dropItem(block.getLocation().clone().add(0.5, 0, 0.5), finalItemStackSupplier.get()), 1);
-                            }
-                        }
-                        blockBreakData.getBreakTask().cancel();
-                        if (!ItemUtil.isQuickMiningTool(heldItem.getType())) {
-                            PacketUtils.removeMiningFatigue(player);
-                        }
-                        BlockBreakManager.this.blockBreakDataMap.remove(uuid);
-                        return;
-                    }
-                    final int updatedBlockBreakTime = BlockBreakManager.this.calculateBlockBreakTimeInTicks(
-                            player,
-                            player.getInventory().getItemInMainHand(),
-                            blockBreakData.getBlockData().blockBreakModifier()
-                    );
-                    final double percentageToAdd = (double) blockBreakTime / updatedBlockBreakTime;
-                    blockBreakData.addBreakTimeProgress(percentageToAdd);
-                    blockBreakData.send(blockBreakData.getPosition());
-                }, 1, 1);
+    private void sendAnimation(BlockBreakData blockBreakData, byte damage) {
+        blockBreakData.setSentDamage(damage);
+        final Player breaker = blockBreakData.getBreaker();
+        final Position position = blockBreakData.getPosition();
+        final Location location = blockBreakData.getBlock().getLocation();
+        final Collection<UUID> viewers = this.plugin.getLeavesPacketListener()
+                .getChunkViewTracker()
+                .getViewers(position.getChunkPosition());
+        final List<Player> players = new ArrayList<>(viewers.size() + 1);
+        players.add(breaker);
+        for (UUID uuid : viewers) {
+            if (uuid.equals(breaker.getUniqueId())) continue;
+            final Player viewer = Bukkit.getPlayer(uuid);
+            if (viewer == null || viewer.getWorld() != location.getWorld()) continue;
+            if (viewer.getLocation().distanceSquared(location) > ANIMATION_VIEW_DISTANCE_SQUARED) continue;
+            players.add(viewer);
+        }
+        PacketUtils.sendBlockBreakAnimation(position, blockBreakData.getEntityId(), damage, players);
+    }
+
+    private void breakBlock(BlockBreakData blockBreakData, Block block) {
+        final Player player = blockBreakData.getBreaker();
+        final HMCLeavesBlockDataBreakEvent event = new HMCLeavesBlockDataBreakEvent(block, player, blockBreakData.getBlockData());
+        Bukkit.getPluginManager().callEvent(event);
+        if (event.isCancelled()) {
+            blockBreakData.resetProgress();
+            return;
+        }
+        this.sendAnimation(blockBreakData, (byte) -1);
+        Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> PacketUtils.sendBlockBroken(
+                player,
+                blockBreakData.getPosition(),
+                blockBreakData.getBlockData().sendBlockId()
+        ));
+        BlockBreakTraceEvent.start(
+                player.getName(),
+                blockBreakData.getBlockData().id(),
+                blockBreakData.getPosition(),
+                blockBreakData.getTotalBreakTime()
+        ).finish();
+        this.blockCache.removeBlockData(blockBreakData.getPosition());
+        block.setType(Material.AIR);
+        Supplier<ItemStack> itemStackSupplier = null;
+        final BlockBreakModifier blockBreakModifier = blockBreakData.getBlockData().blockBreakModifier();
+        final ItemStack heldItem = player.getInventory().getItemInMainHand();
+        if (blockBreakModifier.hasEnchantment(heldItem) && !blockBreakModifier.requiresToolToDrop() || blockBreakModifier.hasToolType(heldItem.getType())) {
+            if (blockBreakData.getBlockData() instanceof final LogData logData) {
+                itemStackSupplier = this.leavesConfig.getItemSupplier(logData.getCurrentId());
+            } else {
+                itemStackSupplier = this.leavesConfig.getItemSupplier(blockBreakData.getBlockData().id());
+            }
+            if (itemStackSupplier == null) {
+                itemStackSupplier = () -> new ItemStack(blockBreakData.getBlockData().worldBlockType());
+            }
+        }
+        if (event.isDropItems() && itemStackSupplier != null) {
+            final World world = block.getWorld();
+            final ItemStack itemStack = itemStackSupplier.get();
+            if (itemStack != null) {
+                final Supplier<ItemStack> finalItemStackSupplier = itemStackSupplier;
+                Bukkit.getScheduler().runTaskLater(this.plugin, () -> world.dropItem(block.getLocation().clone().add(0.5, 0, 0.5), finalItemStackSupplier.get()), 1);
+            }
+        }
+        if (!ItemUtil.isQuickMiningTool(heldItem.getType())) {
+            PacketUtils.removeMiningFatigue(player);
+        }
+        blockBreakData.cancel();
+        this.blockBreakDataMap.remove(player.getUniqueId(), blockBreakData);
     }
 
     private static final Map<Material, Integer> TOOL_SPEED_MULTIPLIERS = createToolSpeedModifiers();
@@ -242,7 +322,18 @@ public class BlockBreakManager {
         private final Position position;
         private final int totalBreakTime;
         private double breakTimeProgress;
-        private final BukkitTask breakTask;
+        private volatile boolean cancelled;
+        // the rest is only used by the ticker on the main thread
+        @Nullable
+        private Block block;
+        private boolean blockResolved;
+        private byte sentDamage = -1;
+        private double progressPerTick;
+        private volatile boolean conditionsChanged = true;
+        private int heldSlot;
+        private Material heldMaterial;
+        private boolean onGround;
+        private boolean inWater;
 
         public <T extends BlockData & MineableData> BlockBreakData(
                 int entityId,
@@ -250,8 +341,7 @@ public class BlockBreakManager {
                 Player breaker,
                 Position position,
                 int totalBreakTime,
-                int breakTimeProgress,
-                BukkitTask breakTask
+                int breakTimeProgress
         ) {
             this.entityId = entityId;
             this.blockData = blockData;
@@ -259,7 +349,6 @@ public class BlockBreakManager {
             this.position = position;
             this.totalBreakTime = totalBreakTime;
             this.breakTimeProgress = breakTimeProgress;
-            this.breakTask = breakTask;
         }
 
         public int getEntityId() {
@@ -278,6 +367,19 @@ public class BlockBreakManager {
             return position;
         }
 
+        /**
+         * @return the block being broken, or null if its world isn't loaded
+         */
+        @Nullable
+        public Block getBlock() {
+            if (this.blockResolved) return this.block;
+            this.blockResolved = true;
+            final World world = Bukkit.getWorld(this.position.world());
+            if (world == null) return null;
+            this.block = world.getBlockAt(this.position.x(), this.position.y(), this.position.z());
+            return this.block;
+        }
+
         public int getTotalBreakTime() {
             return totalBreakTime;
         }
@@ -294,23 +396,64 @@ public class BlockBreakManager {
             this.breakTimeProgress = Math.min(this.breakTimeProgress + breakTimeProgress, this.totalBreakTime);
         }
 
+        public double getProgressPerTick() {
+            return progressPerTick;
+        }
+
+        public void setProgressPerTick(double progressPerTick) {
+            this.progressPerTick = progressPerTick;
+        }
+
+        public void markConditionsChanged() {
+            this.conditionsChanged = true;
+        }
+
+        /**
+         * Checks the parts of the break speed that can be read cheaply every tick
+         *
+         * @return true if the break speed has to be calculated again
+         */
+        public boolean updateConditions() {
+            boolean changed = this.conditionsChanged;
+            this.conditionsChanged = false;
+            final int heldSlot = this.breaker.getInventory().getHeldItemSlot();
+            final Material heldMaterial = this.breaker.getInventory().getItemInMainHand().getType();
+            final boolean onGround = this.breaker.isOnGround();
+            final boolean inWater = this.breaker.isInWater();
+            if (heldSlot != this.heldSlot || heldMaterial != this.heldMaterial || onGround != this.onGround || inWater != this.inWater) {
+                this.heldSlot = heldSlot;
+                this.heldMaterial = heldMaterial;
+                this.onGround = onGround;
+                this.inWater = inWater;
+                changed = true;
+            }
+            return changed;
+        }
+
         public byte calculateDamage() {
             final double percentage = (double) this.breakTimeProgress / this.totalBreakTime;
             final double damage = MAX_DAMAGE * percentage;
             return (byte) (Math.min(damage, MAX_DAMAGE) - 1);
         }
 
-        public void send(Position position) {
-            final byte calculatedDamage = this.calculateDamage();
-            PacketUtils.sendBlockBreakAnimation(this.breaker, position.toLocation(), this.entityId, calculatedDamage);
+        public byte getSentDamage() {
+            return sentDamage;
+        }
+
+        public void setSentDamage(byte sentDamage) {
+            this.sentDamage = sentDamage;
         }
 
         public boolean isBroken() {
             return this.breakTimeProgress >= this.totalBreakTime;
         }
 
-        public BukkitTask getBreakTask() {
-            return breakTask;
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void cancel() {
+            this.cancelled = true;
         }
 
         public void resetProgress() {
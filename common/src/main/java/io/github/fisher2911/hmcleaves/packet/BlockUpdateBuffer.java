@@ -0,0 +1,108 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.packet;
+
+import com.github.retrooper.packetevents.protocol.world.states.WrappedBlockState;
+import com.github.retrooper.packetevents.util.Vector3i;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerMultiBlockChange;
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+import io.github.fisher2911.hmcleaves.world.Position;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Collects custom block updates during a tick and sends them all at once, as one multi block change
+ * per chunk section, only to the players that have the chunk.
+ * A block that is updated more than once in a tick is only sent with its last state.
+ */
+public class BlockUpdateBuffer {
+
+    private final ChunkViewTracker chunkViewTracker;
+    private Map<SectionKey, Map<Position, WrappedBlockState>> pending = new HashMap<>();
+
+    public BlockUpdateBuffer(ChunkViewTracker chunkViewTracker) {
+        this.chunkViewTracker = chunkViewTracker;
+    }
+
+    public void queue(Position position, BlockData blockData, Material worldMaterial) {
+        final WrappedBlockState state = blockData.getNewState(worldMaterial);
+        final SectionKey key = new SectionKey(position.world(), position.x() >> 4, position.y() >> 4, position.z() >> 4);
+        synchronized (this) {
+            this.pending.computeIfAbsent(key, k -> new HashMap<>()).put(position, state);
+        }
+    }
+
+    /**
+     * Sends everything that was queued, called once a tick on the main thread
+     */
+    public void flush() {
+        final Map<SectionKey, Map<Position, WrappedBlockState>> updates;
+        synchronized (this) {
+            if (this.pending.isEmpty()) return;
+            updates = this.pending;
+            this.pending = new HashMap<>();
+        }
+        for (var entry : updates.entrySet()) {
+            final SectionKey key = entry.getKey();
+            final Collection<UUID> viewers = this.chunkViewTracker.getViewers(ChunkPosition.at(key.world(), key.chunkX(), key.chunkZ()));
+            if (viewers.isEmpty()) continue;
+            final Map<Position, WrappedBlockState> blocks = entry.getValue();
+            final var encodedBlocks = new WrapperPlayServerMultiBlockChange.EncodedBlock[blocks.size()];
+            int i = 0;
+            for (var block : blocks.entrySet()) {
+                final Position position = block.getKey();
+                encodedBlocks[i++] = new WrapperPlayServerMultiBlockChange.EncodedBlock(
+                        block.getValue(),
+                        position.x(),
+                        position.y(),
+                        position.z()
+                );
+            }
+            final WrapperPlayServerMultiBlockChange packet = new WrapperPlayServerMultiBlockChange(
+                    new Vector3i(key.chunkX(), key.sectionY(), key.chunkZ()),
+                    false,
+                    encodedBlocks
+            );
+            final List<Player> players = new ArrayList<>(viewers.size());
+            for (UUID uuid : viewers) {
+                final Player player = Bukkit.getPlayer(uuid);
+                if (player == null) continue;
+                players.add(player);
+            }
+            // sent silently so the packet listener doesn't look the blocks up again
+            PacketUtils.sendPacketSilently(packet, players);
+        }
+    }
+
+    private record SectionKey(UUID world, int chunkX, int sectionY, int chunkZ) {
+
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.packet;
+
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.protocol.world.chunk.BaseChunk;
+import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Caches the rewrites applied to chunk packets so that a chunk sent to many players
+ * only has to be looked up in the {@link ChunkBlockCache} once.
+ * A patch is only reused while the chunk cache it was made from has not been modified since.
+ */
+public class ChunkPatchCache {
+
+    // each entry takes 3 ints, so this keeps the cache at around 12mb
+    private static final int MAX_ENTRIES = 1_000_000;
+
+    private final Map<ChunkPosition, ChunkPatch> patches = new LinkedHashMap<>(16, 0.75f, true);
+    private int totalEntries;
+
+    @Nullable
+    public synchronized ChunkPatch get(ChunkPosition chunkPosition, ChunkBlockCache chunkBlockCache, int tableGeneration) {
+        final ChunkPatch patch = this.patches.get(chunkPosition);
+        if (patch == null) return null;
+        if (patch.isValidFor(chunkBlockCache, tableGeneration)) return patch;
+        this.removePatch(chunkPosition);
+        return null;
+    }
+
+    public synchronized void put(ChunkPosition chunkPosition, ChunkPatch patch) {
+        if (patch.size() > MAX_ENTRIES) return;
+        final ChunkPatch previous = this.patches.put(chunkPosition, patch);
+        if (previous != null) this.totalEntries -= previous.size();
+        this.totalEntries += patch.size();
+        final Iterator<ChunkPatch> iterator = this.patches.values().iterator();
+        while (this.totalEntries > MAX_ENTRIES && iterator.hasNext()) {
+            final ChunkPatch eldest = iterator.next();
+            this.totalEntries -= eldest.size();
+            iterator.remove();
+        }
+    }
+
+    public synchronized void invalidate(ChunkPosition chunkPosition) {
+        this.removePatch(chunkPosition);
+    }
+
+    public synchronized void invalidateWorld(UUID world) {
+        final Iterator<Map.Entry<ChunkPosition, ChunkPatch>> iterator = this.patches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<ChunkPosition, ChunkPatch> entry = iterator.next();
+            if (!entry.getKey().world().equals(world)) continue;
+            this.totalEntries -= entry.getValue().size();
+            iterator.remove();
+        }
+    }
+
+    private void removePatch(ChunkPosition chunkPosition) {
+        final ChunkPatch removed = this.patches.remove(chunkPosition);
+        if (removed != null) this.totalEntries -= removed.size();
+    }
+
+    public static final class ChunkPatch {
+
+        // world id stored for rewrites that don't depend on the block in the world
+        private static final int ANY_WORLD_ID = -1;
+
+        private final ChunkBlockCache chunkBlockCache;
+        private final long modificationCount;
+        private final int tableGeneration;
+        // per rewrite: (section index << 12 | index in section), client id, expected world id
+        private final int[] data;
+
+        private ChunkPatch(ChunkBlockCache chunkBlockCache, long modificationCount, int tableGeneration, int[] data) {
+            this.chunkBlockCache = chunkBlockCache;
+            this.modificationCount = modificationCount;
+            this.tableGeneration = tableGeneration;
+            this.data = data;
+        }
+
+        private boolean isValidFor(ChunkBlockCache chunkBlockCache, int tableGeneration) {
+            return this.chunkBlockCache == chunkBlockCache &&
+                    this.modificationCount == chunkBlockCache.getModificationCount() &&
+                    this.tableGeneration == tableGeneration;
+        }
+
+        public int size() {
+            return this.data.length / 3;
+        }
+
+        /**
+         * @return false without changing anything if a rewrite depends on a world block that has changed,
+         * in which case the patch has to be recomputed
+         */
+        public boolean apply(BaseChunk[] chunks, ClientVersion clientVersion) {
+            for (int i = 0; i < this.data.length; i += 3) {
+                final int expectedWorldId = this.data[i + 2];
+                if (expectedWorldId == ANY_WORLD_ID) continue;
+                final int location = this.data[i];
+                final BaseChunk chunk = chunks[location >>> 12];
+                if (chunk.getBlockId(location & 15, (location >> 8) & 15, (location >> 4) & 15) != expectedWorldId) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < this.data.length; i += 3) {
+                final int location = this.data[i];
+                chunks[location >>> 12].set(
+                        clientVersion,
+                        location & 15,
+                        (location >> 8) & 15,
+                        (location >> 4) & 15,
+                        this.data[i + 1]
+                );
+            }
+            return true;
+        }
+
+        public static Builder builder(ChunkBlockCache chunkBlockCache, int tableGeneration) {
+            return new Builder(chunkBlockCache, tableGeneration);
+        }
+
+        public static final class Builder {
+
+            private final ChunkBlockCache chunkBlockCache;
+            // read before anything is added, so changes made while building invalidate the patch
+            private final long modificationCount;
+            private final int tableGeneration;
+            private int[] data = new int[48];
+            private int size;
+
+            private Builder(ChunkBlockCache chunkBlockCache, int tableGeneration) {
+                this.chunkBlockCache = chunkBlockCache;
+                this.modificationCount = chunkBlockCache.getModificationCount();
+                this.tableGeneration = tableGeneration;
+            }
+
+            /**
+             * @param worldId the world id the client id was computed from, or -1 if the client id does not depend on it
+             */
+            public void add(int sectionIndex, int x, int y, int z, int clientId, int worldId) {
+                if (this.size + 3 > this.data.length) {
+                    this.data = Arrays.copyOf(this.data, this.data.length * 2);
+                }
+                this.data[this.size++] = (sectionIndex << 12) | (y << 8) | (z << 4) | x;
+                this.data[this.size++] = clientId;
+                this.data[this.size++] = worldId;
+            }
+
+            public ChunkPatch build() {
+                return new ChunkPatch(
+                        this.chunkBlockCache,
+                        this.modificationCount,
+                        this.tableGeneration,
+                        Arrays.copyOf(this.data, this.size)
+                );
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.packet;
+
+import io.github.fisher2911.hmcleaves.util.LongHashSet;
+import io.github.fisher2911.hmcleaves.world.ChunkPosition;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.Unmodifiable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks which chunks each player currently has, from the chunk data and unload packets sent to them.
+ * Every player has a set of chunk keys in the world they are in, and every world has a reverse index
+ * from chunk key to the players that have the chunk.
+ */
+public class ChunkViewTracker {
+
+    private final Map<UUID, PlayerView> views = new ConcurrentHashMap<>();
+    // updated per chunk key with compute, so adding and removing viewers of different chunks never wait on each other
+    private final Map<UUID, ConcurrentMap<Long, Set<UUID>>> viewersByWorld = new ConcurrentHashMap<>();
+
+    public void addChunk(UUID player, UUID world, long chunkKey) {
+        final PlayerView view = this.views.computeIfAbsent(player, k -> new PlayerView());
+        synchronized (view) {
+            if (!world.equals(view.world)) {
+                this.clearView(player, view);
+                view.world = world;
+            }
+            if (!view.chunks.add(chunkKey)) return;
+            this.addViewer(world, chunkKey, player);
+        }
+    }
+
+    public void removeChunk(UUID player, long chunkKey) {
+        final PlayerView view = this.views.get(player);
+        if (view == null) return;
+        synchronized (view) {
+            if (view.world == null || !view.chunks.remove(chunkKey)) return;
+            this.removeViewer(view.world, chunkKey, player);
+        }
+    }
+
+    /**
+     * Used when the client drops all of its chunks, like when respawning or changing worlds
+     */
+    public void clearPlayer(UUID player) {
+        final PlayerView view = this.views.get(player);
+        if (view == null) return;
+        synchronized (view) {
+            this.clearView(player, view);
+        }
+    }
+
+    public void removePlayer(UUID player) {
+        final PlayerView view = this.views.remove(player);
+        if (view == null) return;
+        synchronized (view) {
+            this.clearView(player, view);
+        }
+    }
+
+    @Unmodifiable
+    public Collection<UUID> getViewers(ChunkPosition chunkPosition) {
+        final ConcurrentMap<Long, Set<UUID>> viewers = this.viewersByWorld.get(chunkPosition.world());
+        if (viewers == null) return Collections.emptySet();
+        final Set<UUID> players = viewers.get(chunkPosition.getChunkKey());
+        if (players == null) return Collections.emptySet();
+        return Collections.unmodifiableSet(players);
+    }
+
+    public boolean hasChunk(UUID player, ChunkPosition chunkPosition) {
+        final PlayerView view = this.views.get(player);
+        if (view == null) return false;
+        synchronized (view) {
+            return chunkPosition.world().equals(view.world) && view.chunks.contains(chunkPosition.getChunkKey());
+        }
+    }
+
+    private void clearView(UUID player, PlayerView view) {
+        final UUID world = view.world;
+        if (world != null) {
+            view.chunks.forEach(chunkKey -> this.removeViewer(world, chunkKey, player));
+        }
+        view.chunks.clear();
+        view.world = null;
+    }
+
+    private void addViewer(UUID world, long chunkKey, UUID player) {
+        final ConcurrentMap<Long, Set<UUID>> viewers = this.viewersByWorld.computeIfAbsent(world, k -> new ConcurrentHashMap<>());
+        // done inside compute so the set can't be removed for being empty while the player is added to it
+        viewers.compute(chunkKey, (k, players) -> {
+            final Set<UUID> chunkViewers = players == null ? ConcurrentHashMap.newKeySet() : players;
+            chunkViewers.add(player);
+            return chunkViewers;
+        });
+    }
+
+    private void removeViewer(UUID world, long chunkKey, UUID player) {
+        final ConcurrentMap<Long, Set<UUID>> viewers = this.viewersByWorld.get(world);
+        if (viewers == null) return;
+        viewers.computeIfPresent(chunkKey, (k, players) -> {
+            players.remove(player);
+            return players.isEmpty() ? null : players;
+        });
+    }
+
+    private static final class PlayerView {
+
+        @Nullable
+        private UUID world;
+        private final LongHashSet chunks = new LongHashSet();
+
+    }
+
+}
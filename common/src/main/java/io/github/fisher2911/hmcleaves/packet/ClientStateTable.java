@@ -0,0 +1,205 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.packet;
+
+import com.github.retrooper.packetevents.protocol.world.states.WrappedBlockState;
+import io.github.fisher2911.hmcleaves.data.BlockData;
+import io.github.retrooper.packetevents.util.SpigotConversionUtil;
+import org.bukkit.Material;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Maps (BlockData, world global id) to the global id that is sent to the client,
+ * so rewriting chunk packets does not have to create states or convert to bukkit block data per block.
+ * Cleared and rebuilt every time the config is loaded.
+ */
+public class ClientStateTable {
+
+    public static final int NO_STATE = -1;
+    private static final int UNKNOWN = -2;
+    private static final Material[] MATERIALS = Material.values();
+
+    private final Map<BlockData, Row> rows = new ConcurrentHashMap<>();
+    private volatile Material[] materialsByGlobalId = new Material[0];
+    // the default block data of each world global id, BlockData#EMPTY if it has none
+    private final Function<org.bukkit.block.data.BlockData, BlockData> defaultBlockResolver;
+    private volatile BlockData[] defaultsByGlobalId = new BlockData[0];
+    private volatile int[] defaultClientIdsByGlobalId = new int[0];
+    // incremented on every clear so that anything computed from an older table can be detected
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * @param defaultBlockResolver returns the default block data of a world block, or null if it has none
+     */
+    public ClientStateTable(Function<org.bukkit.block.data.BlockData, BlockData> defaultBlockResolver) {
+        this.defaultBlockResolver = defaultBlockResolver;
+    }
+
+    public void clear() {
+        this.rows.clear();
+        synchronized (this) {
+            this.defaultsByGlobalId = new BlockData[0];
+            this.defaultClientIdsByGlobalId = new int[0];
+        }
+        this.generation.incrementAndGet();
+    }
+
+    public int getGeneration() {
+        return this.generation.get();
+    }
+
+    public void precompute(Collection<? extends BlockData> blockData) {
+        for (BlockData data : blockData) {
+            this.rows.put(data, new Row(this, data));
+        }
+    }
+
+    public Row getRow(BlockData blockData) {
+        final Row row = this.rows.get(blockData);
+        if (row != null) return row;
+        return this.rows.computeIfAbsent(blockData, data -> new Row(this, data));
+    }
+
+    /**
+     * @return the client global id, or {@link #NO_STATE} if the block data should not be sent
+     */
+    public int getClientId(BlockData blockData, int worldGlobalId) {
+        return this.getRow(blockData).getClientId(worldGlobalId);
+    }
+
+    public Material getMaterial(int globalId) {
+        Material[] materials = this.materialsByGlobalId;
+        if (globalId < materials.length) {
+            final Material material = materials[globalId];
+            if (material != null) return material;
+        }
+        final Material material = SpigotConversionUtil.toBukkitBlockData(WrappedBlockState.getByGlobalId(globalId)).getMaterial();
+        synchronized (this) {
+            materials = this.materialsByGlobalId;
+            if (globalId >= materials.length) {
+                materials = Arrays.copyOf(materials, Math.max(globalId + 1, materials.length * 2));
+            }
+            materials[globalId] = material;
+            this.materialsByGlobalId = materials;
+        }
+        return material;
+    }
+
+    /**
+     * @return the default block data derived from the world state, or {@link BlockData#EMPTY} if it has none
+     */
+    public BlockData getDefaultBlockData(int worldGlobalId) {
+        BlockData[] defaults = this.defaultsByGlobalId;
+        if (worldGlobalId < defaults.length) {
+            final BlockData blockData = defaults[worldGlobalId];
+            if (blockData != null) return blockData;
+        }
+        final BlockData blockData = Objects.requireNonNullElse(
+                this.defaultBlockResolver.apply(SpigotConversionUtil.toBukkitBlockData(WrappedBlockState.getByGlobalId(worldGlobalId))),
+                BlockData.EMPTY
+        );
+        synchronized (this) {
+            defaults = this.defaultsByGlobalId;
+            if (worldGlobalId >= defaults.length) {
+                defaults = Arrays.copyOf(defaults, Math.max(worldGlobalId + 1, defaults.length * 2));
+            }
+            defaults[worldGlobalId] = blockData;
+            this.defaultsByGlobalId = defaults;
+        }
+        return blockData;
+    }
+
+    /**
+     * @return the client global id of the default block data derived from the world state,
+     * or {@link #NO_STATE} if it has none
+     */
+    public int getDefaultClientId(int worldGlobalId) {
+        int[] clientIds = this.defaultClientIdsByGlobalId;
+        if (worldGlobalId < clientIds.length) {
+            final int clientId = clientIds[worldGlobalId];
+            if (clientId != UNKNOWN) return clientId;
+        }
+        final BlockData blockData = this.getDefaultBlockData(worldGlobalId);
+        final int clientId = blockData == BlockData.EMPTY ? NO_STATE : this.getClientId(blockData, worldGlobalId);
+        synchronized (this) {
+            clientIds = this.defaultClientIdsByGlobalId;
+            if (worldGlobalId >= clientIds.length) {
+                final int oldLength = clientIds.length;
+                clientIds = Arrays.copyOf(clientIds, Math.max(worldGlobalId + 1, oldLength * 2));
+                Arrays.fill(clientIds, oldLength, clientIds.length, UNKNOWN);
+            }
+            clientIds[worldGlobalId] = clientId;
+            this.defaultClientIdsByGlobalId = clientIds;
+        }
+        return clientId;
+    }
+
+    private static int toId(WrappedBlockState state) {
+        if (state == null) return NO_STATE;
+        return state.getGlobalId();
+    }
+
+    public static final class Row {
+
+        private final ClientStateTable table;
+        private final BlockData blockData;
+        private final int clientId;
+        // indexed by Material#ordinal, only used when the state depends on the world material
+        private final int[] clientIdsByMaterial;
+
+        private Row(ClientStateTable table, BlockData blockData) {
+            this.table = table;
+            this.blockData = blockData;
+            if (blockData.isStateDependentOnWorldMaterial()) {
+                this.clientId = UNKNOWN;
+                this.clientIdsByMaterial = new int[MATERIALS.length];
+                Arrays.fill(this.clientIdsByMaterial, UNKNOWN);
+            } else {
+                this.clientId = toId(blockData.getNewState(null));
+                this.clientIdsByMaterial = null;
+            }
+        }
+
+        public boolean isStateDependentOnWorld() {
+            return this.clientIdsByMaterial != null;
+        }
+
+        public int getClientId(int worldGlobalId) {
+            if (this.clientIdsByMaterial == null) return this.clientId;
+            final Material worldMaterial = this.table.getMaterial(worldGlobalId);
+            int id = this.clientIdsByMaterial[worldMaterial.ordinal()];
+            if (id == UNKNOWN) {
+                id = toId(this.blockData.getNewState(worldMaterial));
+                this.clientIdsByMaterial[worldMaterial.ordinal()] = id;
+            }
+            return id;
+        }
+
+    }
+
+}
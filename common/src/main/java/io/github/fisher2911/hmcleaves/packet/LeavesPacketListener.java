@@ -27,24 +27,30 @@ import com.github.retrooper.packetevents.event.PacketReceiveEvent;
 import com.github.retrooper.packetevents.event.PacketSendEvent;
 import com.github.retrooper.packetevents.protocol.packettype.PacketType;
 import com.github.retrooper.packetevents.protocol.packettype.PacketTypeCommon;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
 import com.github.retrooper.packetevents.protocol.player.DiggingAction;
 import com.github.retrooper.packetevents.protocol.world.chunk.BaseChunk;
 import com.github.retrooper.packetevents.protocol.world.chunk.Column;
+import com.github.retrooper.packetevents.protocol.world.chunk.impl.v_1_18.Chunk_v1_18;
+import com.github.retrooper.packetevents.protocol.world.chunk.palette.GlobalPalette;
+import com.github.retrooper.packetevents.protocol.world.chunk.palette.Palette;
 import com.github.retrooper.packetevents.protocol.world.states.WrappedBlockState;
 import com.github.retrooper.packetevents.util.Vector3i;
 import com.github.retrooper.packetevents.wrapper.play.client.WrapperPlayClientPlayerDigging;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBlockChange;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerChunkData;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerMultiBlockChange;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerUnloadChunk;
 import io.github.fisher2911.hmcleaves.HMCLeaves;
 import io.github.fisher2911.hmcleaves.cache.BlockCache;
 import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
+import io.github.fisher2911.hmcleaves.cache.SectionBlockConsumer;
 import io.github.fisher2911.hmcleaves.config.LeavesConfig;
 import io.github.fisher2911.hmcleaves.data.BlockData;
 import io.github.fisher2911.hmcleaves.data.MineableData;
-import io.github.fisher2911.hmcleaves.util.ChunkUtil;
+import io.github.fisher2911.hmcleaves.debug.ChunkRewriteTraceEvent;
+import io.github.fisher2911.hmcleaves.metrics.LatencyHistogram;
+import io.github.fisher2911.hmcleaves.metrics.LeavesMetrics;
 import io.github.fisher2911.hmcleaves.util.ItemUtil;
 import io.github.fisher2911.hmcleaves.util.LeafDropUtil;
 import io.github.fisher2911.hmcleaves.world.ChunkPosition;
@@ -54,10 +60,11 @@ import org.bukkit.GameMode;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.entity.Player;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class LeavesPacketListener extends PacketListenerAbstract {
 
@@ -65,7 +72,13 @@ public class LeavesPacketListener extends PacketListenerAbstract {
     private final BlockCache blockCache;
     private final BlockBreakManager blockBreakManager;
     private final HMCLeaves plugin;
-    private final Multimap<ChunkPosition, UUID> sentChunks;
+    private final ChunkViewTracker chunkViewTracker = new ChunkViewTracker();
+    private final ChunkPatchCache chunkPatchCache = new ChunkPatchCache();
+    private final LatencyHistogram chunkRewriteLatency;
+    private final LatencyHistogram blockChangeLatency;
+    private final LatencyHistogram multiBlockChangeLatency;
+    private final LongAdder chunkPatchHits;
+    private final LongAdder blockChangesRewritten;
 
     public LeavesPacketListener(PacketListenerPriority priority, HMCLeaves plugin) {
         super(priority);
@@ -73,7 +86,12 @@ public class LeavesPacketListener extends PacketListenerAbstract {
         this.leavesConfig = this.plugin.getLeavesConfig();
         this.blockCache = this.plugin.getBlockCache();
         this.blockBreakManager = this.plugin.getBlockBreakManager();
-        this.sentChunks = Multimaps.newSetMultimap(new ConcurrentHashMap<>(), ConcurrentHashMap::newKeySet);
+        final LeavesMetrics metrics = this.plugin.getLeavesMetrics();
+        this.chunkRewriteLatency = metrics.histogram(LeavesMetrics.CHUNK_PACKET_REWRITE);
+        this.blockChangeLatency = metrics.histogram(LeavesMetrics.BLOCK_CHANGE);
+        this.multiBlockChangeLatency = metrics.histogram(LeavesMetrics.MULTI_BLOCK_CHANGE);
+        this.chunkPatchHits = metrics.counter(LeavesMetrics.CHUNK_PATCH_HITS);
+        this.blockChangesRewritten = metrics.counter(LeavesMetrics.BLOCK_CHANGES_REWRITTEN);
     }
 
     public LeavesPacketListener(HMCLeaves plugin) {
@@ -81,7 +99,12 @@ public class LeavesPacketListener extends PacketListenerAbstract {
         this.leavesConfig = this.plugin.getLeavesConfig();
         this.blockCache = this.plugin.getBlockCache();
         this.blockBreakManager = this.plugin.getBlockBreakManager();
-        this.sentChunks = Multimaps.newSetMultimap(new ConcurrentHashMap<>(), ConcurrentHashMap::newKeySet);
+        final LeavesMetrics metrics = this.plugin.getLeavesMetrics();
+        this.chunkRewriteLatency = metrics.histogram(LeavesMetrics.CHUNK_PACKET_REWRITE);
+        this.blockChangeLatency = metrics.histogram(LeavesMetrics.BLOCK_CHANGE);
+        this.multiBlockChangeLatency = metrics.histogram(LeavesMetrics.MULTI_BLOCK_CHANGE);
+        this.chunkPatchHits = metrics.counter(LeavesMetrics.CHUNK_PATCH_HITS);
+        this.blockChangesRewritten = metrics.counter(LeavesMetrics.BLOCK_CHANGES_REWRITTEN);
     }
 
     private static final int HEIGHT_BELOW_ZERO = 64;
@@ -89,12 +112,22 @@ public class LeavesPacketListener extends PacketListenerAbstract {
     @Override
     public void onPacketSend(PacketSendEvent event) {
         if (!(event.getPlayer() instanceof final Player player)) return;
-        if (!this.leavesConfig.isWorldWhitelisted(player.getWorld())) return;
         final PacketTypeCommon packetType = event.getPacketType();
+        // chunk views are kept up to date in every world, the player may already be in another world
+        if (packetType == PacketType.Play.Server.UNLOAD_CHUNK) {
+            final WrapperPlayServerUnloadChunk packet = new WrapperPlayServerUnloadChunk(event);
+            this.chunkViewTracker.removeChunk(player.getUniqueId(), ChunkPosition.chunkKey(packet.getChunkX(), packet.getChunkZ()));
+            return;
+        }
+        if (packetType == PacketType.Play.Server.RESPAWN || packetType == PacketType.Play.Server.JOIN_GAME) {
+            this.chunkViewTracker.clearPlayer(player.getUniqueId());
+            return;
+        }
+        if (!this.leavesConfig.isWorldWhitelisted(player.getWorld())) return;
         if (packetType == PacketType.Play.Server.CHUNK_DATA) {
             final World world = player.getWorld();
             final int heightAdjustment = world.getMinHeight();
-            this.handleChunkSend(event, world.getUID(), heightAdjustment < 0 ? HEIGHT_BELOW_ZERO : 0, player.getUniqueId());
+            this.handleChunkSend(event, world.getUID(), heightAdjustment < 0 ? HEIGHT_BELOW_ZERO : 0, player);
             return;
         }
         if (packetType == PacketType.Play.Server.BLOCK_CHANGE) {
@@ -119,72 +152,201 @@ public class LeavesPacketListener extends PacketListenerAbstract {
         }
     }
 
-    private void handleChunkSend(PacketSendEvent event, UUID world, int heightAdjustment, UUID player) {
+    private void handleChunkSend(PacketSendEvent event, UUID world, int heightAdjustment, Player player) {
         final WrapperPlayServerChunkData packet = new WrapperPlayServerChunkData(event);
         final Column column = packet.getColumn();
         final int chunkX = column.getX();
         final int chunkZ = column.getZ();
         final ChunkPosition chunkPos = ChunkPosition.at(world, chunkX, chunkZ);
-        this.sentChunks.put(chunkPos, player);
-        ChunkBlockCache chunkCache = this.blockCache.getChunkBlockCache(chunkPos);
-        if (chunkCache == null) return;
-        this.editChunkPacket(packet, world, heightAdjustment);
+        // a packet still in flight after the player quit would otherwise recreate their view
+        if (player.isOnline()) {
+            this.chunkViewTracker.addChunk(player.getUniqueId(), world, chunkPos.getChunkKey());
+        }
+        final ChunkBlockCache chunkCache = this.blockCache.getChunkBlockCache(world, chunkX, chunkZ);
+        final boolean virtualDefaultBlocks = this.leavesConfig.isVirtualDefaultBlocks();
+        if (chunkCache == null && !virtualDefaultBlocks) return;
+        final long start = System.nanoTime();
+        final ChunkRewriteTraceEvent traceEvent = ChunkRewriteTraceEvent.start(chunkPos, virtualDefaultBlocks);
+        if (virtualDefaultBlocks) {
+            this.writeDefaultBlocks(packet, chunkCache, heightAdjustment);
+        }
+        if (chunkCache != null) {
+            traceEvent.setPatchHit(this.editChunkPacket(packet, chunkPos, chunkCache, heightAdjustment));
+        }
+        this.chunkRewriteLatency.recordSince(start);
+        traceEvent.finish();
     }
 
-    private void editChunkPacket(WrapperPlayServerChunkData packet, UUID world, int heightAdjustment) {
-        final Column column = packet.getColumn();
-        final int chunkX = column.getX();
-        final int chunkZ = column.getZ();
-        final BaseChunk[] chunks = column.getChunks();
-        final ChunkPosition chunkPos = ChunkPosition.at(world, chunkX, chunkZ);
-        final ChunkBlockCache chunkCache = this.blockCache.getChunkBlockCache(chunkPos);
-        if (chunkCache == null) return;
-        for (var entry : chunkCache.getBlockDataMap().entrySet()) {
-            final var position = entry.getKey();
-            final int chunkLevel = position.y() / 16 + heightAdjustment / 16;
-            final int accessChunkLevel = position.y() < 0 ? chunkLevel - 1 : chunkLevel;
-            final BaseChunk chunk = chunks[accessChunkLevel];
-//            System.out.println("chunkLevel: " + accessChunkLevel + " y: " + position.y());
-            final var blockData = entry.getValue();
-            final int actualX = ChunkUtil.getCoordInChunk(position.x());
-            final int actualY = Math.abs(ChunkUtil.getCoordInChunk(position.y()));
-//            System.out.println("actualY: " + actualY);
-            final int actualZ = ChunkUtil.getCoordInChunk(position.z());
-            final var actualState = chunk.get(actualX, actualY, actualZ);
-            final Material worldMaterial = SpigotConversionUtil.toBukkitBlockData(actualState).getMaterial();
-            chunk.set(
-                    PacketEvents.getAPI().getServerManager().getVersion().toClientVersion(),
-                    actualX,
-                    actualY,
-                    actualZ,
-                    blockData.getNewState(worldMaterial).getGlobalId()
-            );
+    /**
+     * Writes the default block data of every block in the packet that has nothing stored,
+     * stored blocks are written afterwards by {@link #editChunkPacket}
+     */
+    private void writeDefaultBlocks(WrapperPlayServerChunkData packet, @Nullable ChunkBlockCache chunkCache, int heightAdjustment) {
+        final BaseChunk[] chunks = packet.getColumn().getChunks();
+        final ClientVersion clientVersion = PacketEvents.getAPI().getServerManager().getVersion().toClientVersion();
+        final ClientStateTable clientStateTable = this.leavesConfig.getClientStateTable();
+        final int sectionOffset = heightAdjustment >> 4;
+        for (int sectionIndex = 0; sectionIndex < chunks.length; sectionIndex++) {
+            final BaseChunk chunk = chunks[sectionIndex];
+            if (chunk == null || chunk.isEmpty() || !mayHaveDefaultBlocks(chunk, clientStateTable)) continue;
+            final int sectionMinY = (sectionIndex - sectionOffset) << 4;
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    for (int x = 0; x < 16; x++) {
+                        final int worldId = chunk.getBlockId(x, y, z);
+                        final int clientId = clientStateTable.getDefaultClientId(worldId);
+                        if (clientId == ClientStateTable.NO_STATE || clientId == worldId) continue;
+                        if (chunkCache != null && chunkCache.getBlockDataAt(
+                                (chunkCache.getChunkPosition().x() << 4) + x,
+                                sectionMinY + y,
+                                (chunkCache.getChunkPosition().z() << 4) + z
+                        ) != BlockData.EMPTY) continue;
+                        chunk.set(clientVersion, x, y, z, clientId);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the section's palette so sections without any state that has default block data aren't scanned,
+     * sections using the global palette always have to be scanned
+     */
+    private static boolean mayHaveDefaultBlocks(BaseChunk chunk, ClientStateTable clientStateTable) {
+        if (!(chunk instanceof final Chunk_v1_18 chunk_v1_18)) return true;
+        final Palette palette = chunk_v1_18.getChunkData().palette;
+        if (palette instanceof GlobalPalette) return true;
+        for (int id = 0; id < palette.size(); id++) {
+            final int worldId = palette.idToState(id);
+            final int clientId = clientStateTable.getDefaultClientId(worldId);
+            if (clientId != ClientStateTable.NO_STATE && clientId != worldId) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a cached patch was used
+     */
+    private boolean editChunkPacket(
+            WrapperPlayServerChunkData packet,
+            ChunkPosition chunkPosition,
+            ChunkBlockCache chunkCache,
+            int heightAdjustment
+    ) {
+        final BaseChunk[] chunks = packet.getColumn().getChunks();
+        final ClientVersion clientVersion = PacketEvents.getAPI().getServerManager().getVersion().toClientVersion();
+        final ClientStateTable clientStateTable = this.leavesConfig.getClientStateTable();
+        final int tableGeneration = clientStateTable.getGeneration();
+        final ChunkPatchCache.ChunkPatch cachedPatch = this.chunkPatchCache.get(chunkPosition, chunkCache, tableGeneration);
+        if (cachedPatch != null && cachedPatch.apply(chunks, clientVersion)) {
+            this.chunkPatchHits.increment();
+            return true;
+        }
+        final ChunkRewriter rewriter = new ChunkRewriter(
+                chunks,
+                heightAdjustment >> 4,
+                clientVersion,
+                clientStateTable,
+                ChunkPatchCache.ChunkPatch.builder(chunkCache, tableGeneration)
+        );
+        chunkCache.forEachBlockInSectionOrder(rewriter);
+        this.chunkPatchCache.put(chunkPosition, rewriter.patchBuilder.build());
+        return false;
+    }
+
+    // writes a chunk's blocks into the packet one section at a time, recording the rewrites as a patch
+    private static final class ChunkRewriter implements SectionBlockConsumer {
+
+        private final BaseChunk[] chunks;
+        private final int sectionOffset;
+        private final ClientVersion clientVersion;
+        private final ClientStateTable clientStateTable;
+        private final ChunkPatchCache.ChunkPatch.Builder patchBuilder;
+        private int currentSectionY = Integer.MIN_VALUE;
+        private int currentSectionIndex;
+        private BaseChunk currentChunk;
+        private BlockData lastBlockData;
+        private ClientStateTable.Row lastRow;
+
+        private ChunkRewriter(
+                BaseChunk[] chunks,
+                int sectionOffset,
+                ClientVersion clientVersion,
+                ClientStateTable clientStateTable,
+                ChunkPatchCache.ChunkPatch.Builder patchBuilder
+        ) {
+            this.chunks = chunks;
+            this.sectionOffset = sectionOffset;
+            this.clientVersion = clientVersion;
+            this.clientStateTable = clientStateTable;
+            this.patchBuilder = patchBuilder;
         }
+
+        @Override
+        public void accept(int sectionY, int index, BlockData blockData) {
+            if (sectionY != this.currentSectionY) {
+                this.currentSectionY = sectionY;
+                this.currentSectionIndex = sectionY + this.sectionOffset;
+                this.currentChunk = this.currentSectionIndex < 0 || this.currentSectionIndex >= this.chunks.length ?
+                        null :
+                        this.chunks[this.currentSectionIndex];
+            }
+            final BaseChunk chunk = this.currentChunk;
+            if (chunk == null) return;
+            if (blockData != this.lastBlockData) {
+                this.lastRow = this.clientStateTable.getRow(blockData);
+                this.lastBlockData = blockData;
+            }
+            final int x = index & 15;
+            final int y = index >> 8;
+            final int z = (index >> 4) & 15;
+            final int worldId = chunk.getBlockId(x, y, z);
+            final int clientId = this.lastRow.getClientId(worldId);
+            if (clientId == ClientStateTable.NO_STATE) return;
+            chunk.set(this.clientVersion, x, y, z, clientId);
+            this.patchBuilder.add(this.currentSectionIndex, x, y, z, clientId, this.lastRow.isStateDependentOnWorld() ? worldId : -1);
+        }
+
+    }
+
+    public ChunkPatchCache getChunkPatchCache() {
+        return this.chunkPatchCache;
     }
 
     public Collection<UUID> getPlayersChunkSentTo(ChunkPosition chunkPosition) {
-        return this.sentChunks.get(chunkPosition);
+        return this.chunkViewTracker.getViewers(chunkPosition);
     }
 
     public void removeSentChunks(UUID playerUUID) {
-        this.sentChunks.values().remove(playerUUID);
+        this.chunkViewTracker.removePlayer(playerUUID);
+    }
+
+    public ChunkViewTracker getChunkViewTracker() {
+        return this.chunkViewTracker;
     }
 
     private void handleBlockChange(PacketSendEvent event, UUID world) {
+        final long start = System.nanoTime();
         try {
             final WrapperPlayServerBlockChange packet = new WrapperPlayServerBlockChange(event);
             final Vector3i blockPosition = packet.getBlockPosition();
-            final var position = Position.at(
+            final BlockData blockData = this.getBlockData(
                     world,
                     blockPosition.getX(),
                     blockPosition.getY(),
-                    blockPosition.getZ()
+                    blockPosition.getZ(),
+                    packet.getBlockState().getGlobalId()
             );
-            final BlockData blockData = this.blockCache.getBlockData(position);
-            final Material worldMaterial = SpigotConversionUtil.toBukkitBlockData(packet.getBlockState()).getMaterial();
             if (blockData == BlockData.EMPTY) return;
+            final Material worldMaterial = SpigotConversionUtil.toBukkitBlockData(packet.getBlockState()).getMaterial();
             final WrappedBlockState sendState = blockData.getNewState(worldMaterial);
             if (!blockData.isWorldTypeSame(worldMaterial) && worldMaterial != Material.MOVING_PISTON) {
+                final Position position = Position.at(
+                        world,
+                        blockPosition.getX(),
+                        blockPosition.getY(),
+                        blockPosition.getZ()
+                );
                 this.blockCache.removeBlockData(position);
                 LeafDropUtil.addToDropPositions(this.blockCache, position, blockData);
                 return;
@@ -195,53 +357,80 @@ public class LeavesPacketListener extends PacketListenerAbstract {
             );
             event.setCancelled(true);
             PacketEvents.getAPI().getPlayerManager().sendPacketSilently(event.getPlayer(), newPacket);
+            this.blockChangesRewritten.increment();
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            this.blockChangeLatency.recordSince(start);
         }
     }
 
     private void handleMultiBlockChange(PacketSendEvent event, UUID world) {
+        final long start = System.nanoTime();
         try {
             final WrapperPlayServerMultiBlockChange packet = new WrapperPlayServerMultiBlockChange(event);
             final var blocks = packet.getBlocks();
             for (WrapperPlayServerMultiBlockChange.EncodedBlock block : blocks) {
-                final Position position = Position.at(
+                final BlockData blockData = this.getBlockData(
                         world,
                         block.getX(),
                         block.getY(),
-                        block.getZ()
+                        block.getZ(),
+                        PacketUtils.getState(block).getGlobalId()
                 );
-                final BlockData blockData = this.blockCache.getBlockData(position);
                 if (blockData == BlockData.EMPTY) continue;
                 final Material worldMaterial = SpigotConversionUtil.toBukkitBlockData(PacketUtils.getState(block)).getMaterial();
                 final WrappedBlockState sendState = blockData.getNewState(worldMaterial);
                 if (!blockData.isWorldTypeSame(worldMaterial) && worldMaterial != Material.MOVING_PISTON) {
+                    final Position position = Position.at(
+                            world,
+                            block.getX(),
+                            block.getY(),
+                            block.getZ()
+                    );
                     this.blockCache.removeBlockData(position);
                     LeafDropUtil.addToDropPositions(this.blockCache, position, blockData);
                     continue;
                 }
                 block.setBlockState(sendState);
+                this.blockChangesRewritten.increment();
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            this.multiBlockChangeLatency.recordSince(start);
         }
     }
 
+    /**
+     * With virtual default blocks, blocks with nothing stored get the default block data of the state in the packet
+     */
+    private BlockData getBlockData(UUID world, int x, int y, int z, int worldGlobalId) {
+        final BlockData blockData = this.blockCache.getBlockData(world, x, y, z);
+        if (blockData != BlockData.EMPTY || !this.leavesConfig.isVirtualDefaultBlocks()) return blockData;
+        return this.leavesConfig.getClientStateTable().getDefaultBlockData(worldGlobalId);
+    }
+
     private void handlePlayerDigging(PacketReceiveEvent event, UUID world) {
         final WrapperPlayClientPlayerDigging packet = new WrapperPlayClientPlayerDigging(event);
         if (!(event.getPlayer() instanceof final Player player)) return;
         if (player.getGameMode() == GameMode.CREATIVE) return;
         final DiggingAction diggingAction = packet.getAction();
         final Vector3i blockPosition = packet.getBlockPosition();
-        final Position position = Position.at(
+        final BlockData blockData = this.blockCache.getBlockData(
                 world,
                 blockPosition.getX(),
                 blockPosition.getY(),
                 blockPosition.getZ()
         );
-        final BlockData blockData = this.blockCache.getBlockData(position);
         if (!(blockData instanceof final MineableData mineableData) || mineableData.blockBreakModifier() == null)
             return;
+        final Position position = Position.at(
+                world,
+                blockPosition.getX(),
+                blockPosition.getY(),
+                blockPosition.getZ()
+        );
         if (diggingAction == DiggingAction.START_DIGGING) {
             PacketUtils.sendMiningFatigue(player);
             this.blockBreakManager.startBlockBreak(
@@ -21,34 +21,35 @@
 package io.github.fisher2911.hmcleaves.packet;
 
 import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.PacketEventsAPI;
 import com.github.retrooper.packetevents.manager.player.PlayerManager;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
 import com.github.retrooper.packetevents.protocol.potion.PotionTypes;
 import com.github.retrooper.packetevents.protocol.sound.SoundCategory;
 import com.github.retrooper.packetevents.protocol.world.states.WrappedBlockState;
 import com.github.retrooper.packetevents.util.Vector3i;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBlockBreakAnimation;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBlockChange;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityAnimation;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityEffect;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerMultiBlockChange;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerRemoveEntityEffect;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
+import io.github.fisher2911.hmcleaves.cache.ChunkBlockCache;
+import io.github.fisher2911.hmcleaves.cache.SectionBlockConsumer;
 import io.github.fisher2911.hmcleaves.data.BlockData;
 import io.github.fisher2911.hmcleaves.data.SoundData;
-import io.github.fisher2911.hmcleaves.util.Pair;
+import io.github.fisher2911.hmcleaves.debug.MultiBlockResendTraceEvent;
 import io.github.fisher2911.hmcleaves.world.ChunkPosition;
 import io.github.fisher2911.hmcleaves.world.Position;
 import io.github.retrooper.packetevents.util.SpigotConversionUtil;
-import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Optional;
+import java.util.function.LongPredicate;
 
 public class PacketUtils {
 
@@ -80,15 +81,14 @@ public class PacketUtils {
         }
     }
 
-    public static void sendBlockBreakAnimation(Player player, Location location, int entityId, byte damage) {
-        final WrapperPlayServerBlockBreakAnimation packet = new WrapperPlayServerBlockBreakAnimation(
-                entityId,
-                new Vector3i(location.getBlockX(), location.getBlockY(), location.getBlockZ()),
-                damage
-        );
-        PacketEvents.getAPI().getPlayerManager().sendPacket(
-                player,
-                packet
+    public static void sendBlockBreakAnimation(Position position, int entityId, byte damage, Collection<? extends Player> players) {
+        sendPacketSilently(
+                new WrapperPlayServerBlockBreakAnimation(
+                        entityId,
+                        new Vector3i(position.x(), position.y(), position.z()),
+                        damage
+                ),
+                players
         );
     }
 
@@ -142,45 +142,123 @@ public class PacketUtils {
         }
     }
 
+    /**
+     * x and z in the chunk, y in the world
+     */
+    @FunctionalInterface
+    public interface BlockTypeLookup {
+
+        Material getBlockType(int x, int y, int z);
+
+    }
+
+    /**
+     * Key of a block for the filter of {@link #sendMultiBlockChange(ChunkBlockCache, BlockTypeLookup, LongPredicate, Collection)}
+     */
+    public static long sectionBlockKey(int sectionY, int index) {
+        return ((long) sectionY << 12) | index;
+    }
+
+    public static void sendMultiBlockChange(ChunkBlockCache chunk, BlockTypeLookup worldTypes, Collection<? extends Player> players) {
+        sendMultiBlockChange(chunk, worldTypes, sectionBlockKey -> true, players);
+    }
+
+    /**
+     * Sends one packet per section with the chunk's blocks, built straight from the cache in section order
+     *
+     * @param filter tested with {@link #sectionBlockKey(int, int)}, only the blocks it accepts are sent
+     */
     public static void sendMultiBlockChange(
-            ChunkPosition chunkPosition,
-            Map<Position, BlockData> blocks,
-            Map<Position, Material> worldMaterials,
+            ChunkBlockCache chunk,
+            BlockTypeLookup worldTypes,
+            LongPredicate filter,
             Collection<? extends Player> players
     ) {
         if (players.isEmpty()) return;
-        final Multimap<Integer, Pair<Position, BlockData>> yToBlocksMap = Multimaps.newSetMultimap(new HashMap<>(), HashSet::new);
-        for (var entry : blocks.entrySet()) {
-            final Position position = entry.getKey();
-            final BlockData blockData = entry.getValue();
-            int chunkY = position.y() / 16;
-            if (position.y() < 0/* && chunkY == 0*/) chunkY -= 1;
-            yToBlocksMap.put(chunkY, Pair.of(position, blockData));
+        final ChunkPosition chunkPosition = chunk.getChunkPosition();
+        final MultiBlockResendTraceEvent traceEvent = MultiBlockResendTraceEvent.start(chunkPosition, players.size(), chunk.getBlockCount());
+        final SectionPacketBuilder builder = new SectionPacketBuilder(chunkPosition, worldTypes, filter, players);
+        chunk.forEachBlockInSectionOrder(builder);
+        builder.send();
+        traceEvent.finish();
+    }
+
+    private static final class SectionPacketBuilder implements SectionBlockConsumer {
+
+        private static final int SECTION_SIZE = 16 * 16 * 16;
+
+        private final ChunkPosition chunkPosition;
+        private final BlockTypeLookup worldTypes;
+        private final LongPredicate filter;
+        private final Collection<? extends Player> players;
+        // reused for every section, each packet gets a copy of the filled part
+        private final WrapperPlayServerMultiBlockChange.EncodedBlock[] blocks = new WrapperPlayServerMultiBlockChange.EncodedBlock[SECTION_SIZE];
+        private int sectionY;
+        private int count;
+
+        private SectionPacketBuilder(
+                ChunkPosition chunkPosition,
+                BlockTypeLookup worldTypes,
+                LongPredicate filter,
+                Collection<? extends Player> players
+        ) {
+            this.chunkPosition = chunkPosition;
+            this.worldTypes = worldTypes;
+            this.filter = filter;
+            this.players = players;
         }
-        for (Player player : players) {
-            for (int y : yToBlocksMap.keySet()) {
-                final Collection<Pair<Position, BlockData>> set = yToBlocksMap.get(y);
-                final var encodedBlocks = new WrapperPlayServerMultiBlockChange.EncodedBlock[set.size()];
-                int i = 0;
-                for (var pair : set) {
-                    final Position position = pair.getFirst();
-                    final BlockData blockData = pair.getSecond();
-                    encodedBlocks[i++] = new WrapperPlayServerMultiBlockChange.EncodedBlock(
-                            blockData.getNewState(worldMaterials.get(position)),
-                            position.x(),
-                            position.y(),
-                            position.z()
-                    );
-                }
-                PacketEvents.getAPI().getPlayerManager().sendPacketSilently(
-                        player,
-                        new WrapperPlayServerMultiBlockChange(
-                                new Vector3i(chunkPosition.x(), y, chunkPosition.z()),
-                                false,
-                                encodedBlocks
-                        )
-                );
+
+        @Override
+        public void accept(int sectionY, int index, BlockData blockData) {
+            if (!this.filter.test(sectionBlockKey(sectionY, index))) return;
+            if (sectionY != this.sectionY) {
+                this.send();
+                this.sectionY = sectionY;
+            }
+            final int x = index & 15;
+            final int y = (sectionY << 4) | (index >> 8);
+            final int z = (index >> 4) & 15;
+            this.blocks[this.count++] = new WrapperPlayServerMultiBlockChange.EncodedBlock(
+                    blockData.getNewState(this.worldTypes.getBlockType(x, y, z)),
+                    (this.chunkPosition.x() << 4) | x,
+                    y,
+                    (this.chunkPosition.z() << 4) | z
+            );
+        }
+
+        private void send() {
+            if (this.count == 0) return;
+            sendPacketSilently(
+                    new WrapperPlayServerMultiBlockChange(
+                            new Vector3i(this.chunkPosition.x(), this.sectionY, this.chunkPosition.z()),
+                            false,
+                            Arrays.copyOf(this.blocks, this.count)
+                    ),
+                    this.players
+            );
+            this.count = 0;
+        }
+
+    }
+
+    /**
+     * Encodes the packet once and writes the same bytes to every player,
+     * without passing it through the packet listeners
+     */
+    public static void sendPacketSilently(PacketWrapper<?> packet, Collection<? extends Player> players) {
+        if (players.isEmpty()) return;
+        final PacketEventsAPI<?> api = PacketEvents.getAPI();
+        packet.prepareForSend();
+        final Object buffer = packet.buffer;
+        try {
+            for (Player player : players) {
+                final Object channel = api.getPlayerManager().getChannel(player);
+                if (channel == null) continue;
+                // every write releases its own duplicate, the original is released below
+                api.getProtocolManager().sendPacketSilently(channel, ByteBufHelper.retainedDuplicate(buffer));
             }
+        } finally {
+            ByteBufHelper.release(buffer);
         }
     }
 
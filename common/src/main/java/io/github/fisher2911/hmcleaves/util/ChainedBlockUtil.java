@@ -112,7 +112,8 @@ public class ChainedBlockUtil {
         while (materialPredicate.test(iterated.getType())) {
             final Location location = iterated.getLocation();
             final Position position = Position.fromLocation(location);
-            final BlockData blockData = blockCache.removeBlockData(position);
+            final BlockData blockData = blockCache.getBlockData(position);
+            blockCache.removeBlockData(position);
             if (blockData != BlockData.EMPTY) {
                 LeafDropUtil.addToDropPositions(blockCache, position, blockData);
             }
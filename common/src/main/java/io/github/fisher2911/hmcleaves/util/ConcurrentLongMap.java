@@ -0,0 +1,238 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.util;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongFunction;
+
+/**
+ * A thread safe open addressing map with primitive long keys.
+ * Lookups never lock or allocate, writes synchronize on the map.
+ */
+public class ConcurrentLongMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final Entry<?> TOMBSTONE = new Entry<>(0, null);
+
+    private volatile AtomicReferenceArray<Entry<V>> table;
+    private volatile int size;
+    // live entries plus tombstones
+    private int used;
+
+    public ConcurrentLongMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ConcurrentLongMap(int expectedSize) {
+        this.table = new AtomicReferenceArray<>(tableSizeFor(expectedSize));
+    }
+
+    @Nullable
+    public V get(long key) {
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        final int mask = table.length() - 1;
+        int index = mix(key) & mask;
+        Entry<V> entry;
+        while ((entry = table.getAcquire(index)) != null) {
+            if (entry != TOMBSTONE && entry.key == key) return entry.value;
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return this.get(key) != null;
+    }
+
+    @Nullable
+    public synchronized V put(long key, V value) {
+        if (value == null) throw new NullPointerException("Value cannot be null");
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        final int index = this.find(table, key);
+        if (index == -1) {
+            this.insert(key, value);
+            return null;
+        }
+        final Entry<V> previous = table.get(index);
+        table.setRelease(index, new Entry<>(key, value));
+        return previous.value;
+    }
+
+    @Nullable
+    public synchronized V putIfAbsent(long key, V value) {
+        final V previous = this.get(key);
+        if (previous != null) return previous;
+        this.put(key, value);
+        return null;
+    }
+
+    public V computeIfAbsent(long key, LongFunction<V> function) {
+        final V value = this.get(key);
+        if (value != null) return value;
+        synchronized (this) {
+            final V current = this.get(key);
+            if (current != null) return current;
+            final V created = function.apply(key);
+            if (created == null) return null;
+            this.insert(key, created);
+            return created;
+        }
+    }
+
+    @Nullable
+    public synchronized V remove(long key) {
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        final int index = this.find(table, key);
+        if (index == -1) return null;
+        final Entry<V> previous = table.get(index);
+        this.removeAt(table, index);
+        return previous.value;
+    }
+
+    /**
+     * Only removes the entry if it is currently mapped to the given value
+     */
+    public synchronized boolean remove(long key, V value) {
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        final int index = this.find(table, key);
+        if (index == -1 || table.get(index).value != value) return false;
+        this.removeAt(table, index);
+        return true;
+    }
+
+    public synchronized void clear() {
+        this.table = new AtomicReferenceArray<>(DEFAULT_CAPACITY);
+        this.size = 0;
+        this.used = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return a snapshot of the values at the time of calling
+     */
+    public List<V> values() {
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        final List<V> values = new ArrayList<>(this.size);
+        for (int i = 0; i < table.length(); i++) {
+            final Entry<V> entry = table.getAcquire(i);
+            if (entry == null || entry == TOMBSTONE) continue;
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    public void forEach(LongObjectConsumer<V> consumer) {
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        for (int i = 0; i < table.length(); i++) {
+            final Entry<V> entry = table.getAcquire(i);
+            if (entry == null || entry == TOMBSTONE) continue;
+            consumer.accept(entry.key, entry.value);
+        }
+    }
+
+    // returns the index of the key, or -1 if it is not in the table
+    private int find(AtomicReferenceArray<Entry<V>> table, long key) {
+        final int mask = table.length() - 1;
+        int index = mix(key) & mask;
+        Entry<V> entry;
+        while ((entry = table.get(index)) != null) {
+            if (entry != TOMBSTONE && entry.key == key) return index;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(long key, V value) {
+        if ((this.used + 1) * 2 > this.table.length()) {
+            this.resize();
+        }
+        final AtomicReferenceArray<Entry<V>> table = this.table;
+        final int mask = table.length() - 1;
+        int index = mix(key) & mask;
+        Entry<V> entry;
+        while ((entry = table.get(index)) != null && entry != TOMBSTONE) {
+            index = (index + 1) & mask;
+        }
+        if (entry == null) this.used++;
+        table.setRelease(index, new Entry<>(key, value));
+        this.size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removeAt(AtomicReferenceArray<Entry<V>> table, int index) {
+        table.setRelease(index, (Entry<V>) TOMBSTONE);
+        this.size--;
+    }
+
+    private void resize() {
+        final AtomicReferenceArray<Entry<V>> old = this.table;
+        final int capacity = tableSizeFor(Math.max(this.size + 1, DEFAULT_CAPACITY / 2));
+        final AtomicReferenceArray<Entry<V>> resized = new AtomicReferenceArray<>(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < old.length(); i++) {
+            final Entry<V> entry = old.get(i);
+            if (entry == null || entry == TOMBSTONE) continue;
+            int index = mix(entry.key) & mask;
+            while (resized.get(index) != null) {
+                index = (index + 1) & mask;
+            }
+            resized.set(index, entry);
+        }
+        this.used = this.size;
+        this.table = resized;
+    }
+
+    // table is kept at most half full
+    private static int tableSizeFor(int expectedSize) {
+        final int size = Math.max(DEFAULT_CAPACITY, expectedSize * 2);
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    @FunctionalInterface
+    public interface LongObjectConsumer<V> {
+
+        void accept(long key, V value);
+
+    }
+
+    private record Entry<V>(long key, V value) {
+
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.hmcleaves.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * An open addressing set of primitive longs, not thread safe
+ */
+public class LongHashSet {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    // marks an empty slot, the key itself is tracked separately
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] table;
+    private int size;
+    private boolean containsEmptyKey;
+
+    public LongHashSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongHashSet(int expectedSize) {
+        this.table = newTable(tableSizeFor(expectedSize));
+    }
+
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (this.containsEmptyKey) return false;
+            this.containsEmptyKey = true;
+            this.size++;
+            return true;
+        }
+        final long[] table = this.table;
+        final int mask = table.length - 1;
+        int index = mix(key) & mask;
+        long current;
+        while ((current = table[index]) != EMPTY) {
+            if (current == key) return false;
+            index = (index + 1) & mask;
+        }
+        table[index] = key;
+        this.size++;
+        if (this.size * 2 > table.length) {
+            this.resize();
+        }
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) return this.containsEmptyKey;
+        final long[] table = this.table;
+        final int mask = table.length - 1;
+        int index = mix(key) & mask;
+        long current;
+        while ((current = table[index]) != EMPTY) {
+            if (current == key) return true;
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!this.containsEmptyKey) return false;
+            this.containsEmptyKey = false;
+            this.size--;
+            return true;
+        }
+        final long[] table = this.table;
+        final int mask = table.length - 1;
+        int index = mix(key) & mask;
+        long current;
+        while ((current = table[index]) != EMPTY) {
+            if (current == key) {
+                this.shiftBack(index);
+                this.size--;
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    // moves later keys in the probe chain back into the removed slot so lookups don't need tombstones
+    private void shiftBack(int removed) {
+        final long[] table = this.table;
+        final int mask = table.length - 1;
+        int index = removed;
+        while (true) {
+            index = (index + 1) & mask;
+            final long key = table[index];
+            if (key == EMPTY) break;
+            final int home = mix(key) & mask;
+            // the key can only move back if its home slot isn't between the removed slot and where it is now
+            if (((index - home) & mask) >= ((index - removed) & mask)) {
+                table[removed] = key;
+                removed = index;
+            }
+        }
+        table[removed] = EMPTY;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        this.table = newTable(DEFAULT_CAPACITY);
+        this.size = 0;
+        this.containsEmptyKey = false;
+    }
+
+    public void forEach(LongConsumer consumer) {
+        if (this.containsEmptyKey) consumer.accept(EMPTY);
+        for (long key : this.table) {
+            if (key == EMPTY) continue;
+            consumer.accept(key);
+        }
+    }
+
+    private void resize() {
+        final long[] old = this.table;
+        final long[] resized = newTable(old.length * 2);
+        final int mask = resized.length - 1;
+        for (long key : old) {
+            if (key == EMPTY) continue;
+            int index = mix(key) & mask;
+            while (resized[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            resized[index] = key;
+        }
+        this.table = resized;
+    }
+
+    private static long[] newTable(int capacity) {
+        final long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    // table is kept at most half full
+    private static int tableSizeFor(int expectedSize) {
+        final int size = Math.max(DEFAULT_CAPACITY, expectedSize * 2);
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+}
@@ -42,6 +42,13 @@ public class PDCUtil {
     public static final NamespacedKey SAPLING_ID_KEY = new NamespacedKey(PLUGIN, "sapling_id");
     public static final NamespacedKey SAPLING_STAGE_KEY = new NamespacedKey(PLUGIN, "sapling_stage");
 
+    // chunk data, used by the CHUNK_PDC database type
+    public static final NamespacedKey CHUNK_BLOCKS_KEY = new NamespacedKey(PLUGIN, "chunk_blocks");
+    public static final NamespacedKey CHUNK_VERSION_KEY = new NamespacedKey(PLUGIN, "chunk_version");
+    public static final NamespacedKey CHUNK_DEFAULT_LAYERS_KEY = new NamespacedKey(PLUGIN, "chunk_default_layers");
+    // set once the old SQLite database was checked for the chunk, even if it had nothing
+    public static final NamespacedKey CHUNK_LEGACY_CHECKED_KEY = new NamespacedKey(PLUGIN, "chunk_legacy_checked");
+
     @Nullable
     public static String getItemId(ItemStack itemStack) {
         final ItemMeta itemMeta = itemStack.getItemMeta();
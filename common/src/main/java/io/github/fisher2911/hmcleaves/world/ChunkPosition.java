@@ -38,6 +38,22 @@ public record ChunkPosition(UUID world, int x, int z) {
         return new ChunkPosition(world, x, z);
     }
 
+    public static long chunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public static int chunkKeyX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    public static int chunkKeyZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    public long getChunkKey() {
+        return chunkKey(this.x, this.z);
+    }
+
     public ChunkPosition add(int x, int z) {
         return new ChunkPosition(world, this.x + x, this.z + z);
     }
@@ -87,7 +103,9 @@ public record ChunkPosition(UUID world, int x, int z) {
 
     @Override
     public int hashCode() {
-        return Objects.hash(world, x, z);
+        int result = 31 + Objects.hashCode(this.world);
+        result = 31 * result + this.x;
+        return 31 * result + this.z;
     }
 
 }
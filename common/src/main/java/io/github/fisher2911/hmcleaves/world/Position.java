@@ -29,6 +29,36 @@ import java.util.UUID;
 
 public record Position(UUID world, int x, int y, int z) {
 
+    // same layout as the vanilla BlockPos: 26 bits of x, 26 bits of z and 12 bits of y
+    private static final int PACKED_XZ_BITS = 26;
+    private static final int PACKED_Y_BITS = 12;
+    private static final long PACKED_XZ_MASK = (1L << PACKED_XZ_BITS) - 1;
+    private static final long PACKED_Y_MASK = (1L << PACKED_Y_BITS) - 1;
+    private static final int PACKED_X_OFFSET = PACKED_Y_BITS + PACKED_XZ_BITS;
+    private static final int PACKED_Z_OFFSET = PACKED_Y_BITS;
+
+    public static long asLong(int x, int y, int z) {
+        return ((x & PACKED_XZ_MASK) << PACKED_X_OFFSET) |
+                ((z & PACKED_XZ_MASK) << PACKED_Z_OFFSET) |
+                (y & PACKED_Y_MASK);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed << (64 - PACKED_X_OFFSET - PACKED_XZ_BITS) >> (64 - PACKED_XZ_BITS));
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << (64 - PACKED_Y_BITS) >> (64 - PACKED_Y_BITS));
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << (64 - PACKED_Z_OFFSET - PACKED_XZ_BITS) >> (64 - PACKED_XZ_BITS));
+    }
+
+    public static Position fromLong(UUID world, long packed) {
+        return new Position(world, unpackX(packed), unpackY(packed), unpackZ(packed));
+    }
+
     public static Position fromLocation(Location location) throws IllegalStateException {
         if (location.getWorld() == null) throw new IllegalStateException("Location must have a world!");
         return at(location.getWorld().getUID(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
@@ -60,6 +90,14 @@ public record Position(UUID world, int x, int y, int z) {
         return new Location(world, this.x, this.y, this.z);
     }
 
+    public long asLong() {
+        return asLong(this.x, this.y, this.z);
+    }
+
+    public long getChunkKey() {
+        return ChunkPosition.chunkKey(this.x >> 4, this.z >> 4);
+    }
+
     public ChunkPosition getChunkPosition() {
         return new ChunkPosition(this.world, this.x >> 4, this.z >> 4);
     }
@@ -0,0 +1,115 @@
+/*
+ *
+ *  *     HMCLeaves
+ *  *     Copyright (C) 2022  Hibiscus Creative Studios
+ *  *
+ *  *     This program is free software: you can redistribute it and/or modify
+ *  *     it under the terms of the GNU General Public License as published by
+ *  *     the Free Software Foundation, either version 3 of the License, or
+ *  *     (at your option) any later version.
+ *  *
+ *  *     This program is distributed in the hope that it will be useful,
+ *  *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  *     GNU General Public License for more details.
+ *  *
+ *  *     You should have received a copy of the GNU General Public License
+ *  *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ */
+
+package io.github.fisher2911.v1_18;
+
+import io.github.fisher2911.hmcleaves.config.LeavesConfig;
+import io.github.fisher2911.hmcleaves.nms.ChunkSections;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.craftbukkit.v1_18_R1.CraftWorld;
+import org.bukkit.craftbukkit.v1_18_R1.block.data.CraftBlockData;
+import org.bukkit.craftbukkit.v1_18_R1.util.CraftMagicNumbers;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Copies only the block palettes of sections that aren't empty, instead of the biomes, heightmaps and light
+ * that {@link Chunk#getChunkSnapshot()} also copies
+ */
+public class ChunkSectionReader extends io.github.fisher2911.hmcleaves.nms.ChunkSectionReader {
+
+    public ChunkSectionReader(LeavesConfig config) {
+        super(config);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ChunkSections read(Chunk chunk, IntPredicate sectionFilter) {
+        final LevelChunk levelChunk = ((CraftWorld) chunk.getWorld()).getHandle().getChunk(chunk.getX(), chunk.getZ());
+        final LevelChunkSection[] sections = levelChunk.getSections();
+        final PalettedContainer<BlockState>[] states = new PalettedContainer[sections.length];
+        final boolean[] mayHaveDefaultBlocks = new boolean[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            final LevelChunkSection section = sections[i];
+            if (section == null || section.hasOnlyAir() || !sectionFilter.test(i)) continue;
+            final PalettedContainer<BlockState> sectionStates = section.getStates();
+            states[i] = sectionStates.copy();
+            // only looks at the palette, not at every block
+            mayHaveDefaultBlocks[i] = sectionStates.maybeHas(
+                    state -> this.config.mayHaveDefaultBlockData(CraftMagicNumbers.getMaterial(state.getBlock()))
+            );
+        }
+        return new NMSChunkSections(chunk.getX(), chunk.getZ(), levelChunk.getMinBuildHeight(), states, mayHaveDefaultBlocks);
+    }
+
+    private record NMSChunkSections(
+            int chunkX,
+            int chunkZ,
+            int minY,
+            PalettedContainer<BlockState>[] states,
+            boolean[] mayHaveDefaultBlocks
+    ) implements ChunkSections {
+
+        @Override
+        public int getX() {
+            return this.chunkX;
+        }
+
+        @Override
+        public int getZ() {
+            return this.chunkZ;
+        }
+
+        @Override
+        public boolean isSectionEmpty(int sectionIndex) {
+            return this.states[sectionIndex] == null;
+        }
+
+        @Override
+        public boolean mayHaveDefaultBlocks(int sectionIndex) {
+            return this.mayHaveDefaultBlocks[sectionIndex];
+        }
+
+        @Override
+        public Material getBlockType(int x, int y, int z) {
+            return CraftMagicNumbers.getMaterial(this.getState(x, y, z).getBlock());
+        }
+
+        @Override
+        public BlockData getBlockData(int x, int y, int z) {
+            return CraftBlockData.fromData(this.getState(x, y, z));
+        }
+
+        private BlockState getState(int x, int y, int z) {
+            final PalettedContainer<BlockState> sectionStates = this.states[(y - this.minY) >> 4];
+            if (sectionStates == null) return Blocks.AIR.defaultBlockState();
+            return sectionStates.get(x & 15, y & 15, z & 15);
+        }
+
+    }
+
+}